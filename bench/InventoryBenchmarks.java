@@ -0,0 +1,342 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+
+/**
+ * Benchmarks for the code paths behind saveTableData, restoreTableData,
+ * exportToExcel, importFromExcel, filterTable, the summary totals and Find
+ * Duplicates, on synthetic inventories.
+ *
+ * Each benchmark is warmed up, then timed over several iterations and the
+ * median is reported. Results are compared against baselines.properties;
+ * anything slower than baseline by more than the tolerance is reported as a
+ * regression and the run exits with status 1, as does a benchmark without a
+ * baseline. The XLSX benchmarks are part of every run: if POI can't write
+ * and read a workbook (poi-ooxml-lite missing from lib/) the run stops with
+ * status 2. Run with bench/run.sh.
+ *
+ * Options: --sizes 10000,100000,1000000  --tolerance 0.25  --update-baselines
+ */
+public class InventoryBenchmarks {
+
+    private static final File BASELINES = new File("bench/baselines.properties");
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+
+    private final Map<String, Double> results = new LinkedHashMap<>();
+
+    interface Task {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10_000, 100_000, 1_000_000};
+        double tolerance = 0.25;
+        boolean update = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                case "--update-baselines":
+                    update = true;
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        InventoryBenchmarks benchmarks = new InventoryBenchmarks();
+        File dir = Files.createTempDirectory("inventory-bench").toFile();
+        if (!xlsxWorks(dir)) { // fail now rather than after the first size
+            deleteTree(dir);
+            System.exit(2);
+        }
+        try {
+            for (int size : sizes) {
+                benchmarks.runAll(size, dir);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+        System.exit(update ? benchmarks.saveBaselines() : benchmarks.compare(tolerance));
+    }
+
+    private void runAll(int size, File dir) throws Exception {
+        System.out.printf("%n== %,d assets ==%n", size);
+        List<Asset> rows = inventory(size, 42);
+
+        // saveTableData: cost of journaling one edit on the EDT, and a full snapshot
+        File snapshot = new File(dir, "inventory.dat");
+        File journalFile = new File(dir, "inventory.journal");
+        snapshot.delete();
+        journalFile.delete();
+        SnapshotFile.write(snapshot, rows, 0);
+        IoScheduler io = new IoScheduler();
+        InventoryJournal journal = new InventoryJournal(snapshot, journalFile, io);
+        AssetTableModel model = new AssetTableModel();
+        model.addAssets(journal.read(0, journal.open()));
+        model.addTableModelListener(e -> journal.record(e, model));
+        Random random = new Random(7);
+        int edits = 1_000;
+        measure(size, "save.edit_us", edits, 1000, () -> {
+            for (int i = 0; i < edits; i++) {
+                model.setValueAt("Note " + random.nextInt(), random.nextInt(size), Asset.NOTE);
+            }
+        });
+        io.shutdown();
+        journal.close();
+        measure(size, "save.snapshot_ms", 1, 1, () -> SnapshotFile.write(snapshot, rows, 0));
+
+        // restoreTableData: cold start from snapshot plus a journal tail
+        measure(size, "restore_ms", 1, 1, () -> {
+            IoScheduler restoreIo = new IoScheduler();
+            InventoryJournal restored = new InventoryJournal(snapshot, journalFile, restoreIo);
+            AssetTableModel fresh = new AssetTableModel();
+            fresh.addAssets(restored.load());
+            restoreIo.shutdown();
+            restored.close();
+        });
+
+        // exportToExcel / importFromExcel
+        File csv = new File(dir, "export.csv");
+        measure(size, "export.csv_ms", 1, 1, () -> InventoryExporter.write(csv, rows, (done, total) -> true));
+        File xlsx = new File(dir, "export.xlsx");
+        long heap = peakHeap(() -> InventoryExporter.write(xlsx, rows, (done, total) -> true));
+        results.put(size + ".export.xlsx_heap_mb", heap / (1024.0 * 1024.0));
+        measure(size, "export.xlsx_ms", 1, 1, () -> InventoryExporter.write(xlsx, rows, (done, total) -> true));
+        heap = peakHeap(() -> InventoryImporter.readXlsx(xlsx, Asset.COLUMN_COUNT, (values, progress) -> true));
+        results.put(size + ".import.xlsx_heap_mb", heap / (1024.0 * 1024.0));
+        measure(size, "import.xlsx_ms", 1, 1, () -> {
+            List<Asset> imported = new ArrayList<>(size);
+            InventoryImporter.readXlsx(xlsx, Asset.COLUMN_COUNT, (values, progress) -> imported.add(Asset.fromValues(values)));
+        });
+
+        // filterTable: index lookup plus re-filtering the sorter, per keystroke
+        // Wired like App: the JTable forwards model events to the sorter, and the
+        // index listener is added after it so it sees each event first
+        AssetTableModel searchModel = new AssetTableModel();
+        JTable table = new AssetTable(searchModel);
+        AssetRowSorter sorter = (AssetRowSorter) table.getRowSorter();
+        SearchIndex index = new SearchIndex(searchModel);
+        searchModel.addTableModelListener(index);
+        searchModel.addAssets(rows);
+        String typed = "model 12";
+        measure(size, "search.keystroke_us", typed.length(), 1000, () -> {
+            for (int i = 1; i <= typed.length(); i++) {
+                sorter.setRowFilter(index.filter(Asset.MODEL, typed.substring(0, i)));
+            }
+        });
+        measure(size, "search.all_columns_keystroke_us", typed.length(), 1000, () -> {
+            for (int i = 1; i <= typed.length(); i++) {
+                sorter.setRowFilter(index.filter(SearchIndex.ALL_COLUMNS, typed.substring(0, i)));
+            }
+        });
+        String tag = rows.get(rows.size() / 2).getAssetTag();
+        measure(size, "search.tag_keystroke_us", tag.length(), 1000, () -> {
+            for (int i = 1; i <= tag.length(); i++) {
+                sorter.setRowFilter(index.filter(Asset.ASSET_TAG, tag.substring(0, i)));
+            }
+        });
+        sorter.setRowFilter(null);
+
+        // Model: sorted insert through the incremental sorter
+        sorter.setSortKeys(Collections.singletonList(new RowSorter.SortKey(Asset.MODEL, SortOrder.ASCENDING)));
+        List<Asset> extra = inventory(100, 9);
+        measure(size, "model.sorted_insert_us", extra.size(), 1000, () -> {
+            for (Asset asset : extra) {
+                searchModel.addAsset(asset);
+            }
+        });
+
+        // Delete Selected Rows on one row, then Undo: a BatchEvent each, replayed
+        // by AssetTable through the sorted sorter
+        measure(size, "model.delete_undo_us", 100, 1000, () -> {
+            for (int i = 0; i < 100; i++) {
+                AssetTableModel.Changes delete = new AssetTableModel.Changes();
+                delete.delete(random.nextInt(searchModel.getRowCount()));
+                searchModel.apply(searchModel.apply(delete));
+            }
+        });
+
+        // importFromExcel validation without the XLSX parsing: a vendor sheet
+        // with updates to every asset, merged into the inventory
+        List<String[]> sheet = new ArrayList<>(size);
+        for (Asset asset : inventory(size, 43)) {
+            String[] values = new String[Asset.COLUMN_COUNT];
+            for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+                Object value = asset.get(col);
+                values[col] = value == null ? "" : value.toString();
+            }
+            sheet.add(values);
+        }
+        measure(size, "import.validate_ms", 1, 1, () -> {
+            ImportPipeline pipeline = new ImportPipeline("bench", rows, ForkJoinPool.commonPool());
+            for (int i = 0; i < sheet.size(); i++) {
+                pipeline.add(i + 2, sheet.get(i));
+            }
+            pipeline.finish();
+        });
+
+        // Summary totals: one cell edit moves an asset between groups, whatever the size
+        AssetTableModel summaryModel = new AssetTableModel();
+        summaryModel.addAssets(rows);
+        InventoryAggregates aggregates = new InventoryAggregates(summaryModel);
+        summaryModel.addTableModelListener(aggregates);
+        measure(size, "aggregates.edit_us", 1000, 1000, () -> {
+            for (int i = 0; i < 1000; i++) {
+                summaryModel.setValueAt("Room " + random.nextInt(50), random.nextInt(size), Asset.PHYSICAL_LOCATION);
+            }
+        });
+
+        // Find Duplicates over the whole inventory
+        measure(size, "duplicates.find_ms", 1, 1, () -> DuplicateFinder.find(rows, ForkJoinPool.commonPool(), fraction -> true));
+    }
+
+    // Runs warmups, then reports the median of ITERATIONS runs divided by opsPerRun
+    private void measure(int size, String name, int opsPerRun, double unitsPerMilli, Task task) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            task.run();
+        }
+        double[] times = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            times[i] = (System.nanoTime() - start) / 1e6 * unitsPerMilli / opsPerRun;
+        }
+        Arrays.sort(times);
+        double median = times[ITERATIONS / 2];
+        results.put(size + "." + name, median);
+        System.out.printf("  %-34s %12.2f%n", name, median);
+    }
+
+    private static long peakHeap(Task task) throws Exception {
+        System.gc();
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                pools.add(pool);
+            }
+        }
+        long before = pools.stream().mapToLong(p -> p.getUsage().getUsed()).sum();
+        task.run();
+        long peak = pools.stream().mapToLong(p -> p.getPeakUsage().getUsed()).sum();
+        return Math.max(0, peak - before);
+    }
+
+    private int compare(double tolerance) throws IOException {
+        Properties baselines = new Properties();
+        if (!BASELINES.isFile()) {
+            System.out.println("\nNo " + BASELINES + " yet, run with --update-baselines to create it");
+            return 0;
+        }
+        try (InputStream in = new FileInputStream(BASELINES)) {
+            baselines.load(in);
+        }
+        int regressions = 0;
+        System.out.printf("%n%-44s %12s %12s %8s%n", "benchmark", "baseline", "now", "change");
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            String baseline = baselines.getProperty(result.getKey());
+            if (baseline == null) {
+                regressions++; // a new benchmark, or one that couldn't run when the baselines were recorded
+                System.out.printf("%-44s %12s %12.2f  NO BASELINE%n", result.getKey(), "-", result.getValue());
+                continue;
+            }
+            double expected = Double.parseDouble(baseline);
+            double change = expected > 0 ? result.getValue() / expected - 1 : 0;
+            boolean regressed = change > tolerance;
+            regressions += regressed ? 1 : 0;
+            System.out.printf("%-44s %12.2f %12.2f %+7.0f%%%s%n", result.getKey(), expected, result.getValue(), change * 100, regressed ? "  REGRESSION" : "");
+        }
+        System.out.println(regressions == 0 ? "\nNo regressions" : "\n" + regressions + " regression(s) over " + Math.round(tolerance * 100) + "% or without a baseline");
+        return regressions == 0 ? 0 : 1;
+    }
+
+    private int saveBaselines() throws IOException {
+        Properties baselines = new Properties();
+        if (BASELINES.isFile()) {
+            try (InputStream in = new FileInputStream(BASELINES)) {
+                baselines.load(in);
+            }
+        }
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            baselines.setProperty(result.getKey(), String.format("%.2f", result.getValue()));
+        }
+        // Sorted so the file diffs cleanly
+        StringBuilder text = new StringBuilder("# Medians from bench/run.sh --update-baselines. Times in ms or us as named, heap in MB.\n");
+        for (Map.Entry<Object, Object> entry : new TreeMap<>(baselines).entrySet()) {
+            text.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        try (OutputStream out = new FileOutputStream(BASELINES)) {
+            out.write(text.toString().getBytes("ISO-8859-1"));
+        }
+        System.out.println("\nWrote " + BASELINES);
+        return 0;
+    }
+
+    // Inventory with realistic cardinalities: few categories and locations, many models
+    static List<Asset> inventory(int size, long seed) {
+        Random random = new Random(seed);
+        String[] categories = {"Laptop", "Desktop", "Monitor", "Phone", "Printer", "Dock", "Switch", "Tablet"};
+        String[] manufacturers = {"Dell", "HP", "Lenovo", "Apple", "Cisco", "Samsung", "Brother", "Logitech"};
+        List<Asset> rows = new ArrayList<>(size);
+        LocalDate start = LocalDate.of(2015, 1, 1);
+        for (int i = 0; i < size; i++) {
+            rows.add(new Asset(String.format("AT-%07d", i), "Model " + random.nextInt(2_000), manufacturers[random.nextInt(manufacturers.length)],
+                    categories[random.nextInt(categories.length)], 1 + random.nextInt(5), Long.toHexString(random.nextLong()),
+                    "Building " + random.nextInt(10) + " Room " + random.nextInt(300), random.nextInt(4) == 0 ? "Storage" : "In use",
+                    start.plusDays(random.nextInt(3_500)), start.plusDays(random.nextInt(3_500)),
+                    random.nextInt(10) == 0 ? "Needs repair" : "", Asset.NO_IMAGE));
+        }
+        return rows;
+    }
+
+    private static boolean xlsxWorks(File dir) {
+        File file = new File(dir, "check.xlsx");
+        try {
+            InventoryExporter.write(file, inventory(1, 1), (done, total) -> true);
+            InventoryImporter.readXlsx(file, Asset.COLUMN_COUNT, (values, progress) -> true);
+            return true;
+        } catch (Exception | LinkageError e) {
+            System.err.println("XLSX doesn't work, are all of POI's jars (poi-ooxml-lite) in lib/? " + e);
+            return false;
+        }
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
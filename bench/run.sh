@@ -0,0 +1,8 @@
+#!/bin/sh
+# Compiles the app and the benchmarks, then runs them from the project root.
+# Pass --update-baselines to record new baselines, --sizes 10000,100000 for a quick run.
+set -e
+cd "$(dirname "$0")/.."
+rm -rf bench/out
+javac -d bench/out -cp "lib/*" src/*.java bench/*.java
+java -Xmx4g -Djava.awt.headless=true -cp "bench/out:lib/*" InventoryBenchmarks "$@"
@@ -1,57 +1,126 @@
 import java.awt.BorderLayout;
 import java.awt.Component;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputFilter;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.Vector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
+import javax.swing.AbstractAction;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JComponent;
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
+import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
 import javax.swing.JTable;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
-import javax.swing.RowFilter;
+import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.ChangeListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
-import javax.swing.table.TableRowSorter;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.UndoManager;
 
-import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import com.github.lgooddatepicker.components.DatePicker;
 import com.github.lgooddatepicker.components.DatePickerSettings;
 
 public class App {
+    static {
+        Logging.configure(); // before any class gets its logger
+    }
+
+    private static final Logger LOG = LogManager.getLogger(App.class);
 
-    private static final String[] COLUMN_NAMES = {"Asset Tag", "Model", "Manufacturer", "Category", "Quantity", "Serial", "Physical Location", "Where", "Date Received", "Date Recorded", "Note", "Image"};
-    private static final File SER_FILE = new File("inventory.ser");
+    private static final String[] COLUMN_NAMES = Asset.COLUMN_NAMES;
+    private static final File SER_FILE = new File("inventory.ser"); // Java-serialized format, migrated on first start
+    private static final File DATA_FILE = new File("inventory.dat");
+    private static final IoScheduler IO = new IoScheduler();
+    private static final InventoryJournal JOURNAL = new InventoryJournal(DATA_FILE, new File("inventory.journal"), IO);
+    private static final File DB_FILE = new File("inventory.db");
+    private static final InventoryStore STORE = selectStore();
+    private static final File HISTORY_FILE = new File("inventory.history");
+    private static final int FIRST_PAGE = 500; // rows shown before the window opens; the rest are paged in
+    private static final int PAGE_SIZE = 20_000;
+    private static final int SEARCH_DELAY_MILLIS = 150;
+    private static final int SUMMARY_DELAY_MILLIS = 250;
+    private static final long EDT_STALL_MILLIS = Long.getLong("inventory.edtStallMillis", 200);
+    private static final Metrics.Timer RESTORE_TIMER = Metrics.timer("restore");
+    private static final Metrics.Timer SEARCH_TIMER = Metrics.timer("search");
+    private static final Metrics.Timer RECORD_TIMER = Metrics.timer("store.record"); // the EDT's share of saving
+    private static final int MAX_HISTORY_ROWS = 10_000; // movements of all assets shown at once
+    private static final DateTimeFormatter HISTORY_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final ThumbnailCache THUMBNAILS = new ThumbnailCache(32, 16L << 20, new File("thumbnails"));
+    private static final UndoManager UNDO = new UndoManager(); // bulk changes only, EDT only
+    private static boolean applyingUndoable;
+    private static final Map<Object, String> CELL_TEXT = new HashMap<>(); // formatted dates/numbers and image file names, EDT only
     private static String imagePath = ""; // Class-level field for image path
-    private static boolean exporting = false;
+    private static SearchIndex searchIndex;
+    private static InventoryAggregates aggregates;
+    private static AssetHistory history; // null for a shared inventory, whose server keeps it
     private static File lastImportDirectory = new File(System.getProperty("user.home")); // Default to user's home directory
 
     public static void main(String[] args) {
+        if (InventoryCli.isBatch(args)) {
+            System.setProperty("java.awt.headless", "true");
+            migrateLegacyData();
+            AssetHistory batchHistory = STORE instanceof InventoryClient ? null : new AssetHistory(HISTORY_FILE, IO);
+            System.exit(new InventoryCli(IO, STORE, batchHistory, System.out).run(args));
+        }
         loadLastImportDirectory();
         loadLastExportDirectory();
+        Metrics.start();
+        EdtMonitor.install(EDT_STALL_MILLIS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            IO.shutdown();
+            STORE.close();
+            if (history != null) {
+                history.close();
+            }
+            Metrics.stop();
+        }, "inventory-shutdown"));
         SwingUtilities.invokeLater(() -> {
             JFrame frame = new JFrame("Inventory System");
             frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -59,66 +128,118 @@ public class App {
             frame.setLayout(new BorderLayout());
 
             // Create the table
-            DefaultTableModel model = new DefaultTableModel(COLUMN_NAMES, 0) {
-                @Override
-                public boolean isCellEditable(int row, int column) {
-                    // Make only the image column non-editable
-                    return column != 11; // Assuming the image column is at index 11
-                }
-            };
-            JTable table = new JTable(model);
-            TableRowSorter<DefaultTableModel> sorter = new TableRowSorter<>(model);
-            table.setRowSorter(sorter);
+            AssetTableModel model = new AssetTableModel();
+            Metrics.gauge("rows", model::getRowCount); // a stale count is fine for a gauge
+            JTable table = new AssetTable(model);
             configureTableForMultilineCells(table);
             configureTableForImageHandling(table);
             JScrollPane scrollPane = new JScrollPane(table);
+            prefetchThumbnails(table, scrollPane);
             frame.add(scrollPane, BorderLayout.CENTER);
 
-            // Add this after creating the table
-            model.addTableModelListener(e -> saveTableData(model));
+            // Added after the JTable so the index is updated before the sorter re-filters
+            searchIndex = new SearchIndex(model);
+            model.addTableModelListener(searchIndex);
+            aggregates = new InventoryAggregates(model);
+            model.addTableModelListener(aggregates);
+
+            // Restore table data before listening, so the restore itself is not saved again
+            int storedRows = restoreTableData(model);
             
             // Create buttons
             JPanel buttonPanel = new JPanel();
             JButton addRowButton = new JButton("Add Row");
             JButton addAssetButton = new JButton("Add Asset");
-            JButton deleteRowButton = new JButton("Delete Selected Row");
+            JButton deleteRowButton = new JButton("Delete Selected Rows");
+            JButton editSelectedButton = new JButton("Edit Selected");
             JButton deleteAllButton = new JButton("Delete All Rows");
             JButton exportButton = new JButton("Export to Excel");
             JButton importButton = new JButton("Import from Excel");
+            JButton historyButton = new JButton("History");
+            JButton summaryButton = new JButton("Summary");
+            JButton duplicatesButton = new JButton("Find Duplicates");
 
             buttonPanel.add(addRowButton);
             buttonPanel.add(addAssetButton);
             buttonPanel.add(deleteRowButton);
+            buttonPanel.add(editSelectedButton);
             buttonPanel.add(deleteAllButton);
             buttonPanel.add(exportButton);
             buttonPanel.add(importButton);
+            buttonPanel.add(historyButton);
+            buttonPanel.add(summaryButton);
+            buttonPanel.add(duplicatesButton);
 
             // Create the search box and dropdown
             JPanel searchPanel = new JPanel();
             JTextField searchField = new JTextField(20);
-            JComboBox<String> searchByComboBox = new JComboBox<>(COLUMN_NAMES);
+            String[] searchColumns = Arrays.copyOf(COLUMN_NAMES, COLUMN_NAMES.length + 1);
+            searchColumns[COLUMN_NAMES.length] = "All Columns";
+            JComboBox<String> searchByComboBox = new JComboBox<>(searchColumns);
             searchByComboBox.addActionListener(e -> searchField.setEnabled(searchByComboBox.getSelectedIndex() >= 0));
 
+            // Search once typing pauses rather than on every keystroke
+            Timer searchTimer = new Timer(SEARCH_DELAY_MILLIS, e -> {
+                if (searchByComboBox.getSelectedIndex() >= 0) {
+                    int columnIndex = searchByComboBox.getSelectedIndex();
+                    if (columnIndex == COLUMN_NAMES.length) {
+                        columnIndex = SearchIndex.ALL_COLUMNS;
+                    }
+                    String searchText = searchField.getText();
+                    filterTable(table, columnIndex, searchText);
+                }
+            });
+            searchTimer.setRepeats(false);
+            searchByComboBox.addActionListener(e -> searchTimer.restart());
+
             searchField.addKeyListener(new KeyAdapter() {
                 @Override
                 public void keyReleased(KeyEvent e) {
-                    if (searchByComboBox.getSelectedIndex() >= 0) {
-                        int columnIndex = searchByComboBox.getSelectedIndex();
-                        String searchText = searchField.getText();
-                        filterTable(table, columnIndex, searchText);
-                    }
+                    searchTimer.restart();
                 }
             });
 
             searchPanel.add(searchField);
             searchPanel.add(searchByComboBox);
+
+            // Undo/Redo for the bulk changes below. Any other change to the
+            // model clears them, as the rows they refer to may have moved.
+            JButton undoButton = new JButton("Undo");
+            JButton redoButton = new JButton("Redo");
+            Runnable updateUndoButtons = () -> {
+                undoButton.setEnabled(UNDO.canUndo());
+                undoButton.setToolTipText(UNDO.getUndoPresentationName());
+                redoButton.setEnabled(UNDO.canRedo());
+                redoButton.setToolTipText(UNDO.getRedoPresentationName());
+            };
+            model.addTableModelListener(e -> {
+                if (!applyingUndoable) {
+                    UNDO.discardAllEdits();
+                    updateUndoButtons.run();
+                }
+            });
+            undoButton.addActionListener(e -> {
+                if (UNDO.canUndo()) {
+                    UNDO.undo();
+                }
+                updateUndoButtons.run();
+            });
+            redoButton.addActionListener(e -> {
+                if (UNDO.canRedo()) {
+                    UNDO.redo();
+                }
+                updateUndoButtons.run();
+            });
+            bindKey(frame, KeyStroke.getKeyStroke(KeyEvent.VK_Z, KeyEvent.CTRL_DOWN_MASK), undoButton);
+            bindKey(frame, KeyStroke.getKeyStroke(KeyEvent.VK_Y, KeyEvent.CTRL_DOWN_MASK), redoButton);
+            updateUndoButtons.run();
+            searchPanel.add(undoButton);
+            searchPanel.add(redoButton);
             frame.add(searchPanel, BorderLayout.NORTH);
 
             // Add Row Button Action
             addRowButton.addActionListener(e -> {
-                Object[] row = new Object[COLUMN_NAMES.length];
-                row[COLUMN_NAMES.length - 1] = "No Image"; // Default image value
-                model.addRow(row);
+                model.addAsset(Asset.EMPTY);
             });
 
             // Add Asset Button Action
@@ -183,114 +304,297 @@ public class App {
 
                 // Update the `Add Asset Button` action listener
                 submitButton.addActionListener(event -> {
-                    Object[] row = new Object[COLUMN_NAMES.length];
-                    row[0] = assetTagField.getText(); // Asset Tag
-                    row[1] = modelField.getText(); // Model
-                    row[2] = manufacturerField.getText(); // Manufacturer
-                    row[3] = categoryField.getText(); // Category
-                    row[4] = quantityField.getText(); // Quantity
-                    row[5] = serialField.getText(); // Serial
-                    row[6] = physicalLocationField.getText(); // Physical Location
-                    row[7] = whereField.getText(); // Where
-                    row[8] = dateReceivedPicker.getDate(); // Date Received
-                    row[9] = new java.util.Date(); // Date Recorded (current date)
-                    row[10] = notesArea.getText(); // Notes
-                    row[11] = imagePath.isEmpty() ? "No Image" : new File(imagePath).getAbsolutePath(); // Use absolute path
-                    model.addRow(row);
+                    int quantity = Asset.toQuantity(quantityField.getText(), -1);
+                    if (quantity < 0) {
+                        JOptionPane.showMessageDialog(dialog, "Quantity must be a whole number.");
+                        return;
+                    }
+                    Asset asset = new Asset(
+                            assetTagField.getText(),
+                            modelField.getText(),
+                            manufacturerField.getText(),
+                            categoryField.getText(),
+                            quantity,
+                            serialField.getText(),
+                            physicalLocationField.getText(),
+                            whereField.getText(),
+                            dateReceivedPicker.getDate(),
+                            LocalDate.now(), // Date Recorded (current date)
+                            notesArea.getText(),
+                            imagePath.isEmpty() ? Asset.NO_IMAGE : new File(imagePath).getAbsolutePath()); // Use absolute path
+                    model.addAsset(asset);
                     dialog.dispose();
-                    saveTableData(model); // Save after adding
                     imagePath = ""; // Clear imagePath
                 });
 
                 dialog.setVisible(true);
             });
 
-            // Delete Selected Row Button Action
+            // Delete Selected Rows Button Action
             deleteRowButton.addActionListener(e -> {
-                int selectedRow = table.getSelectedRow();
-                if (selectedRow >= 0) {
-                    int response = JOptionPane.showConfirmDialog(frame, "Are you sure you want to delete the selected row?", "Confirm Delete", JOptionPane.YES_NO_OPTION);
+                int[] selectedRows = selectedModelRows(table);
+                if (selectedRows.length > 0) {
+                    String question = selectedRows.length == 1
+                            ? "Are you sure you want to delete the selected row?"
+                            : "Are you sure you want to delete the " + selectedRows.length + " selected rows?";
+                    int response = JOptionPane.showConfirmDialog(frame, question, "Confirm Delete", JOptionPane.YES_NO_OPTION);
                     if (response == JOptionPane.YES_OPTION) {
-                        model.removeRow(selectedRow);
-                        saveTableData(model); // Save after deletion
+                        AssetTableModel.Changes changes = new AssetTableModel.Changes();
+                        for (int row : selectedRows) {
+                            changes.delete(row);
+                        }
+                        applyUndoable(model, changes, "Delete " + rowCount(selectedRows.length));
+                        updateUndoButtons.run();
                     }
                 } else {
                     JOptionPane.showMessageDialog(frame, "No row selected.");
                 }
             });
 
+            // Edit Selected Button Action: one column set to the same value in every selected row
+            editSelectedButton.addActionListener(e -> {
+                int[] selectedRows = selectedModelRows(table);
+                if (selectedRows.length == 0) {
+                    JOptionPane.showMessageDialog(frame, "No row selected.");
+                    return;
+                }
+                JDialog dialog = new JDialog(frame, "Edit " + rowCount(selectedRows.length), true);
+                dialog.setLayout(new BoxLayout(dialog.getContentPane(), BoxLayout.Y_AXIS));
+                JComboBox<String> columnComboBox = new JComboBox<>(Arrays.copyOf(COLUMN_NAMES, Asset.IMAGE));
+                columnComboBox.setSelectedIndex(Asset.PHYSICAL_LOCATION);
+                JTextField valueField = new JTextField(20);
+                JButton applyButton = new JButton("Apply");
+                dialog.add(createFieldPanel("Column", columnComboBox));
+                dialog.add(createFieldPanel("New Value", valueField));
+                dialog.add(applyButton);
+
+                applyButton.addActionListener(event -> {
+                    int column = columnComboBox.getSelectedIndex();
+                    String text = valueField.getText();
+                    if (column == Asset.QUANTITY && Asset.toQuantity(text, -1) < 0) {
+                        JOptionPane.showMessageDialog(dialog, "Quantity must be a whole number.");
+                        return;
+                    }
+                    if ((column == Asset.DATE_RECEIVED || column == Asset.DATE_RECORDED)
+                            && !text.trim().isEmpty() && Asset.toDate(text) == null) {
+                        JOptionPane.showMessageDialog(dialog, "Not a date: " + text);
+                        return;
+                    }
+                    AssetTableModel.Changes changes = new AssetTableModel.Changes();
+                    for (int row : selectedRows) {
+                        Asset old = model.getAsset(row);
+                        Asset updated = old.with(column, text);
+                        if (!Objects.equals(updated.get(column), old.get(column))) {
+                            changes.update(row, updated);
+                        }
+                    }
+                    applyUndoable(model, changes, "Edit " + COLUMN_NAMES[column] + " of " + rowCount(changes.size()));
+                    updateUndoButtons.run();
+                    dialog.dispose();
+                });
+
+                dialog.pack();
+                dialog.setLocationRelativeTo(frame);
+                dialog.setVisible(true);
+            });
+
             // Delete All Rows Button Action
-            deleteAllButton.addActionListener(e -> extracted(frame, model, table, searchField));
+            deleteAllButton.addActionListener(e -> {
+                extracted(frame, model, table, searchField);
+                updateUndoButtons.run();
+            });
 
             // Export to Excel Button Action
-            exportButton.addActionListener(e -> {
-                if (!exporting) {
-                    exporting = true;
-                    exportToExcel(table);
-                    exporting = false;
-                }
-            });
+            exportButton.addActionListener(e -> exportToExcel(table));
 
             // Import from Excel Button Action
-            importButton.addActionListener(e -> {
-                try {
-                    importFromExcel(model, frame);
-                } catch (InvalidFormatException e1) {
-                    // TODO Auto-generated catch block
-                    //e1.printStackTrace();
+            importButton.addActionListener(e -> importFromExcel(model, frame));
+
+            // History Button Action: the selected asset's movements, or everyone's
+            historyButton.addActionListener(e -> {
+                if (history == null) {
+                    JOptionPane.showMessageDialog(frame, "No movement history is kept on this desktop.");
+                    return;
                 }
+                int selectedRow = table.getSelectedRow();
+                String key = selectedRow >= 0 ? AssetHistory.key(model.getAsset(table.convertRowIndexToModel(selectedRow))) : null;
+                showHistory(frame, key);
             });
 
-            // Restore table data
-            restoreTableData(model);
+            // Summary Button Action: live totals by category, manufacturer, location or month
+            summaryButton.addActionListener(e -> showSummary(frame));
+
+            // Find Duplicates Button Action: searched in the background, reviewed and merged in a dialog
+            duplicatesButton.addActionListener(e -> findDuplicates(model, frame, updateUndoButtons));
+
+            loadRemainingRows(model, frame, buttonPanel, storedRows);
 
             frame.add(buttonPanel, BorderLayout.SOUTH);
             frame.setVisible(true);
         });
     }
 
-    private static void extracted(JFrame frame, DefaultTableModel model, JTable table, JTextField searchField) {
+    private static void extracted(JFrame frame, AssetTableModel model, JTable table, JTextField searchField) {
         int response = JOptionPane.showConfirmDialog(frame, "Are you sure you want to delete all rows?", "Confirm Delete All", JOptionPane.YES_NO_OPTION);
         if (response == JOptionPane.YES_OPTION) {
-            model.setRowCount(0);
-            saveTableData(model); // Save after deletion
+            AssetTableModel.Changes changes = new AssetTableModel.Changes();
+            changes.deleteAll(model.getRowCount());
+            applyUndoable(model, changes, "Delete All Rows");
             searchField.setText(""); // Clear search field after deletion
             filterTable(table, 0, ""); // Clear filters
         }
     }
 
-    private static void filterTable(JTable table, int columnIndex, String searchText) {
-        TableRowSorter<?> sorter = (TableRowSorter<?>) table.getRowSorter();
-        RowFilter<Object, Object> rf = null;
-        try {
-            rf = RowFilter.regexFilter("(?i)" + searchText, columnIndex);
-        } catch (java.util.regex.PatternSyntaxException e) {
+    // Applies a bulk change as one model event and one undoable edit
+    private static void applyUndoable(AssetTableModel model, AssetTableModel.Changes changes, String name) {
+        AssetTableModel.Changes undo = applyAsUndoable(model, changes);
+        if (undo.isEmpty()) {
             return;
         }
-        sorter.setRowFilter(rf);
+        UNDO.addEdit(new AbstractUndoableEdit() {
+            private AssetTableModel.Changes inverse = undo;
+
+            @Override
+            public void undo() {
+                super.undo();
+                inverse = applyAsUndoable(model, inverse);
+            }
+
+            @Override
+            public void redo() {
+                super.redo();
+                inverse = applyAsUndoable(model, inverse);
+            }
+
+            @Override
+            public String getPresentationName() {
+                return name;
+            }
+        });
     }
 
-    private static void configureTableForMultilineCells(JTable table) {
-        table.setDefaultRenderer(Object.class, new DefaultTableCellRenderer() {
+    private static AssetTableModel.Changes applyAsUndoable(AssetTableModel model, AssetTableModel.Changes changes) {
+        applyingUndoable = true;
+        try {
+            return model.apply(changes);
+        } finally {
+            applyingUndoable = false;
+        }
+    }
+
+    private static int[] selectedModelRows(JTable table) {
+        int[] rows = table.getSelectedRows();
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = table.convertRowIndexToModel(rows[i]);
+        }
+        return rows;
+    }
+
+    private static String rowCount(int rows) {
+        return rows == 1 ? "1 row" : rows + " rows";
+    }
+
+    private static void bindKey(JFrame frame, KeyStroke key, JButton button) {
+        String name = button.getText();
+        frame.getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(key, name);
+        frame.getRootPane().getActionMap().put(name, new AbstractAction() {
             @Override
-            public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
-                Component component = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
-                if (component instanceof JLabel) {
-                    ((JLabel) component).setVerticalAlignment(JLabel.TOP);
+            public void actionPerformed(ActionEvent e) {
+                if (button.isEnabled()) {
+                    button.doClick();
+                }
+            }
+        });
+    }
+
+    private static void filterTable(JTable table, int columnIndex, String searchText) {
+        long start = System.nanoTime();
+        AssetRowSorter sorter = (AssetRowSorter) table.getRowSorter();
+        sorter.setRowFilter(searchIndex.filter(columnIndex, searchText));
+        SEARCH_TIMER.since(start);
+    }
+
+    private static void configureTableForMultilineCells(JTable table) {
+        table.setDefaultRenderer(Object.class, new TextCellRenderer(JLabel.LEADING));
+        table.setDefaultRenderer(Integer.class, new TextCellRenderer(JLabel.RIGHT));
+    }
+
+    private static String cellText(Object value) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        String text = CELL_TEXT.get(value);
+        if (text == null) {
+            if (CELL_TEXT.size() > 10_000) {
+                CELL_TEXT.clear();
+            }
+            text = value.toString();
+            CELL_TEXT.put(value, text);
+        }
+        return text;
+    }
+
+    private static String fileName(String fullPath) {
+        String name = CELL_TEXT.get(fullPath);
+        if (name == null) {
+            if (CELL_TEXT.size() > 10_000) {
+                CELL_TEXT.clear();
+            }
+            name = fullPath.substring(Math.max(fullPath.lastIndexOf('/'), fullPath.lastIndexOf('\\')) + 1);
+            CELL_TEXT.put(fullPath, name);
+        }
+        return name;
+    }
+
+    static class TextCellRenderer extends DefaultTableCellRenderer {
+        private static final long serialVersionUID = 1L;
+
+        TextCellRenderer(int horizontalAlignment) {
+            setHorizontalAlignment(horizontalAlignment);
+            setVerticalAlignment(JLabel.TOP);
+        }
+
+        @Override
+        protected void setValue(Object value) {
+            setText(value == null ? "" : cellText(value));
+        }
+    }
+
+    // Starts loading thumbnails for the page below the visible rows, so they
+    // are usually ready by the time the user scrolls there
+    private static void prefetchThumbnails(JTable table, JScrollPane scrollPane) {
+        Runnable nothing = () -> { };
+        scrollPane.getViewport().addChangeListener(e -> {
+            Rectangle visible = table.getVisibleRect();
+            int first = table.rowAtPoint(new Point(0, visible.y + visible.height));
+            if (first < 0) {
+                return;
+            }
+            int last = Math.min(table.getRowCount() - 1, first + visible.height / table.getRowHeight() + 1);
+            AssetTableModel model = (AssetTableModel) table.getModel();
+            for (int row = first; row <= last; row++) {
+                Asset asset = model.getAsset(table.convertRowIndexToModel(row));
+                if (asset.hasImage()) {
+                    THUMBNAILS.get(asset.getImagePath(), nothing);
                 }
-                return component;
             }
         });
     }
 
     private static void configureTableForImageHandling(JTable table) {
-        // Set a custom renderer for the image column to show only the file name
-        table.getColumnModel().getColumn(11).setCellRenderer(new DefaultTableCellRenderer() {
+        // Show a thumbnail and the file name. Only visible rows are rendered, so
+        // only their thumbnails get loaded; the table repaints when one arrives.
+        table.setRowHeight(Math.max(table.getRowHeight(), THUMBNAILS.getSize() + 4));
+        table.getColumnModel().getColumn(Asset.IMAGE).setCellRenderer(new DefaultTableCellRenderer() {
             @Override
             public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
                 String fullPath = (String) value;
-                String fileName = fullPath != null && !"No Image".equals(fullPath) ? new File(fullPath).getName() : "No Image";
-                return super.getTableCellRendererComponent(table, fileName, isSelected, hasFocus, row, column);
+                boolean hasImage = fullPath != null && !Asset.NO_IMAGE.equals(fullPath);
+                String fileName = hasImage ? fileName(fullPath) : Asset.NO_IMAGE;
+                super.getTableCellRendererComponent(table, fileName, isSelected, hasFocus, row, column);
+                setIcon(hasImage ? THUMBNAILS.get(fullPath, table::repaint) : null);
+                setVerticalAlignment(JLabel.TOP);
+                return this;
             }
         });
     
@@ -300,12 +604,12 @@ public class App {
                 int row = table.rowAtPoint(e.getPoint());
                 int col = table.columnAtPoint(e.getPoint());
     
-                if (col == 11) { // Assuming image column is at index 11
+                if (table.convertColumnIndexToModel(col) == Asset.IMAGE) {
                     String imagePath = (String) table.getValueAt(row, col);
     
                     // Left-click to view the image
                     if (SwingUtilities.isLeftMouseButton(e)) {
-                        if (!"No Image".equals(imagePath)) {
+                        if (!Asset.NO_IMAGE.equals(imagePath)) {
                             new ImageViewerDialog(imagePath).setVisible(true);
                         } else {
                             JOptionPane.showMessageDialog(table, "No image to display.");
@@ -319,7 +623,6 @@ public class App {
                         if (returnValue == JFileChooser.APPROVE_OPTION) {
                             File selectedFile = fileChooser.getSelectedFile();
                             table.setValueAt(selectedFile.getAbsolutePath(), row, col); // Store full path
-                            saveTableData((DefaultTableModel) table.getModel()); // Save after changing image
                         }
                     }
                 }
@@ -338,156 +641,753 @@ public class App {
         return panel;
     }
 
-    private static void saveTableData(DefaultTableModel model) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(SER_FILE))) {
-            Vector<Vector<Object>> dataVector = model.getDataVector();
-            oos.writeObject(new Vector<>(dataVector));
+    // Individual edits are journaled by the model listener; this compacts the
+    // journal into a fresh snapshot, e.g. after a bulk import
+    private static void saveTableData(AssetTableModel model) {
+        STORE.replaceAll(model.snapshot());
+    }
+
+    // Opens the store and shows its first page; returns the number of stored rows
+    private static int restoreTableData(AssetTableModel model) {
+        long start = System.nanoTime();
+        migrateLegacyData();
+        try {
+            int rows = STORE.open();
+            model.addAssets(STORE.read(0, FIRST_PAGE));
+            openHistory();
+            RESTORE_TIMER.since(start);
+            return rows;
+        } catch (IOException e) {
+            LOG.error("Failed to load the inventory", e);
+            JOptionPane.showMessageDialog(null, "Failed to load the inventory: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Pages the remaining rows in behind the visible ones. Until they are all
+    // loaded the table is read-only and the buttons are disabled, so row
+    // numbers in the model and the store stay the same; then changes start
+    // being saved. Every row still ends up in the model, as sorting, search,
+    // the summary and Find Duplicates work on all of them: the database only
+    // gets the window open sooner, it doesn't keep the inventory out of memory.
+    private static void loadRemainingRows(AssetTableModel model, JFrame frame, JPanel buttonPanel, int storedRows) {
+        int loaded = model.getRowCount();
+        if (loaded >= storedRows) {
+            startSaving(model, frame);
+            return;
+        }
+        model.setReadOnly(true);
+        setEnabled(buttonPanel, false);
+        SwingWorker<Void, List<Asset>> loader = new SwingWorker<Void, List<Asset>>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                for (int from = loaded; from < storedRows && !isCancelled(); from += PAGE_SIZE) {
+                    publish(STORE.read(from, PAGE_SIZE));
+                }
+                return null;
+            }
+
+            @Override
+            protected void process(List<List<Asset>> pages) {
+                for (List<Asset> page : pages) {
+                    model.addAssets(page);
+                }
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return; // shutting down
+                }
+                try {
+                    get();
+                    model.setReadOnly(false);
+                    setEnabled(buttonPanel, true);
+                    startSaving(model, frame);
+                } catch (InterruptedException | ExecutionException e) {
+                    LOG.error("Failed to load the inventory", e);
+                    JOptionPane.showMessageDialog(frame, "Failed to load the inventory. Changes will not be saved.");
+                }
+            }
+        };
+        IO.runTask(loader);
+    }
+
+    // -Dinventory.server=host:port uses an inventory shared by App --serve, -Dinventory.store=db
+    // keeps it in the embedded database; otherwise it is the local snapshot + journal
+    private static InventoryStore selectStore() {
+        String server = System.getProperty("inventory.server");
+        if (server != null) {
+            return new InventoryClient(server);
+        }
+        return "db".equals(System.getProperty("inventory.store")) ? new AssetDatabase(DB_FILE, IO) : JOURNAL;
+    }
+
+    // From here on model changes are saved, and a shared store sends other users' changes
+    private static void startSaving(AssetTableModel model, JFrame frame) {
+        model.addTableModelListener(e -> {
+            long start = System.nanoTime();
+            STORE.record(e, model);
+            RECORD_TIMER.since(start);
+        });
+        STORE.attach(model, message -> JOptionPane.showMessageDialog(frame, message));
+        if (history != null) {
+            history.sync(model.snapshot()); // picks up batch runs and edits made before the history existed
+            model.addTableModelListener(e -> history.record(e, model));
+        }
+    }
+
+    private static void openHistory() {
+        if (STORE instanceof InventoryClient) {
+            return;
+        }
+        AssetHistory opened = new AssetHistory(HISTORY_FILE, IO);
+        try {
+            opened.open();
+            history = opened;
         } catch (IOException e) {
-            e.printStackTrace();
+            LOG.error("Could not open the movement history", e);
+            JOptionPane.showMessageDialog(null, "Failed to load the movement history, it will not be recorded: " + e.getMessage());
+        }
+    }
+
+    // Movements between two dates, of one asset (key) or of all of them (null)
+    private static void showHistory(JFrame frame, String key) {
+        JDialog dialog = new JDialog(frame, key == null ? "Movement History" : "Movement History of " + key, false);
+        dialog.setSize(900, 500);
+        dialog.setLayout(new BorderLayout());
+
+        JTextField assetField = new JTextField(key == null ? "" : key, 15);
+        DatePicker fromPicker = new DatePicker(new DatePickerSettings());
+        DatePicker toPicker = new DatePicker(new DatePickerSettings());
+        if (key == null) {
+            fromPicker.setDate(LocalDate.now().minusDays(30));
+        }
+        JButton showButton = new JButton("Show");
+        JPanel filterPanel = new JPanel();
+        filterPanel.add(createFieldPanel("Asset Tag or serial:", assetField));
+        filterPanel.add(createFieldPanel("From", fromPicker));
+        filterPanel.add(createFieldPanel("To", toPicker));
+        filterPanel.add(showButton);
+        dialog.add(filterPanel, BorderLayout.NORTH);
+
+        String[] columns = {"Time", "Asset", "Physical Location", "Where", "Quantity"};
+        JTable eventTable = new JTable(new Object[0][], columns);
+        dialog.add(new JScrollPane(eventTable), BorderLayout.CENTER);
+        JLabel stateLabel = new JLabel(" ");
+        dialog.add(stateLabel, BorderLayout.SOUTH);
+
+        Runnable show = () -> {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate fromDate = fromPicker.getDate();
+            LocalDate toDate = toPicker.getDate();
+            long from = fromDate == null ? Long.MIN_VALUE : fromDate.atStartOfDay(zone).toInstant().toEpochMilli();
+            long to = toDate == null ? Long.MAX_VALUE : toDate.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            String asset = history.lookup(assetField.getText());
+            List<AssetHistory.Event> events = asset.isEmpty() ? history.events(from, to, MAX_HISTORY_ROWS) : history.events(asset, from, to);
+            Object[][] rows = new Object[events.size()][];
+            for (int i = 0; i < rows.length; i++) {
+                AssetHistory.Event event = events.get(i);
+                rows[i] = new Object[] {HISTORY_TIME.format(Instant.ofEpochMilli(event.time).atZone(zone)), event.asset,
+                        event.removed ? "(removed)" : event.location, event.where, event.removed ? "" : event.quantity};
+            }
+            eventTable.setModel(new DefaultTableModel(rows, columns) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            });
+            if (asset.isEmpty()) {
+                stateLabel.setText(events.size() == MAX_HISTORY_ROWS ? "First " + MAX_HISTORY_ROWS + " movements" : events.size() + " movements");
+            } else {
+                // Where it was at the end of the range, even if it didn't move within it
+                AssetHistory.Event state = history.at(asset, to == Long.MAX_VALUE ? System.currentTimeMillis() : to - 1);
+                String on = toDate == null ? "Now" : "On " + toDate;
+                if (state == null) {
+                    stateLabel.setText(on + ": no history for " + asset);
+                } else if (state.removed) {
+                    stateLabel.setText(on + ": not in the inventory");
+                } else {
+                    stateLabel.setText(on + ": " + state.location + ", " + state.where + ", quantity " + state.quantity);
+                }
+            }
+        };
+        showButton.addActionListener(event -> show.run());
+        assetField.addActionListener(event -> show.run());
+        show.run();
+
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+    // Counts and quantities per group, refreshed as the table changes
+    private static void showSummary(JFrame frame) {
+        JDialog dialog = new JDialog(frame, "Summary", false);
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+        dialog.setSize(600, 500);
+        dialog.setLayout(new BorderLayout());
+
+        JComboBox<InventoryAggregates.Dimension> groupByComboBox = new JComboBox<>(InventoryAggregates.Dimension.values());
+        JButton exportButton = new JButton("Export...");
+        JPanel topPanel = new JPanel();
+        topPanel.add(createFieldPanel("Group by", groupByComboBox));
+        topPanel.add(exportButton);
+        dialog.add(topPanel, BorderLayout.NORTH);
+
+        SummaryTableModel summaryModel = new SummaryTableModel();
+        JTable summaryTable = new JTable(summaryModel);
+        summaryTable.setAutoCreateRowSorter(true);
+        dialog.add(new JScrollPane(summaryTable), BorderLayout.CENTER);
+        JLabel totalLabel = new JLabel(" ");
+        dialog.add(totalLabel, BorderLayout.SOUTH);
+
+        Runnable refresh = () -> {
+            InventoryAggregates.Dimension dimension = (InventoryAggregates.Dimension) groupByComboBox.getSelectedItem();
+            InventoryAggregates.Report report = aggregates.report();
+            summaryModel.show(dimension, report.groups.get(dimension));
+            totalLabel.setText(report.groups.get(dimension).size() + " groups, " + report.assets + " assets, total quantity " + report.quantity);
+        };
+        // A burst of changes (paging in, an import) refreshes once
+        Timer refreshTimer = new Timer(SUMMARY_DELAY_MILLIS, e -> refresh.run());
+        refreshTimer.setRepeats(false);
+        ChangeListener listener = e -> refreshTimer.restart();
+        aggregates.addChangeListener(listener);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                aggregates.removeChangeListener(listener);
+                refreshTimer.stop();
+            }
+        });
+        groupByComboBox.addActionListener(e -> refresh.run());
+        exportButton.addActionListener(e -> exportSummary(dialog));
+        refresh.run();
+
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+    private static void exportSummary(JDialog dialog) {
+        JFileChooser fileChooser = new JFileChooser(lastExportDirectory);
+        FileNameExtensionFilter excelFilter = new FileNameExtensionFilter("Excel files", "xlsx");
+        FileNameExtensionFilter csvFilter = new FileNameExtensionFilter("CSV files", "csv");
+        fileChooser.addChoosableFileFilter(excelFilter);
+        fileChooser.addChoosableFileFilter(csvFilter);
+        fileChooser.setFileFilter(excelFilter);
+        fileChooser.setSelectedFile(new File("Inventory summary.xlsx"));
+        if (fileChooser.showSaveDialog(dialog) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
+        lastExportDirectory = fileChooser.getCurrentDirectory();
+        String filePath = fileChooser.getSelectedFile().getAbsolutePath();
+        File reportFile = filePath.endsWith(".xlsx") || filePath.endsWith(".csv")
+                ? fileChooser.getSelectedFile()
+                : new File(filePath + (fileChooser.getFileFilter() == csvFilter ? ".csv" : ".xlsx"));
+
+        InventoryAggregates.Report report = aggregates.report(); // copied on the EDT, written in the background
+        SwingWorker<Void, Void> task = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                InventoryAggregates.write(reportFile, report);
+                saveLastExportDirectory();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(dialog, "Summary exported successfully.");
+                } catch (InterruptedException | ExecutionException e) {
+                    LOG.error("Could not export the summary to {}", reportFile, e);
+                    JOptionPane.showMessageDialog(dialog, "Failed to export the summary.");
+                }
+            }
+        };
+        startTask(task, dialog, "Exporting to " + reportFile.getName());
     }
 
-    private static void restoreTableData(DefaultTableModel model) {
-        if (SER_FILE.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(SER_FILE))) {
-                Vector<?> dataVector = (Vector<?>) ois.readObject();
-                for (Object rowData : dataVector) {
-                    model.addRow((Vector<?>) rowData);
+    private static void findDuplicates(AssetTableModel model, JFrame frame, Runnable updateUndoButtons) {
+        List<Asset> rows = model.snapshot();
+        SwingWorker<DuplicateFinder.Result, Void> task = new SwingWorker<DuplicateFinder.Result, Void>() {
+            @Override
+            protected DuplicateFinder.Result doInBackground() throws Exception {
+                return DuplicateFinder.find(rows, ForkJoinPool.commonPool(), fraction -> {
+                    setProgress((int) (fraction * 100));
+                    return !isCancelled();
+                });
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
                 }
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
+                try {
+                    DuplicateFinder.Result result = get();
+                    if (result.clusters.isEmpty()) {
+                        JOptionPane.showMessageDialog(frame, "No duplicates found.");
+                    } else {
+                        showDuplicates(frame, model, result, updateUndoButtons);
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    LOG.error("Could not search for duplicates", e);
+                    JOptionPane.showMessageDialog(frame, "Failed to search for duplicates.");
+                }
+            }
+        };
+        startTask(task, frame, "Finding duplicates");
+    }
+
+    // Clusters on top, the selected one's rows or spellings below; merging is one undoable change
+    private static void showDuplicates(JFrame frame, AssetTableModel model, DuplicateFinder.Result result, Runnable updateUndoButtons) {
+        JDialog dialog = new JDialog(frame, "Duplicates", false);
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+        dialog.setSize(1000, 600);
+        dialog.setLayout(new BorderLayout());
+
+        List<DuplicateFinder.Cluster> clusters = new ArrayList<>(result.clusters);
+        String[] clusterColumns = {"Found", "Keeps", "Rows"};
+        JTable clusterTable = new JTable();
+        JTable detailTable = new JTable();
+        JLabel stateLabel = new JLabel(" ");
+        Runnable showClusters = () -> {
+            Object[][] data = new Object[clusters.size()][];
+            for (int i = 0; i < data.length; i++) {
+                DuplicateFinder.Cluster cluster = clusters.get(i);
+                String keeps = cluster.kind == DuplicateFinder.Kind.SAME_SERIAL
+                        ? cluster.assets.get(0).getSerial() + " (" + cluster.assets.get(0).getAssetTag() + ")"
+                        : cluster.canonical();
+                data[i] = new Object[] {cluster.kind.description, keeps, cluster.rows()};
+            }
+            clusterTable.setModel(new DefaultTableModel(data, clusterColumns) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            });
+            stateLabel.setText(clusters.size() + (result.truncated ? "+" : "") + " groups to review");
+        };
+        clusterTable.getSelectionModel().addListSelectionListener(e -> {
+            int selected = clusterTable.getSelectedRow();
+            if (e.getValueIsAdjusting()) {
+                return;
+            }
+            if (selected < 0) {
+                detailTable.setModel(new DefaultTableModel());
+                return;
             }
+            DuplicateFinder.Cluster cluster = clusters.get(selected);
+            Object[][] data;
+            Object[] columns;
+            if (cluster.kind == DuplicateFinder.Kind.SAME_SERIAL) {
+                columns = Arrays.copyOf(COLUMN_NAMES, Asset.IMAGE);
+                data = new Object[cluster.assets.size()][];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = Arrays.copyOf(cluster.assets.get(i).toValues(), Asset.IMAGE);
+                }
+            } else {
+                columns = new Object[] {cluster.kind == DuplicateFinder.Kind.MODEL ? "Model" : "Manufacturer", "Rows"};
+                data = new Object[cluster.spellings.size()][];
+                int i = 0;
+                for (Map.Entry<String, Integer> spelling : cluster.spellings.entrySet()) {
+                    data[i++] = new Object[] {spelling.getKey(), spelling.getValue()};
+                }
+            }
+            detailTable.setModel(new DefaultTableModel(data, columns) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            });
+        });
+        showClusters.run();
+
+        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(clusterTable), new JScrollPane(detailTable));
+        splitPane.setResizeWeight(0.6);
+        dialog.add(splitPane, BorderLayout.CENTER);
+
+        JButton mergeButton = new JButton("Merge Selected");
+        mergeButton.addActionListener(e -> {
+            int[] selected = clusterTable.getSelectedRows();
+            if (selected.length == 0) {
+                JOptionPane.showMessageDialog(dialog, "No group selected.");
+                return;
+            }
+            List<DuplicateFinder.Cluster> merging = new ArrayList<>();
+            for (int row : selected) {
+                merging.add(clusters.get(row));
+            }
+            AssetTableModel.Changes changes = DuplicateFinder.merge(model, merging);
+            if (changes.isEmpty()) {
+                JOptionPane.showMessageDialog(dialog, "These rows have changed since the search. Run Find Duplicates again.");
+            } else {
+                applyUndoable(model, changes, "Merge " + rowCount(changes.size()));
+                updateUndoButtons.run();
+            }
+            clusters.removeAll(merging);
+            showClusters.run();
+        });
+        JPanel bottomPanel = new JPanel(new BorderLayout());
+        bottomPanel.add(stateLabel, BorderLayout.CENTER);
+        bottomPanel.add(mergeButton, BorderLayout.EAST);
+        dialog.add(bottomPanel, BorderLayout.SOUTH);
+
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+    private static void setEnabled(JPanel panel, boolean enabled) {
+        for (Component component : panel.getComponents()) {
+            component.setEnabled(enabled);
+        }
+    }
+
+    private static void migrateLegacyData() {
+        try {
+            SnapshotFile.migrateLegacy(SER_FILE, DATA_FILE);
+            if (STORE instanceof AssetDatabase && !DB_FILE.exists() && DATA_FILE.exists()) {
+                // First start with the database: carry over the snapshot + journal inventory
+                AssetDatabase.create(DB_FILE, JOURNAL.load());
+                JOURNAL.close();
+            }
+        } catch (IOException e) {
+            LOG.error("Could not migrate the old inventory files", e);
         }
     }
 
     private static File lastExportDirectory = new File(System.getProperty("user.home")); // Default to user's home directory
 
     private static void exportToExcel(JTable table) {
+        if (IO.isBusy()) {
+            JOptionPane.showMessageDialog(table, "Another import or export is still running.");
+            return;
+        }
         JFileChooser fileChooser = new JFileChooser(lastExportDirectory); // Start in last export directory
-        fileChooser.setFileFilter(new FileNameExtensionFilter("Excel files", "xlsx"));
+        FileNameExtensionFilter excelFilter = new FileNameExtensionFilter("Excel files", "xlsx");
+        FileNameExtensionFilter csvFilter = new FileNameExtensionFilter("CSV files (fastest, no formatting)", "csv");
+        fileChooser.addChoosableFileFilter(excelFilter);
+        fileChooser.addChoosableFileFilter(csvFilter);
+        fileChooser.setFileFilter(excelFilter);
         
         // Set the default file name to "Inventory.xlsx"
         fileChooser.setSelectedFile(new File("Inventory.xlsx"));
         
         int returnValue = fileChooser.showSaveDialog(table);
         if (returnValue == JFileChooser.APPROVE_OPTION) {
-            File selectedFile = fileChooser.getSelectedFile();
+            File chosenFile = fileChooser.getSelectedFile();
             lastExportDirectory = fileChooser.getCurrentDirectory(); // Update last export directory
             
-            String filePath = selectedFile.getAbsolutePath();
-            if (!filePath.endsWith(".xlsx")) {
-                selectedFile = new File(filePath + ".xlsx");
+            String filePath = chosenFile.getAbsolutePath();
+            File selectedFile;
+            if (filePath.endsWith(".xlsx") || filePath.endsWith(".csv")) {
+                selectedFile = chosenFile;
+            } else {
+                selectedFile = new File(filePath + (fileChooser.getFileFilter() == csvFilter ? ".csv" : ".xlsx"));
             }
 
-            try (Workbook workbook = new XSSFWorkbook()) {
-                Sheet sheet = workbook.createSheet("Inventory");
-                DefaultTableModel model = (DefaultTableModel) table.getModel();
+            // Copy the row references on the EDT; the file is streamed out in the background
+            List<Asset> rows = ((AssetTableModel) table.getModel()).snapshot();
 
-                Row headerRow = sheet.createRow(0);
-                for (int col = 0; col < model.getColumnCount(); col++) {
-                    headerRow.createCell(col).setCellValue(model.getColumnName(col));
+            SwingWorker<Void, Void> task = new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() throws Exception {
+                    boolean finished = InventoryExporter.write(selectedFile, rows, (done, total) -> {
+                        setProgress((int) (done * 100L / total));
+                        return !isCancelled();
+                    });
+                    if (finished) {
+                        saveLastExportDirectory(); // Save the last export directory
+                    }
+                    return null;
                 }
 
-                for (int row = 0; row < model.getRowCount(); row++) {
-                    Row excelRow = sheet.createRow(row + 1);
-                    for (int col = 0; col < model.getColumnCount(); col++) {
-                        Object value = model.getValueAt(row, col);
-                        if (value != null) {
-                            excelRow.createCell(col).setCellValue(value.toString());
-                        } else {
-                            excelRow.createCell(col).setCellValue(""); // Empty string for null values
-                        }
+                @Override
+                protected void done() {
+                    if (isCancelled()) {
+                        JOptionPane.showMessageDialog(table, "Export cancelled.");
+                        return;
+                    }
+                    try {
+                        get();
+                        JOptionPane.showMessageDialog(table, "Data exported successfully.");
+                    } catch (InterruptedException | ExecutionException e) {
+                        LOG.error("Export to {} failed", selectedFile, e);
+                        JOptionPane.showMessageDialog(table, "Failed to export data.");
                     }
                 }
+            };
+            startTask(task, table, "Exporting to " + selectedFile.getName());
+        }
+    }
 
-                try (FileOutputStream fos = new FileOutputStream(selectedFile)) {
-                    workbook.write(fos);
-                    JOptionPane.showMessageDialog(table, "Data exported successfully.");
-                    saveLastExportDirectory(); // Save the last export directory
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    JOptionPane.showMessageDialog(table, "Failed to export data.");
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(table, "Failed to export data.");
-            }
+    private static void startTask(SwingWorker<?, ?> task, Component owner, String title) {
+        if (IO.runTask(task)) {
+            new ProgressDialog(SwingUtilities.getWindowAncestor(owner), title, task).setVisible(true);
+        } else {
+            JOptionPane.showMessageDialog(owner, "Another import or export is still running.");
         }
     }
 
     private static void saveLastExportDirectory() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("lastExportDirectory.ser"))) {
-            oos.writeObject(lastExportDirectory);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        saveDirectory("lastExportDirectory", lastExportDirectory);
     }
 
     private static void loadLastExportDirectory() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream("lastExportDirectory.ser"))) {
-            lastExportDirectory = (File) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            lastExportDirectory = new File(System.getProperty("user.home")); // Default to user's home directory
-        }
+        lastExportDirectory = loadDirectory("lastExportDirectory");
     }
 
-    private static void importFromExcel(DefaultTableModel model, JFrame frame) throws InvalidFormatException {
+    private static void importFromExcel(AssetTableModel model, JFrame frame) {
+        if (IO.isBusy()) {
+            JOptionPane.showMessageDialog(frame, "Another import or export is still running.");
+            return;
+        }
         JFileChooser fileChooser = new JFileChooser(lastImportDirectory);
         fileChooser.setFileFilter(new FileNameExtensionFilter("Excel files", "xlsx"));
         int returnValue = fileChooser.showOpenDialog(frame);
         if (returnValue == JFileChooser.APPROVE_OPTION) {
             File selectedFile = fileChooser.getSelectedFile();
             lastImportDirectory = fileChooser.getCurrentDirectory(); // Update last import directory
-            saveLastImportDirectory();
-            try (Workbook workbook = new XSSFWorkbook(selectedFile)) {
-                Sheet sheet = workbook.getSheetAt(0);
-                model.setRowCount(0); // Clear existing data
-                for (Row row : sheet) {
-                    if (row.getRowNum() == 0) continue; // Skip header row
-                    Vector<Object> rowData = new Vector<>();
-                    for (int cn = 0; cn < COLUMN_NAMES.length; cn++) {
-                        if (row.getCell(cn) != null) {
-                            rowData.add(row.getCell(cn).toString());
+
+            boolean merge = false;
+            if (model.getRowCount() > 0) {
+                Object[] options = {"Replace All", "Merge by Asset Tag", "Cancel"};
+                int choice = JOptionPane.showOptionDialog(frame,
+                        "Replace the current inventory, or update rows with matching Asset Tags and add the rest?",
+                        "Import", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+                if (choice != 0 && choice != 1) {
+                    return;
+                }
+                merge = choice == 1;
+            }
+            boolean mergeRows = merge;
+
+            // The sheet is streamed and validated in the background; the rows
+            // are applied to the model in one go at the end, so the import
+            // costs one table event and one save
+            List<Asset> inventory = mergeRows ? model.snapshot() : null;
+            SwingWorker<ImportPipeline.Result, Void> task = new SwingWorker<ImportPipeline.Result, Void>() {
+                @Override
+                protected ImportPipeline.Result doInBackground() throws Exception {
+                    saveLastImportDirectory();
+                    return ImportPipeline.readXlsx(selectedFile, inventory, ForkJoinPool.commonPool(), (values, progress) -> {
+                        setProgress((int) (progress * 100));
+                        return !isCancelled();
+                    });
+                }
+
+                @Override
+                protected void done() {
+                    if (isCancelled()) {
+                        JOptionPane.showMessageDialog(frame, "Import cancelled.");
+                        return;
+                    }
+                    try {
+                        ImportPipeline.Result result = get();
+                        // One data-changed event, journaled as a single snapshot. If
+                        // every row was rejected the inventory is left alone, even when replacing.
+                        if (!result.assets.isEmpty()) {
+                            if (mergeRows) {
+                                model.mergeByAssetTag(result.assets);
+                            } else {
+                                model.replaceAll(result.assets);
+                            }
+                        }
+                        if (result.rejections.isEmpty()) {
+                            JOptionPane.showMessageDialog(frame, result.assets.isEmpty() ? "The file has no rows to import." : "Data imported successfully.");
                         } else {
-                            rowData.add("");
+                            showRejections(frame, result);
                         }
+                    } catch (InterruptedException | ExecutionException e) {
+                        LOG.error("Import of {} failed", selectedFile, e);
+                        JOptionPane.showMessageDialog(frame, "Failed to import data.");
                     }
-                    model.addRow(rowData);
                 }
-                saveTableData(model); // Save after import
-                JOptionPane.showMessageDialog(frame, "Data imported successfully.");
-            } catch (IOException e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(frame, "Failed to import data.");
-            }
+            };
+            startTask(task, frame, "Importing " + selectedFile.getName());
         }
     }
-    
 
-    private static void loadLastImportDirectory() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream("lastImportDirectory.ser"))) {
-            lastImportDirectory = (File) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            lastImportDirectory = new File(System.getProperty("user.home")); // Default to user's home directory
+    private static void showRejections(JFrame frame, ImportPipeline.Result result) {
+        StringBuilder message = new StringBuilder();
+        message.append(result.assets.size()).append(" rows imported, ").append(result.rejections.size()).append(" rows not imported:\n");
+        for (Map.Entry<ImportPipeline.Problem, Integer> count : result.countByProblem().entrySet()) {
+            message.append("  ").append(count.getValue()).append("  ").append(count.getKey().description).append('\n');
+        }
+        Object[] options = {"Save Report...", "Close"};
+        int choice = JOptionPane.showOptionDialog(frame, message.toString(), "Import", JOptionPane.DEFAULT_OPTION,
+                JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+        if (choice != 0) {
+            return;
         }
+        JFileChooser fileChooser = new JFileChooser(lastImportDirectory);
+        fileChooser.setFileFilter(new FileNameExtensionFilter("CSV files", "csv"));
+        fileChooser.setSelectedFile(new File("Import rejections.csv"));
+        if (fileChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File chosenFile = fileChooser.getSelectedFile();
+        File reportFile = InventoryExporter.isCsv(chosenFile) ? chosenFile : new File(chosenFile.getAbsolutePath() + ".csv");
+        SwingWorker<Void, Void> task = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                ImportPipeline.writeReport(reportFile, result.rejections, (done, total) -> {
+                    setProgress((int) (done * 100L / total));
+                    return !isCancelled();
+                });
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    LOG.error("Could not save the report {}", reportFile, e);
+                    JOptionPane.showMessageDialog(frame, "Failed to save the report.");
+                }
+            }
+        };
+        startTask(task, frame, "Saving " + reportFile.getName());
+    }
+
+    private static void loadLastImportDirectory() {
+        lastImportDirectory = loadDirectory("lastImportDirectory");
     }
 
     private static void saveLastImportDirectory() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("lastImportDirectory.ser"))) {
-            oos.writeObject(lastImportDirectory);
+        saveDirectory("lastImportDirectory", lastImportDirectory);
+    }
+
+    // Directories are stored as a plain path in <name>.txt. The old <name>.ser
+    // files are read once (only java.io.File may be deserialized) and removed.
+    private static File loadDirectory(String name) {
+        File textFile = new File(name + ".txt");
+        File legacyFile = new File(name + ".ser");
+        try {
+            if (textFile.exists()) {
+                return new File(new String(Files.readAllBytes(textFile.toPath()), StandardCharsets.UTF_8).trim());
+            }
+            if (legacyFile.exists()) {
+                try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(legacyFile))) {
+                    ois.setObjectInputFilter(ObjectInputFilter.Config.createFilter("java.io.File;!*"));
+                    File directory = (File) ois.readObject();
+                    saveDirectory(name, directory);
+                    Files.delete(legacyFile.toPath());
+                    return directory;
+                }
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // Fall through to the default
+        }
+        return new File(System.getProperty("user.home")); // Default to user's home directory
+    }
+
+    private static void saveDirectory(String name, File directory) {
+        try {
+            Files.write(new File(name + ".txt").toPath(), directory.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
         } catch (IOException e) {
-            e.printStackTrace();
+            LOG.warn("Could not save {}", name, e);
+        }
+    }
+
+    static class ProgressDialog extends JDialog {
+        private static final long serialVersionUID = 1L;
+
+        ProgressDialog(Window owner, String title, SwingWorker<?, ?> task) {
+            super(owner, title);
+            setLayout(new BorderLayout());
+            JProgressBar progressBar = new JProgressBar(0, 100);
+            progressBar.setStringPainted(true);
+            JButton cancelButton = new JButton("Cancel");
+            cancelButton.addActionListener(e -> task.cancel(true));
+            add(progressBar, BorderLayout.CENTER);
+            add(cancelButton, BorderLayout.SOUTH);
+            setSize(350, 100);
+            setLocationRelativeTo(owner);
+
+            task.addPropertyChangeListener(e -> {
+                if ("progress".equals(e.getPropertyName())) {
+                    progressBar.setValue((Integer) e.getNewValue());
+                } else if (task.isDone()) {
+                    dispose();
+                }
+            });
+            if (task.isDone()) {
+                dispose();
+            }
         }
     }
 
     static class ImageViewerDialog extends JDialog {
+        private static final long serialVersionUID = 1L;
+
         ImageViewerDialog(String imagePath) {
             setTitle("Image Viewer");
             setSize(600, 400);
-            JLabel imageLabel = new JLabel();
-            imageLabel.setIcon(new javax.swing.ImageIcon(imagePath));
+            // Show the cached preview right away and swap in the full image once it is decoded
+            JLabel imageLabel = new JLabel("Loading...", THUMBNAILS.peek(imagePath), JLabel.CENTER);
             JScrollPane scrollPane = new JScrollPane(imageLabel);
             add(scrollPane);
+            THUMBNAILS.loadFull(imagePath).whenComplete((image, error) -> SwingUtilities.invokeLater(() -> {
+                if (image != null) {
+                    imageLabel.setText(null);
+                    imageLabel.setIcon(new ImageIcon(image));
+                } else {
+                    imageLabel.setText("Could not load " + imagePath);
+                }
+            }));
+        }
+    }
+
+    // One dimension's groups; refreshed in place so the user's sort order stays
+    static class SummaryTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        private transient List<InventoryAggregates.Group> groups = Collections.emptyList();
+        private String groupBy = "";
+
+        void show(InventoryAggregates.Dimension dimension, List<InventoryAggregates.Group> groups) {
+            boolean renamed = !dimension.label.equals(groupBy);
+            this.groupBy = dimension.label;
+            this.groups = groups;
+            if (renamed) {
+                fireTableStructureChanged();
+            } else {
+                fireTableDataChanged();
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return groups.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 3;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return column == 0 ? groupBy : column == 1 ? "Assets" : "Quantity";
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 ? String.class : column == 1 ? Integer.class : Long.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            InventoryAggregates.Group group = groups.get(row);
+            return column == 0 ? group.key : column == 1 ? (Object) group.assets : (Object) group.quantity;
         }
     }
 }
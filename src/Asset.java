@@ -0,0 +1,314 @@
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.lang.ref.WeakReference;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * One inventory row.
+ *
+ * Assets are immutable: an edit produces a new Asset via with(), so a list of
+ * assets can be handed to a background thread (export, snapshot) without
+ * copying the values. Quantity is a primitive int, the two dates are
+ * LocalDates, and the low-cardinality text fields (category, manufacturer,
+ * locations) are interned so thousands of rows share one String each. The
+ * pool only holds them weakly: a value no row uses any more (a renamed
+ * location, an import that was replaced) can still be collected.
+ */
+public final class Asset {
+
+    public static final int ASSET_TAG = 0;
+    public static final int MODEL = 1;
+    public static final int MANUFACTURER = 2;
+    public static final int CATEGORY = 3;
+    public static final int QUANTITY = 4;
+    public static final int SERIAL = 5;
+    public static final int PHYSICAL_LOCATION = 6;
+    public static final int WHERE = 7;
+    public static final int DATE_RECEIVED = 8;
+    public static final int DATE_RECORDED = 9;
+    public static final int NOTE = 10;
+    public static final int IMAGE = 11;
+
+    public static final String[] COLUMN_NAMES = {"Asset Tag", "Model", "Manufacturer", "Category", "Quantity", "Serial", "Physical Location", "Where", "Date Received", "Date Recorded", "Note", "Image"};
+    public static final int COLUMN_COUNT = COLUMN_NAMES.length;
+    public static final String NO_IMAGE = "No Image";
+
+    public static final Asset EMPTY = new Asset("", "", "", "", 0, "", "", "", null, null, "", NO_IMAGE);
+
+    private static final int POOL_STRIPES = 16; // imports intern from every core
+    private static final Map<String, WeakReference<String>>[] POOL = newPool();
+    private static final DateTimeFormatter[] DATE_FORMATS = {
+        DateTimeFormatter.ISO_LOCAL_DATE,
+        DateTimeFormatter.ofPattern("M/d/yyyy"),
+        // DataFormatter's default for date cells. Two-digit years fall in
+        // 1930-2029 as in Excel, not 2000-2099 as with "yy".
+        new DateTimeFormatterBuilder().appendPattern("M/d/").appendValueReduced(ChronoField.YEAR, 2, 2, 1930).toFormatter(),
+        DateTimeFormatter.ofPattern("d-MMM-yyyy"),
+    };
+
+    private final String assetTag;
+    private final String model;
+    private final String manufacturer;
+    private final String category;
+    private final int quantity;
+    private final String serial;
+    private final String physicalLocation;
+    private final String where;
+    private final LocalDate dateReceived;
+    private final LocalDate dateRecorded;
+    private final String note;
+    private final String imagePath;
+
+    public Asset(String assetTag, String model, String manufacturer, String category, int quantity, String serial,
+                 String physicalLocation, String where, LocalDate dateReceived, LocalDate dateRecorded, String note, String imagePath) {
+        this.assetTag = text(assetTag);
+        this.model = intern(model);
+        this.manufacturer = intern(manufacturer);
+        this.category = intern(category);
+        this.quantity = quantity;
+        this.serial = text(serial);
+        this.physicalLocation = intern(physicalLocation);
+        this.where = intern(where);
+        this.dateReceived = dateReceived;
+        this.dateRecorded = dateRecorded;
+        this.note = text(note);
+        this.imagePath = imagePath == null || imagePath.isEmpty() ? NO_IMAGE : imagePath;
+    }
+
+    /**
+     * Builds an asset from loosely typed cell values (table edits, old
+     * snapshots, spreadsheet text). Unparseable quantities become 0 and
+     * unparseable dates become null.
+     */
+    public static Asset fromValues(Object[] values) {
+        return new Asset(string(values, ASSET_TAG), string(values, MODEL), string(values, MANUFACTURER), string(values, CATEGORY),
+                toQuantity(value(values, QUANTITY), 0), string(values, SERIAL), string(values, PHYSICAL_LOCATION), string(values, WHERE),
+                toDate(value(values, DATE_RECEIVED)), toDate(value(values, DATE_RECORDED)), string(values, NOTE), string(values, IMAGE));
+    }
+
+    public Object[] toValues() {
+        Object[] values = new Object[COLUMN_COUNT];
+        for (int col = 0; col < COLUMN_COUNT; col++) {
+            values[col] = get(col);
+        }
+        return values;
+    }
+
+    public Object get(int column) {
+        switch (column) {
+            case ASSET_TAG: return assetTag;
+            case MODEL: return model;
+            case MANUFACTURER: return manufacturer;
+            case CATEGORY: return category;
+            case QUANTITY: return quantity;
+            case SERIAL: return serial;
+            case PHYSICAL_LOCATION: return physicalLocation;
+            case WHERE: return where;
+            case DATE_RECEIVED: return dateReceived;
+            case DATE_RECORDED: return dateRecorded;
+            case NOTE: return note;
+            case IMAGE: return imagePath;
+            default: throw new IndexOutOfBoundsException("column " + column);
+        }
+    }
+
+    /**
+     * Returns a copy with one column changed. Values that don't parse for a
+     * typed column (quantity, dates) leave that column unchanged.
+     */
+    public Asset with(int column, Object value) {
+        Object[] values = toValues();
+        switch (column) {
+            case QUANTITY:
+                values[column] = toQuantity(value, quantity);
+                break;
+            case DATE_RECEIVED:
+            case DATE_RECORDED:
+                LocalDate date = toDate(value);
+                if (date != null || value == null || value.toString().trim().isEmpty()) {
+                    values[column] = date;
+                }
+                break;
+            default:
+                values[column] = value;
+                break;
+        }
+        return fromValues(values);
+    }
+
+    public String getAssetTag() {
+        return assetTag;
+    }
+
+    /**
+     * The key assets are matched and kept unique by: the Asset Tag trimmed
+     * and lower-cased, so "abc-1" and "ABC-1 " are the same asset; null if
+     * the asset has no tag. Import validation, both merges, --dedupe and the
+     * server all go by it.
+     */
+    public String getTagKey() {
+        return key(assetTag);
+    }
+
+    /**
+     * A tag or serial trimmed and lower-cased for matching, null if blank.
+     */
+    public static String key(String value) {
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed.toLowerCase(Locale.ROOT);
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public String getManufacturer() {
+        return manufacturer;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public String getSerial() {
+        return serial;
+    }
+
+    public String getPhysicalLocation() {
+        return physicalLocation;
+    }
+
+    public String getWhere() {
+        return where;
+    }
+
+    public LocalDate getDateReceived() {
+        return dateReceived;
+    }
+
+    public LocalDate getDateRecorded() {
+        return dateRecorded;
+    }
+
+    public String getNote() {
+        return note;
+    }
+
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    public boolean hasImage() {
+        return !NO_IMAGE.equals(imagePath);
+    }
+
+    /**
+     * Parses a quantity typed by a user or read from a spreadsheet. Accepts
+     * "3" and POI's "3.0"; blank is 0; anything else returns fallback.
+     */
+    public static int toQuantity(Object value, int fallback) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        String text = value == null ? "" : value.toString().trim();
+        if (text.isEmpty()) {
+            return 0;
+        }
+        int dot = text.indexOf('.');
+        if (dot > 0 && isZeros(text, dot + 1)) {
+            text = text.substring(0, dot); // "3.0" without going through the exceptions below
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            try {
+                double d = Double.parseDouble(text);
+                return d == Math.rint(d) ? (int) d : fallback;
+            } catch (NumberFormatException e2) {
+                return fallback;
+            }
+        }
+    }
+
+    private static boolean isZeros(String text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts a LocalDate, java.util.Date or date text to a LocalDate, or
+     * null if it can't be read as a date.
+     */
+    public static LocalDate toDate(Object value) {
+        if (value instanceof LocalDate) {
+            return (LocalDate) value;
+        }
+        if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        }
+        String text = value == null ? "" : value.toString().trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+        for (DateTimeFormatter format : DATE_FORMATS) {
+            try {
+                return LocalDate.parse(text, format);
+            } catch (DateTimeParseException e) {
+                // try the next format
+            }
+        }
+        return null;
+    }
+
+    private static Object value(Object[] values, int column) {
+        return column < values.length ? values[column] : null;
+    }
+
+    private static String string(Object[] values, int column) {
+        Object value = value(values, column);
+        return value == null ? "" : value.toString();
+    }
+
+    private static String text(String value) {
+        return value == null ? "" : value;
+    }
+
+    static String intern(String value) {
+        if (value == null || value.isEmpty()) {
+            return "";
+        }
+        Map<String, WeakReference<String>> stripe = POOL[value.hashCode() & (POOL_STRIPES - 1)];
+        synchronized (stripe) {
+            WeakReference<String> ref = stripe.get(value);
+            String pooled = ref == null ? null : ref.get();
+            if (pooled != null) {
+                return pooled;
+            }
+            stripe.put(value, new WeakReference<>(value));
+            return value;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<String, WeakReference<String>>[] newPool() {
+        Map<String, WeakReference<String>>[] pool = new Map[POOL_STRIPES];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new WeakHashMap<>();
+        }
+        return pool;
+    }
+}
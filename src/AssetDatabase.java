@@ -0,0 +1,1250 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import javax.swing.event.TableModelEvent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Embedded single-file inventory database (inventory.db), read a page at a
+ * time.
+ *
+ * The data file is an append-only log of checksummed records: INSERT and
+ * UPDATE carry a whole row, DELETE a row range, and every model change ends
+ * with a COMMIT record. Replay applies only committed transactions, so a
+ * crash never leaves half of a batch behind. The table order is kept in
+ * memory as the file offset of each row's current record, which is all that
+ * is needed to read any page of rows directly from the file.
+ *
+ * A checkpoint file (inventory.db.idx) stores that offset array and the
+ * length of each record plus the secondary indexes (Asset Tag, Serial, Category, Physical Location), each
+ * as a run of entries sorted by key, so opening only reads the offsets and
+ * the log written after the last checkpoint, and find() binary searches the
+ * run on disk without loading it. Index entries for newer records are kept
+ * in memory and merged into the runs by the next checkpoint, which happens
+ * every CHECKPOINT_RECORDS records. Superseded records are reclaimed by
+ * rewriting the file on close() once they outweigh the live ones.
+ *
+ * Writes are appended to an in-memory buffer on the calling thread and
+ * written and fsynced in the background, one fsync per burst of changes.
+ * The background writer swaps that buffer out under the store's lock and
+ * writes it without holding the lock, so the EDT never waits on the disk.
+ */
+public class AssetDatabase implements InventoryStore {
+
+    /** Columns with a secondary index. */
+    public static final int[] INDEXED_COLUMNS = {Asset.ASSET_TAG, Asset.SERIAL, Asset.CATEGORY, Asset.PHYSICAL_LOCATION};
+
+    private static final int DATA_MAGIC = 0x494E5644; // "INVD"
+    private static final int INDEX_MAGIC = 0x494E5658; // "INVX"
+    private static final short VERSION = 1;
+    private static final short INDEX_VERSION = 2; // 2 added the record lengths
+    private static final int HEADER_SIZE = 4 + 2 + 8;
+    private static final int INDEX_HEADER_SIZE = 4 + 2 + 8 + 8 + 8 + 4 + INDEXED_COLUMNS.length * (8 + 8 + 4);
+    private static final int RECORD_HEADER = 8; // int payload length, int CRC32
+    private static final int MAX_RECORD = 16 * 1024 * 1024;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final Logger LOG = LogManager.getLogger(AssetDatabase.class);
+    private static final Metrics.Timer WRITE_TIMER = Metrics.timer("store.write");
+    private static final Metrics.Timer CHECKPOINT_TIMER = Metrics.timer("store.checkpoint");
+
+    private static final long FLUSH_DELAY_MILLIS = 200;
+    private static final int WRITE_THROUGH_BYTES = 4 << 20;
+    private static final int CHECKPOINT_RECORDS = 100_000;
+    private static final int BLOCK_SIZE = 256 * 1024;
+
+    private static final byte OP_INSERT = 1;
+    private static final byte OP_UPDATE = 2;
+    private static final byte OP_DELETE = 3;
+    private static final byte OP_CLEAR = 4;
+    private static final byte OP_COMMIT = 5;
+
+    private final File dataFile;
+    private final File indexFile;
+    private final IoScheduler scheduler;
+
+    private FileChannel channel;
+    private long generation; // changes whenever the data file is rewritten
+    private long writtenEnd; // end of the log before pending; records from fileEnd on are still in writing
+    private long fileEnd; // the data file's length
+    private RecordBuffer pending = new RecordBuffer();
+    private RecordBuffer writing = new RecordBuffer(); // handed to the I/O thread, which writes it at fileEnd
+    private ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE); // read cache over [blockStart, blockStart + limit)
+    private long blockStart = -1;
+
+    private long[] offsets = new long[1024]; // row -> offset of the record holding its current values
+    private int[] lengths = new int[1024]; // row -> length of that record
+    private OffsetMap rowsByOffset; // the reverse of offsets for find(), built on demand; null after a change
+    private int size;
+    private long liveBytes; // bytes of the records in offsets
+    private long checkpointEnd; // the checkpoint file covers the log up to here
+    private int recordsSinceCheckpoint;
+
+    private FileChannel indexChannel; // the checkpoint file, searched by find()
+    private Run[] runs = emptyRuns(); // each index's sorted entries in the checkpoint file
+    private final Recent[] recent = new Recent[INDEXED_COLUMNS.length]; // index entries written since the checkpoint
+    private final LongList unindexed = new LongList(); // replayed records not yet in recent
+    private final Object writeLock = new Object(); // one writer of the files at a time; taken before the store's own lock
+
+    public AssetDatabase(File dataFile, IoScheduler scheduler) {
+        this.dataFile = dataFile;
+        this.indexFile = new File(dataFile.getPath() + ".idx");
+        this.scheduler = scheduler;
+        for (int i = 0; i < recent.length; i++) {
+            recent[i] = new Recent();
+        }
+    }
+
+    /**
+     * Creates a database holding rows, for migrating from another store.
+     * Does nothing if the file already exists.
+     */
+    public static void create(File dataFile, List<Asset> rows) throws IOException {
+        if (dataFile.exists()) {
+            return;
+        }
+        IoScheduler scheduler = new IoScheduler();
+        AssetDatabase db = new AssetDatabase(dataFile, scheduler);
+        db.open();
+        db.replaceAll(rows);
+        scheduler.shutdown();
+        db.close();
+    }
+
+    @Override
+    public synchronized int open() throws IOException {
+        boolean exists = dataFile.length() >= HEADER_SIZE;
+        channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (exists) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != DATA_MAGIC) {
+                throw new IOException(dataFile + " is not an inventory database");
+            }
+            short version = header.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported database version " + version + " in " + dataFile);
+            }
+            generation = header.getLong();
+        } else {
+            generation = new Random().nextLong();
+            writeHeader(channel, generation);
+        }
+        writtenEnd = channel.size();
+        fileEnd = writtenEnd;
+
+        long replayFrom = HEADER_SIZE;
+        if (readCheckpoint()) {
+            replayFrom = checkpointEnd;
+        } else {
+            size = 0;
+            liveBytes = 0;
+            checkpointEnd = HEADER_SIZE;
+        }
+        long validEnd = replay(replayFrom);
+        if (validEnd < writtenEnd) {
+            channel.truncate(validEnd); // uncommitted or torn tail from a crash
+            writtenEnd = validEnd;
+            fileEnd = validEnd;
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized List<Asset> read(int from, int count) throws IOException {
+        int end = Math.min(size, from + count);
+        List<Asset> rows = new ArrayList<>(Math.max(0, end - from));
+        for (int row = from; row < end; row++) {
+            rows.add(readAsset(offsets[row]));
+        }
+        return rows;
+    }
+
+    @Override
+    public synchronized void record(TableModelEvent e, AssetTableModel model) {
+        try {
+            if (e instanceof AssetTableModel.BatchEvent) {
+                for (TableModelEvent step : ((AssetTableModel.BatchEvent) e).getSteps()) {
+                    change(step, model);
+                }
+            } else {
+                change(e, model);
+            }
+            commit(); // one transaction per model change
+        } catch (IOException ex) {
+            LOG.error("Could not save a change to {}", dataFile, ex);
+        }
+    }
+
+    private void change(TableModelEvent e, AssetTableModel model) throws IOException {
+        int first = e.getFirstRow();
+        int last = e.getLastRow();
+        if (first == TableModelEvent.HEADER_ROW || last == Integer.MAX_VALUE) {
+            clear();
+            for (int row = 0; row < model.getRowCount(); row++) {
+                insert(row, model.getAsset(row));
+            }
+        } else if (e.getType() == TableModelEvent.INSERT) {
+            for (int row = first; row <= last; row++) {
+                insert(row, model.getAsset(row));
+            }
+        } else if (e.getType() == TableModelEvent.DELETE) {
+            delete(first, last);
+        } else {
+            for (int row = first; row <= last; row++) {
+                update(row, model.getAsset(row));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void replaceAll(List<Asset> rows) {
+        try {
+            clear();
+            for (int row = 0; row < rows.size(); row++) {
+                insert(row, rows.get(row));
+            }
+            commit();
+        } catch (IOException e) {
+            LOG.error("Could not replace the rows in {}", dataFile, e);
+        }
+    }
+
+    @Override
+    public synchronized List<Asset> find(int column, String value) throws IOException {
+        String key = key(value);
+        List<Asset> found = new ArrayList<>();
+        int slot = indexSlot(column);
+        if (slot < 0) {
+            for (int row = 0; row < size; row++) {
+                Asset asset = readAsset(offsets[row]);
+                if (key.equals(key(asset.get(column)))) {
+                    found.add(asset);
+                }
+            }
+            return found;
+        }
+        indexReplayed();
+        LongList candidates = new LongList();
+        if (indexChannel != null) {
+            lookup(runs[slot], key, candidates);
+        }
+        recent[slot].collect(key, candidates);
+        if (candidates.size == 0) {
+            return found;
+        }
+        // Entries for superseded records stay in the index until the next
+        // checkpoint, so keep only offsets that are still some row's current one
+        if (rowsByOffset == null) {
+            rowsByOffset = new OffsetMap(offsets, size);
+        }
+        int[] rows = new int[candidates.size];
+        int count = 0;
+        for (int i = 0; i < candidates.size; i++) {
+            int row = rowsByOffset.get(candidates.values[i]);
+            if (row >= 0) {
+                rows[count++] = row;
+            }
+        }
+        Arrays.sort(rows, 0, count); // table order
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || rows[i] != rows[i - 1]) {
+                found.add(readAsset(offsets[rows[i]]));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void close() {
+        synchronized (writeLock) { // lets a background write or checkpoint finish first
+            synchronized (this) {
+                if (channel == null) {
+                    return;
+                }
+                try {
+                    writePending();
+                    long garbage = writtenEnd - HEADER_SIZE - liveBytes;
+                    if (garbage > liveBytes && garbage > WRITE_THROUGH_BYTES) {
+                        compact();
+                    } else if (writtenEnd > checkpointEnd) {
+                        checkpoint();
+                    }
+                    channel.force(true);
+                    channel.close();
+                    if (indexChannel != null) {
+                        indexChannel.close();
+                    }
+                } catch (IOException e) {
+                    LOG.error("Could not close {}", dataFile, e);
+                }
+                channel = null;
+                indexChannel = null;
+            }
+        }
+    }
+
+    // Changes. Each is applied in memory right away and appended to pending.
+
+    private void insert(int row, Asset asset) throws IOException {
+        pending.begin(OP_INSERT, row);
+        pending.putAsset(asset);
+        long offset = writtenEnd + pending.recordStart;
+        applyInsert(row, offset, appendRecord());
+        indexed(offset, asset);
+    }
+
+    private void update(int row, Asset asset) throws IOException {
+        pending.begin(OP_UPDATE, row);
+        pending.putAsset(asset);
+        long offset = writtenEnd + pending.recordStart;
+        applyUpdate(row, offset, appendRecord());
+        indexed(offset, asset);
+    }
+
+    private void delete(int first, int last) throws IOException {
+        pending.begin(OP_DELETE, first);
+        pending.putInt(last);
+        appendRecord();
+        applyDelete(first, last);
+    }
+
+    private void clear() throws IOException {
+        pending.begin(OP_CLEAR, 0);
+        appendRecord();
+        applyClear();
+    }
+
+    private void commit() throws IOException {
+        pending.begin(OP_COMMIT, 0);
+        appendRecord();
+        if (recordsSinceCheckpoint >= CHECKPOINT_RECORDS) {
+            scheduler.coalesce(this, this::checkpointInBackground, 0);
+        } else {
+            scheduler.coalesce(this, this::flush, FLUSH_DELAY_MILLIS);
+        }
+    }
+
+    // Returns the record's length
+    private int appendRecord() {
+        int length = pending.end();
+        recordsSinceCheckpoint++;
+        if (pending.length >= WRITE_THROUGH_BYTES && writing.length == 0) {
+            // Keeps big batches from piling up in memory. A huge transaction
+            // stays uncommitted on disk until its COMMIT.
+            handOff();
+            scheduler.coalesce(writeLock, this::writeThrough, 0);
+        }
+        return length;
+    }
+
+    private void handOff() {
+        RecordBuffer full = pending;
+        pending = writing;
+        writing = full;
+        writtenEnd += writing.length;
+    }
+
+    private void applyInsert(int row, long offset, int length) {
+        rowsByOffset = null;
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+        }
+        row = Math.min(row, size);
+        System.arraycopy(offsets, row, offsets, row + 1, size - row);
+        System.arraycopy(lengths, row, lengths, row + 1, size - row);
+        offsets[row] = offset;
+        lengths[row] = length;
+        size++;
+        liveBytes += length;
+    }
+
+    private void applyUpdate(int row, long offset, int length) {
+        rowsByOffset = null;
+        if (row < size) {
+            liveBytes += length - lengths[row];
+            offsets[row] = offset;
+            lengths[row] = length;
+        }
+    }
+
+    private void applyDelete(int first, int last) {
+        rowsByOffset = null;
+        last = Math.min(last, size - 1);
+        if (first > last) {
+            return;
+        }
+        for (int row = first; row <= last; row++) {
+            liveBytes -= lengths[row];
+        }
+        System.arraycopy(offsets, last + 1, offsets, first, size - last - 1);
+        System.arraycopy(lengths, last + 1, lengths, first, size - last - 1);
+        size -= last - first + 1;
+    }
+
+    private void applyClear() {
+        rowsByOffset = null;
+        size = 0;
+        liveBytes = 0;
+    }
+
+    // I/O thread
+
+    private void flush() {
+        long start = System.nanoTime();
+        synchronized (writeLock) {
+            try {
+                FileChannel target = writeOut();
+                if (target != null) {
+                    target.force(false);
+                }
+            } catch (IOException e) {
+                LOG.error("Could not write to {}", dataFile, e);
+                return;
+            }
+        }
+        WRITE_TIMER.since(start);
+    }
+
+    // A big batch handed off by appendRecord; the fsync waits for the flush
+    private void writeThrough() {
+        synchronized (writeLock) {
+            try {
+                writeOut();
+            } catch (IOException e) {
+                LOG.error("Could not write to {}", dataFile, e);
+            }
+        }
+    }
+
+    // Writes pending, or the batch already handed off, without holding the
+    // store's lock; the EDT keeps appending to the other buffer meanwhile.
+    // Call with writeLock held. Returns the channel written to, or null once closed.
+    private FileChannel writeOut() throws IOException {
+        FileChannel target;
+        RecordBuffer records;
+        long position;
+        int length;
+        synchronized (this) {
+            if (channel == null) {
+                return null;
+            }
+            if (writing.length == 0) {
+                handOff();
+            }
+            target = channel;
+            records = writing;
+            position = fileEnd;
+            length = records.length;
+        }
+        if (length > 0) {
+            write(target, records, position);
+            synchronized (this) {
+                fileEnd += length;
+                records.length = 0;
+                records.recordStart = 0;
+            }
+        }
+        return target;
+    }
+
+    // The merge is written without holding the lock; only taking the
+    // snapshot and swapping in the new file block the EDT
+    private void checkpointInBackground() {
+        synchronized (writeLock) {
+            Checkpoint next = null;
+            try {
+                writeOut(); // so only what the EDT adds meanwhile is written under the lock
+            } catch (IOException e) {
+                LOG.error("Could not checkpoint {}", dataFile, e);
+                return;
+            }
+            synchronized (this) {
+                if (channel == null) {
+                    return;
+                }
+                if (recordsSinceCheckpoint >= CHECKPOINT_RECORDS) { // else an earlier checkpoint covered them
+                    try {
+                        writePending();
+                        indexReplayed();
+                    } catch (IOException e) {
+                        LOG.error("Could not checkpoint {}", dataFile, e);
+                        return;
+                    }
+                    next = new Checkpoint();
+                }
+            }
+            if (next == null) {
+                flush();
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                channel.force(false);
+                next.write();
+            } catch (IOException e) {
+                LOG.error("Could not checkpoint {}", dataFile, e);
+                return;
+            }
+            synchronized (this) {
+                try {
+                    next.install();
+                } catch (IOException e) {
+                    LOG.error("Could not install the checkpoint of {}", dataFile, e);
+                }
+            }
+            CHECKPOINT_TIMER.since(start);
+        }
+    }
+
+    // Writes everything still in memory; call with both writeLock and the store's lock held
+    private void writePending() throws IOException {
+        if (writing.length > 0) {
+            fileEnd += drain(channel, writing, fileEnd);
+        }
+        if (pending.length > 0) {
+            handOff();
+            fileEnd += drain(channel, writing, fileEnd);
+        }
+    }
+
+    // Checkpoint file: header, row offsets, record lengths, then one sorted run per index
+
+    private void checkpoint() throws IOException {
+        writePending();
+        indexReplayed();
+        Checkpoint next = new Checkpoint();
+        channel.force(false);
+        next.write();
+        next.install();
+    }
+
+    // Loads the offsets from the checkpoint file if it belongs to this data file
+    private boolean readCheckpoint() throws IOException {
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        FileChannel in = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            if (in.size() < header.capacity()) {
+                in.close();
+                return false;
+            }
+            readFully(in, header, 0);
+            header.flip();
+            if (header.getInt() != INDEX_MAGIC || header.getShort() != INDEX_VERSION || header.getLong() != generation) {
+                in.close();
+                return false; // stale: the data file was rewritten after this checkpoint
+            }
+            long end = header.getLong();
+            long live = header.getLong();
+            int rows = header.getInt();
+            if (end > writtenEnd || rows < 0) {
+                in.close();
+                return false;
+            }
+            Run[] stored = new Run[INDEXED_COLUMNS.length];
+            for (int i = 0; i < stored.length; i++) {
+                stored[i] = new Run(header.getLong(), header.getLong(), header.getInt());
+            }
+            ByteBuffer body = ByteBuffer.allocate(rows * (8 + 4));
+            readFully(in, body, header.capacity());
+            body.flip();
+            offsets = new long[Math.max(1024, rows)];
+            body.asLongBuffer().get(offsets, 0, rows);
+            body.position(rows * 8);
+            lengths = new int[offsets.length];
+            body.asIntBuffer().get(lengths, 0, rows);
+            size = rows;
+            liveBytes = live;
+            checkpointEnd = end;
+            runs = stored;
+            indexChannel = in;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Binary search over the run's key table, reading only the probed entries
+    private void lookup(Run run, String key, LongList into) throws IOException {
+        int low = 0;
+        int high = run.keys - 1;
+        ByteBuffer slot = ByteBuffer.allocate(8);
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            slot.clear();
+            readFully(indexChannel, slot, run.table + 8L * mid);
+            Input entry = new Input(indexChannel, slot.getLong(0), 256);
+            int cmp = entry.readKey().compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                for (int count = entry.readInt(); count > 0; count--) {
+                    into.add(entry.readLong());
+                }
+                return;
+            }
+        }
+    }
+
+    // Indexes the records replay found after the checkpoint; after a missing
+    // or stale checkpoint that is every record in the file
+    private void indexReplayed() throws IOException {
+        for (int i = 0; i < unindexed.size; i++) {
+            indexed(unindexed.values[i], readAsset(unindexed.values[i]));
+        }
+        unindexed.size = 0;
+    }
+
+    private void indexed(long offset, Asset asset) {
+        for (int i = 0; i < INDEXED_COLUMNS.length; i++) {
+            String key = key(asset.get(INDEXED_COLUMNS[i]));
+            if (!key.isEmpty()) {
+                recent[i].add(key, offset);
+            }
+        }
+    }
+
+    private static int indexSlot(int column) {
+        for (int i = 0; i < INDEXED_COLUMNS.length; i++) {
+            if (INDEXED_COLUMNS[i] == column) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String key(Object value) {
+        return value == null ? "" : value.toString().trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Rewrites the data file with only the current rows, then checkpoints it
+    private void compact() throws IOException {
+        File tmp = new File(dataFile.getPath() + ".tmp");
+        long newGeneration = generation + 1;
+        long[] newOffsets = new long[Math.max(1024, size)];
+        int[] newLengths = new int[newOffsets.length];
+        long newLive = 0;
+        Recent[] newRecent = new Recent[INDEXED_COLUMNS.length];
+        for (int i = 0; i < newRecent.length; i++) {
+            newRecent[i] = new Recent();
+        }
+        long end;
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(out, newGeneration);
+            end = HEADER_SIZE;
+            RecordBuffer records = new RecordBuffer();
+            for (int row = 0; row < size; row++) {
+                Asset asset = readAsset(offsets[row]);
+                records.begin(OP_INSERT, row);
+                records.putAsset(asset);
+                newOffsets[row] = end + records.recordStart;
+                newLengths[row] = records.end();
+                newLive += newLengths[row];
+                for (int i = 0; i < INDEXED_COLUMNS.length; i++) {
+                    String key = key(asset.get(INDEXED_COLUMNS[i]));
+                    if (!key.isEmpty()) {
+                        newRecent[i].add(key, newOffsets[row]);
+                    }
+                }
+                if (records.length >= WRITE_THROUGH_BYTES) {
+                    end += drain(out, records, end);
+                }
+            }
+            records.begin(OP_COMMIT, 0);
+            records.end();
+            end += drain(out, records, end);
+            out.force(true);
+        }
+        channel.close();
+        Files.move(tmp.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        generation = newGeneration;
+        writtenEnd = end;
+        fileEnd = end;
+        blockStart = -1;
+        offsets = newOffsets;
+        lengths = newLengths;
+        rowsByOffset = null;
+        liveBytes = newLive;
+        // Every offset changed, so the old runs are useless; index from scratch
+        if (indexChannel != null) {
+            indexChannel.close();
+            indexChannel = null;
+        }
+        runs = emptyRuns();
+        System.arraycopy(newRecent, 0, recent, 0, recent.length);
+        unindexed.size = 0;
+        checkpoint();
+    }
+
+    // Replays committed transactions from the log; returns where the valid log ends
+    private long replay(long from) throws IOException {
+        List<long[]> transaction = new ArrayList<>(); // {op, row, offset or last row, record length}
+        long position = from;
+        long validEnd = from;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER <= writtenEnd) {
+            int length = loadBlock(position, RECORD_HEADER).getInt((int) (position - blockStart));
+            if (length < 5 || length > MAX_RECORD || position + RECORD_HEADER + length > writtenEnd) {
+                break;
+            }
+            ByteBuffer buf = loadBlock(position, RECORD_HEADER + length);
+            int at = (int) (position - blockStart);
+            int checksum = buf.getInt(at + 4);
+            crc.reset();
+            crc.update(buf.array(), buf.arrayOffset() + at + RECORD_HEADER, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            byte op = buf.get(at + RECORD_HEADER);
+            int row = buf.getInt(at + RECORD_HEADER + 1);
+            long arg = op == OP_DELETE ? buf.getInt(at + RECORD_HEADER + 5) : position;
+            if (op == OP_COMMIT) {
+                for (long[] change : transaction) {
+                    applyReplayed(change);
+                }
+                transaction.clear();
+                validEnd = position + RECORD_HEADER + length;
+            } else if (op >= OP_INSERT && op <= OP_CLEAR) {
+                transaction.add(new long[] {op, row, arg, RECORD_HEADER + length});
+            } else {
+                break;
+            }
+            position += RECORD_HEADER + length;
+        }
+        return validEnd;
+    }
+
+    private void applyReplayed(long[] change) throws IOException {
+        int row = (int) change[1];
+        switch ((int) change[0]) {
+            case OP_INSERT:
+                applyInsert(row, change[2], (int) change[3]);
+                unindexed.add(change[2]);
+                break;
+            case OP_UPDATE:
+                applyUpdate(row, change[2], (int) change[3]);
+                unindexed.add(change[2]);
+                break;
+            case OP_DELETE:
+                applyDelete(row, (int) change[2]);
+                break;
+            default:
+                applyClear();
+                break;
+        }
+        recordsSinceCheckpoint++;
+    }
+
+    // Reading records
+
+    private Asset readAsset(long offset) throws IOException {
+        ByteBuffer buf;
+        if (offset >= writtenEnd) {
+            buf = ByteBuffer.wrap(pending.buf, 0, pending.length);
+            buf.position((int) (offset - writtenEnd));
+        } else if (offset >= fileEnd) {
+            buf = ByteBuffer.wrap(writing.buf, 0, writing.length);
+            buf.position((int) (offset - fileEnd));
+        } else {
+            int length = RECORD_HEADER + loadBlock(offset, RECORD_HEADER).getInt((int) (offset - blockStart));
+            buf = loadBlock(offset, length);
+            buf.position((int) (offset - blockStart));
+        }
+        buf.position(buf.position() + RECORD_HEADER + 1 + 4); // op, row
+        String assetTag = getString(buf);
+        String model = getString(buf);
+        String manufacturer = getString(buf);
+        String category = getString(buf);
+        int quantity = buf.getInt();
+        String serial = getString(buf);
+        String physicalLocation = getString(buf);
+        String where = getString(buf);
+        LocalDate dateReceived = getDate(buf);
+        LocalDate dateRecorded = getDate(buf);
+        String note = getString(buf);
+        String imagePath = getString(buf);
+        return new Asset(assetTag, model, manufacturer, category, quantity, serial, physicalLocation, where, dateReceived, dateRecorded, note, imagePath);
+    }
+
+    // Returns the block buffer with [offset, offset + length) loaded; pages are read BLOCK_SIZE at a time
+    private ByteBuffer loadBlock(long offset, int length) throws IOException {
+        if (blockStart >= 0 && offset >= blockStart && offset + length <= blockStart + block.limit()) {
+            return block;
+        }
+        if (length > block.capacity()) {
+            block = ByteBuffer.allocate(length);
+        }
+        block.clear();
+        block.limit((int) Math.min(block.capacity(), fileEnd - offset));
+        readFully(channel, block, offset);
+        block.flip();
+        blockStart = offset;
+        if (block.limit() < length) {
+            throw new IOException("Record at " + offset + " runs past the end of " + dataFile);
+        }
+        return block;
+    }
+
+    private static String getString(ByteBuffer buf) {
+        return getString(buf, buf.getInt());
+    }
+
+    private static String getString(ByteBuffer buf, int length) {
+        String value = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return value;
+    }
+
+    private static LocalDate getDate(ByteBuffer buf) {
+        int day = buf.getInt();
+        return day == NO_DATE ? null : LocalDate.ofEpochDay(day);
+    }
+
+    // File helpers
+
+    private static void writeHeader(FileChannel out, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(DATA_MAGIC);
+        header.putShort(VERSION);
+        header.putLong(generation);
+        header.flip();
+        while (header.hasRemaining()) {
+            out.write(header, header.position());
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (in.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static ByteBuffer ensure(FileChannel out, ByteBuffer buf, int needed) throws IOException {
+        if (buf.remaining() >= needed) {
+            return buf;
+        }
+        drain(out, buf);
+        return needed <= buf.capacity() ? buf : ByteBuffer.allocate(needed);
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    private static int drain(FileChannel out, RecordBuffer records, long position) throws IOException {
+        write(out, records, position);
+        int written = records.length;
+        records.length = 0;
+        records.recordStart = 0;
+        return written;
+    }
+
+    private static void write(FileChannel out, RecordBuffer records, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(records.buf, 0, records.length);
+        while (buf.hasRemaining()) {
+            out.write(buf, position + buf.position());
+        }
+    }
+
+    /**
+     * One checkpoint, in three steps so the EDT is only blocked for the
+     * first and last: the constructor takes a snapshot under the lock,
+     * write() merges the old runs with the snapshot's recent entries into a
+     * new checkpoint file, and install() swaps that file in under the lock.
+     */
+    private class Checkpoint {
+        private final long checkpointGeneration = generation;
+        private final long end = writtenEnd;
+        private final long live = liveBytes;
+        private final long[] rowOffsets = Arrays.copyOf(offsets, size);
+        private final int[] rowLengths = Arrays.copyOf(lengths, size);
+        private final int records = recordsSinceCheckpoint;
+        private final Run[] oldRuns = runs;
+        private final FileChannel oldFile = indexChannel;
+        private final String[][] keys = new String[INDEXED_COLUMNS.length][];
+        private final long[][] values = new long[INDEXED_COLUMNS.length][];
+        private final Run[] newRuns = new Run[INDEXED_COLUMNS.length];
+        private final File tmp = new File(indexFile.getPath() + ".tmp");
+        private FileChannel out;
+        private ByteBuffer buf;
+
+        Checkpoint() {
+            for (int i = 0; i < recent.length; i++) {
+                keys[i] = Arrays.copyOf(recent[i].keys, recent[i].size);
+                values[i] = Arrays.copyOf(recent[i].offsets, recent[i].size);
+            }
+        }
+
+        void write() throws IOException {
+            long[] liveOffsets = rowOffsets.clone();
+            Arrays.sort(liveOffsets);
+            try (FileChannel file = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                out = file;
+                buf = ByteBuffer.allocate(1 << 16);
+                buf.position(INDEX_HEADER_SIZE); // written last
+                for (long offset : rowOffsets) {
+                    ensure(8);
+                    buf.putLong(offset);
+                }
+                for (int length : rowLengths) {
+                    ensure(4);
+                    buf.putInt(length);
+                }
+                for (int i = 0; i < newRuns.length; i++) {
+                    newRuns[i] = merge(i, liveOffsets);
+                }
+                drain(out, buf);
+
+                ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+                header.putInt(INDEX_MAGIC);
+                header.putShort(INDEX_VERSION);
+                header.putLong(checkpointGeneration);
+                header.putLong(end);
+                header.putLong(live);
+                header.putInt(rowOffsets.length);
+                for (Run run : newRuns) {
+                    header.putLong(run.start);
+                    header.putLong(run.table);
+                    header.putInt(run.keys);
+                }
+                header.flip();
+                while (header.hasRemaining()) {
+                    out.write(header, header.position());
+                }
+                out.force(true);
+            }
+        }
+
+        void install() throws IOException {
+            if (indexChannel != null) {
+                indexChannel.close();
+                indexChannel = null;
+            }
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+            runs = newRuns;
+            for (int i = 0; i < recent.length; i++) {
+                recent[i].dropFirst(keys[i].length); // entries added meanwhile wait for the next checkpoint
+            }
+            checkpointEnd = end;
+            recordsSinceCheckpoint -= records;
+        }
+
+        // Merge join of the old run with the sorted recent entries. Offsets that
+        // are no longer any row's current record are dropped for good here.
+        private Run merge(int slot, long[] liveOffsets) throws IOException {
+            String[] recentKeys = keys[slot];
+            long[] recentValues = values[slot];
+            Integer[] order = new Integer[recentKeys.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> recentKeys[a].compareTo(recentKeys[b]));
+
+            Run old = oldRuns[slot];
+            Input in = old.keys > 0 ? new Input(oldFile, old.start, 1 << 16) : null;
+            int oldLeft = old.keys;
+            String oldKey = oldLeft > 0 ? in.readKey() : null;
+            long start = position();
+            LongList table = new LongList();
+            LongList entry = new LongList();
+            int r = 0;
+            while (oldKey != null || r < order.length) {
+                String key = r < order.length ? recentKeys[order[r]] : oldKey;
+                if (oldKey != null && oldKey.compareTo(key) < 0) {
+                    key = oldKey;
+                }
+                entry.size = 0;
+                if (key.equals(oldKey)) {
+                    for (int count = in.readInt(); count > 0; count--) {
+                        entry.add(in.readLong());
+                    }
+                    oldKey = --oldLeft > 0 ? in.readKey() : null;
+                }
+                for (; r < order.length && recentKeys[order[r]].equals(key); r++) {
+                    entry.add(recentValues[order[r]]);
+                }
+                int count = 0;
+                for (int i = 0; i < entry.size; i++) {
+                    if (Arrays.binarySearch(liveOffsets, entry.values[i]) >= 0) {
+                        entry.values[count++] = entry.values[i];
+                    }
+                }
+                if (count == 0) {
+                    continue;
+                }
+                table.add(position());
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                ensure(8 + bytes.length + 8 * count);
+                buf.putInt(bytes.length);
+                buf.put(bytes);
+                buf.putInt(count);
+                for (int i = 0; i < count; i++) {
+                    buf.putLong(entry.values[i]);
+                }
+            }
+            long tableStart = position();
+            for (int i = 0; i < table.size; i++) {
+                ensure(8);
+                buf.putLong(table.values[i]);
+            }
+            return new Run(start, tableStart, table.size);
+        }
+
+        private long position() throws IOException {
+            return out.position() + buf.position();
+        }
+
+        private void ensure(int needed) throws IOException {
+            buf = AssetDatabase.ensure(out, buf, needed);
+        }
+    }
+
+    /** Where one index's entries and key table are in the checkpoint file. */
+    private static class Run {
+        final long start;
+        final long table; // long position of each entry, in key order
+        final int keys;
+
+        Run(long start, long table, int keys) {
+            this.start = start;
+            this.table = table;
+            this.keys = keys;
+        }
+    }
+
+    private static Run[] emptyRuns() {
+        Run[] empty = new Run[INDEXED_COLUMNS.length];
+        Arrays.fill(empty, new Run(0, 0, 0));
+        return empty;
+    }
+
+    /**
+     * Index entries not in the runs yet, in the order they were written.
+     * Searched linearly; checkpoints keep them to a few hundred thousand.
+     */
+    private static class Recent {
+        String[] keys = new String[1024];
+        long[] offsets = new long[1024];
+        int size;
+
+        void add(String key, long offset) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            keys[size] = key;
+            offsets[size++] = offset;
+        }
+
+        void collect(String key, LongList into) {
+            for (int i = 0; i < size; i++) {
+                if (key.equals(keys[i])) {
+                    into.add(offsets[i]);
+                }
+            }
+        }
+
+        void dropFirst(int count) {
+            System.arraycopy(keys, count, keys, 0, size - count);
+            System.arraycopy(offsets, count, offsets, 0, size - count);
+            Arrays.fill(keys, size - count, size, null);
+            size -= count;
+        }
+    }
+
+    /** Buffered reads at increasing positions of a channel, without moving its position. */
+    private static class Input {
+        private final FileChannel in;
+        private ByteBuffer buf;
+        private long next; // file position of the byte after the buffered ones
+
+        Input(FileChannel in, long position, int bufferSize) {
+            this.in = in;
+            this.buf = ByteBuffer.allocate(bufferSize);
+            this.buf.limit(0);
+            this.next = position;
+        }
+
+        int readInt() throws IOException {
+            return need(4).getInt();
+        }
+
+        long readLong() throws IOException {
+            return need(8).getLong();
+        }
+
+        String readKey() throws IOException {
+            int length = readInt();
+            return getString(need(length), length);
+        }
+
+        private ByteBuffer need(int count) throws IOException {
+            if (buf.remaining() >= count) {
+                return buf;
+            }
+            if (count > buf.capacity()) {
+                buf = ByteBuffer.allocate(count).put(buf);
+            } else {
+                buf.compact();
+            }
+            while (buf.position() < count) {
+                int read = in.read(buf, next);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of index file");
+                }
+                next += read;
+            }
+            buf.flip();
+            return buf;
+        }
+    }
+
+    /**
+     * Growable byte array that records are encoded into. Each record is
+     * [int payload length][int CRC32][byte op][int row][fields].
+     */
+    private static class RecordBuffer {
+        byte[] buf = new byte[1 << 16];
+        int length;
+        int recordStart;
+
+        void begin(byte op, int row) {
+            recordStart = length;
+            ensure(RECORD_HEADER + 5);
+            length += RECORD_HEADER;
+            buf[length++] = op;
+            putInt(row);
+        }
+
+        // Fills in the record header; returns the record's total length
+        int end() {
+            int payload = length - recordStart - RECORD_HEADER;
+            CRC32 crc = new CRC32();
+            crc.update(buf, recordStart + RECORD_HEADER, payload);
+            ByteBuffer.wrap(buf, recordStart, RECORD_HEADER).putInt(payload).putInt((int) crc.getValue());
+            int total = length - recordStart;
+            recordStart = length;
+            return total;
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            buf[length++] = (byte) (value >>> 24);
+            buf[length++] = (byte) (value >>> 16);
+            buf[length++] = (byte) (value >>> 8);
+            buf[length++] = (byte) value;
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, length, bytes.length);
+            length += bytes.length;
+        }
+
+        void putDate(LocalDate date) {
+            putInt(date == null ? NO_DATE : (int) date.toEpochDay());
+        }
+
+        void putAsset(Asset asset) {
+            putString(asset.getAssetTag());
+            putString(asset.getModel());
+            putString(asset.getManufacturer());
+            putString(asset.getCategory());
+            putInt(asset.getQuantity());
+            putString(asset.getSerial());
+            putString(asset.getPhysicalLocation());
+            putString(asset.getWhere());
+            putDate(asset.getDateReceived());
+            putDate(asset.getDateRecorded());
+            putString(asset.getNote());
+            putString(asset.getImagePath());
+        }
+
+        private void ensure(int needed) {
+            if (length + needed > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(length + needed, buf.length * 2));
+            }
+        }
+    }
+
+    // Open addressing from record offset to row; offsets are never 0 (the header is there)
+    private static class OffsetMap {
+        final long[] keys;
+        final int[] rows;
+        final int mask;
+
+        OffsetMap(long[] offsets, int size) {
+            int capacity = Integer.highestOneBit(Math.max(16, size * 2 - 1)) << 1;
+            keys = new long[capacity];
+            rows = new int[capacity];
+            mask = capacity - 1;
+            for (int row = 0; row < size; row++) {
+                int slot = slot(offsets[row]);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = offsets[row];
+                rows[slot] = row;
+            }
+        }
+
+        int get(long offset) {
+            for (int slot = slot(offset); keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == offset) {
+                    return rows[slot];
+                }
+            }
+            return -1;
+        }
+
+        private int slot(long offset) {
+            long h = offset * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
+        }
+    }
+
+    private static class LongList {
+        long[] values = new long[2];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,660 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import javax.swing.event.TableModelEvent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Movement history of every asset (inventory.history): each change of an
+ * asset's Physical Location, Where or Quantity, and its removal, is kept as
+ * an event with a timestamp. Events are never changed or deleted.
+ *
+ * Assets are identified like --dedupe does, by Asset Tag, or by Serial for
+ * untagged rows; rows with neither are not tracked. Changing a tag ends the
+ * old asset's history and starts a new one.
+ *
+ * The file is append-only and delta-encoded: an event holds only the fields
+ * that changed, as varints - the time since the previous event, the
+ * quantity difference, and ids of asset keys and location strings, which
+ * are spelled out once when first used. A flush writes everything since the
+ * last one as a checksummed block, so a torn tail block from a crash is
+ * dropped on open.
+ *
+ * open() reads the file once into a per-asset time index that keeps the
+ * full state after each event, so the state at any time is a binary search
+ * rather than a replay, plus a global time index for movements in a range.
+ * Roughly 40 bytes of memory per event.
+ *
+ * Not thread-safe: call everything on the thread that owns the model (the
+ * EDT in the app); only the writes happen on the IoScheduler's thread.
+ */
+public class AssetHistory {
+
+    private static final Logger LOG = LogManager.getLogger(AssetHistory.class);
+
+    private static final int MAGIC = 0x494E5648; // "INVH"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2;
+    private static final int BLOCK_HEADER = 8; // int payload length, int CRC32
+    private static final int MAX_BLOCK = 64 * 1024 * 1024;
+    private static final long FLUSH_DELAY_MILLIS = 1_000;
+
+    // Record tags. An event's tag is EVENT plus the mask of the fields it carries.
+    private static final int ASSET = 1; // defines the next asset id: key
+    private static final int STRING = 2; // defines the next string id: text
+    private static final int EVENT = 0x10; // asset id, time delta, then the masked fields
+    private static final int LOCATION = 1;
+    private static final int WHERE = 2;
+    private static final int QUANTITY = 4;
+    private static final int REMOVED = 8;
+
+    private static final int NO_STRING = -1;
+
+    private final File file;
+    private final IoScheduler scheduler;
+    private FileChannel channel;
+
+    private final Map<String, Track> tracks = new HashMap<>();
+    private final List<Track> tracksById = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private long lastTime;
+
+    // Every event in time order, as (track id, index in the track)
+    private long[] eventTimes = new long[1024];
+    private int[] eventTracks = new int[1024];
+    private int[] eventSlots = new int[1024];
+    private int eventCount;
+
+    // Rows of the model, to know which asset a deleted row was
+    private final List<String> rowKeys = new ArrayList<>();
+    private final Map<String, Integer> rowsPerKey = new HashMap<>();
+
+    private final Encoder encoder = new Encoder(); // records of the current change
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(); // whole records for the next flush
+
+    public AssetHistory(File file, IoScheduler scheduler) {
+        this.file = file;
+        this.scheduler = scheduler;
+    }
+
+    /** One asset's state from an event on. */
+    public static final class Event {
+        public final String asset;
+        public final long time; // millis since the epoch
+        public final String location;
+        public final String where;
+        public final int quantity;
+        public final boolean removed; // no longer in the inventory; the other fields are blank
+
+        Event(String asset, long time, String location, String where, int quantity, boolean removed) {
+            this.asset = asset;
+            this.time = time;
+            this.location = location;
+            this.where = where;
+            this.quantity = quantity;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * The key an asset's history is kept under: its Asset Tag, or its Serial
+     * if it has no tag; null if it has neither.
+     */
+    public static String key(Asset asset) {
+        String tag = asset.getAssetTag().trim();
+        if (!tag.isEmpty()) {
+            return tag;
+        }
+        String serial = asset.getSerial().trim();
+        return serial.isEmpty() ? null : "serial:" + serial;
+    }
+
+    /**
+     * The key for what a user typed, an Asset Tag or the Serial of an asset
+     * without a tag. A tag wins if both have a history.
+     */
+    public String lookup(String tagOrSerial) {
+        String text = tagOrSerial.trim();
+        if (tracks.containsKey(text) || text.startsWith("serial:")) {
+            return text;
+        }
+        String serial = "serial:" + text;
+        return tracks.containsKey(serial) ? serial : text;
+    }
+
+    /**
+     * Reads the history into memory and opens the file for appending.
+     */
+    public void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(VERSION);
+            header.flip();
+            channel.truncate(0);
+            write(header, 0);
+            channel.force(false);
+            channel.position(HEADER_SIZE);
+            return;
+        }
+        ByteBuffer header = read(0, HEADER_SIZE);
+        if (header == null || header.getInt() != MAGIC || header.getShort() != VERSION) {
+            throw new IOException(file + " is not an asset history file");
+        }
+        long position = HEADER_SIZE;
+        ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER);
+        while (position + BLOCK_HEADER <= size) {
+            blockHeader.clear();
+            channel.read(blockHeader, position);
+            int length = blockHeader.getInt(0);
+            if (length <= 0 || length > MAX_BLOCK || position + BLOCK_HEADER + length > size) {
+                break; // torn write from a crash
+            }
+            ByteBuffer block = read(position + BLOCK_HEADER, length);
+            CRC32 crc = new CRC32();
+            crc.update(block.duplicate());
+            if ((int) crc.getValue() != blockHeader.getInt(4)) {
+                break;
+            }
+            replay(block);
+            position += BLOCK_HEADER + length;
+        }
+        channel.truncate(position);
+        channel.position(position);
+    }
+
+    /**
+     * Records what the model change did to the tracked fields. Called from
+     * the model's listener.
+     */
+    public void record(TableModelEvent e, AssetTableModel model) {
+        if (e instanceof AssetTableModel.BatchEvent) {
+            for (TableModelEvent step : ((AssetTableModel.BatchEvent) e).getSteps()) {
+                record(step, model);
+            }
+            return;
+        }
+        int first = e.getFirstRow();
+        int last = e.getLastRow();
+        if (first == TableModelEvent.HEADER_ROW || last == Integer.MAX_VALUE) {
+            sync(model.snapshot());
+            return;
+        }
+        long now = now();
+        if (e.getType() == TableModelEvent.INSERT) {
+            for (int row = first; row <= last; row++) {
+                String key = key(model.getAsset(row));
+                rowKeys.add(row, key);
+                addRow(key);
+                observe(key, model.getAsset(row), now);
+            }
+        } else if (e.getType() == TableModelEvent.DELETE) {
+            List<String> deleted = rowKeys.subList(first, last + 1);
+            for (String key : deleted) {
+                removeRow(key, now);
+            }
+            deleted.clear();
+        } else {
+            for (int row = first; row <= last; row++) {
+                Asset asset = model.getAsset(row);
+                String key = key(asset);
+                String before = rowKeys.set(row, key);
+                if (!Objects.equals(before, key)) {
+                    addRow(key);
+                    removeRow(before, now);
+                }
+                observe(key, asset, now);
+            }
+        }
+        flushLater();
+    }
+
+    /**
+     * Brings the history up to date with the whole inventory: assets that
+     * changed since their last event get a new one, and assets that are gone
+     * get a removal. Used after loading, and for changes to the whole table.
+     */
+    public void sync(List<Asset> rows) {
+        long now = now();
+        rowKeys.clear();
+        rowsPerKey.clear();
+        for (Asset asset : rows) {
+            String key = key(asset);
+            rowKeys.add(key);
+            addRow(key);
+            observe(key, asset, now);
+        }
+        for (Track track : tracksById) {
+            if (!rowsPerKey.containsKey(track.key)) {
+                removed(track, now);
+            }
+        }
+        flushLater();
+    }
+
+    /**
+     * The asset's state at the given time: the last event at or before it,
+     * or null if it wasn't tracked yet.
+     */
+    public Event at(String key, long time) {
+        Track track = tracks.get(key);
+        if (track == null) {
+            return null;
+        }
+        int slot = track.floor(time);
+        return slot < 0 ? null : event(track, slot);
+    }
+
+    /**
+     * The asset's events from from (inclusive) to to (exclusive), oldest first.
+     */
+    public List<Event> events(String key, long from, long to) {
+        List<Event> found = new ArrayList<>();
+        Track track = tracks.get(key);
+        if (track != null) {
+            for (int slot = track.first(from); slot < track.count && track.times[slot] < to; slot++) {
+                found.add(event(track, slot));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Every asset's events from from (inclusive) to to (exclusive), oldest
+     * first, at most limit of them.
+     */
+    public List<Event> events(long from, long to, int limit) {
+        List<Event> found = new ArrayList<>();
+        int low = 0;
+        int high = eventCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (eventTimes[middle] < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < eventCount && eventTimes[i] < to && found.size() < limit; i++) {
+            found.add(event(tracksById.get(eventTracks[i]), eventSlots[i]));
+        }
+        return found;
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Writes what is still queued and closes the file. The scheduler must
+     * already be shut down.
+     */
+    public void close() {
+        flush();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOG.error("Could not close {}", file, e);
+        }
+    }
+
+    // Recording
+
+    private void addRow(String key) {
+        if (key != null) {
+            rowsPerKey.merge(key, 1, Integer::sum);
+        }
+    }
+
+    private void removeRow(String key, long now) {
+        if (key == null) {
+            return;
+        }
+        Integer left = rowsPerKey.merge(key, -1, Integer::sum);
+        if (left <= 0) {
+            rowsPerKey.remove(key);
+            Track track = tracks.get(key);
+            if (track != null) {
+                removed(track, now);
+            }
+        }
+    }
+
+    private void observe(String key, Asset asset, long now) {
+        if (key == null) {
+            return;
+        }
+        Track track = tracks.get(key);
+        if (track == null) {
+            track = newTrack(key);
+            encoder.putByte(ASSET);
+            encoder.putString(key);
+        }
+        int location = stringId(asset.getPhysicalLocation());
+        int where = stringId(asset.getWhere());
+        int quantity = asset.getQuantity();
+        int mask = LOCATION | WHERE | QUANTITY;
+        int before = 0;
+        if (track.count > 0 && track.location(track.count - 1) != NO_STRING) {
+            int slot = track.count - 1;
+            mask = (location != track.location(slot) ? LOCATION : 0)
+                    | (where != track.where(slot) ? WHERE : 0)
+                    | (quantity != track.quantity(slot) ? QUANTITY : 0);
+            before = track.quantity(slot);
+        }
+        if (mask == 0) {
+            return;
+        }
+        encodeEvent(track, now, mask);
+        if ((mask & LOCATION) != 0) {
+            encoder.putVarint(location);
+        }
+        if ((mask & WHERE) != 0) {
+            encoder.putVarint(where);
+        }
+        if ((mask & QUANTITY) != 0) {
+            encoder.putVarint(zigzag(quantity - before));
+        }
+        append(track, now, location, where, quantity);
+    }
+
+    private void removed(Track track, long now) {
+        if (track.count > 0 && track.location(track.count - 1) != NO_STRING) {
+            encodeEvent(track, now, REMOVED);
+            append(track, now, NO_STRING, NO_STRING, 0);
+        }
+    }
+
+    private void encodeEvent(Track track, long now, int mask) {
+        encoder.putByte(EVENT | mask);
+        encoder.putVarint(track.id);
+        encoder.putVarint(now - lastTime);
+    }
+
+    private int stringId(String value) {
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = newString(value);
+            encoder.putByte(STRING);
+            encoder.putString(value);
+        }
+        return id;
+    }
+
+    // Event times never go backwards, even if the clock does
+    private long now() {
+        return Math.max(System.currentTimeMillis(), lastTime);
+    }
+
+    // In-memory index, shared by recording and replay
+
+    private Track newTrack(String key) {
+        Track track = new Track(tracksById.size(), key);
+        tracksById.add(track);
+        tracks.put(key, track);
+        return track;
+    }
+
+    private int newString(String value) {
+        int id = strings.size();
+        strings.add(value);
+        stringIds.put(value, id);
+        return id;
+    }
+
+    private void append(Track track, long time, int location, int where, int quantity) {
+        lastTime = time;
+        int slot = track.add(time, location, where, quantity);
+        if (eventCount == eventTimes.length) {
+            int capacity = eventCount * 2;
+            eventTimes = Arrays.copyOf(eventTimes, capacity);
+            eventTracks = Arrays.copyOf(eventTracks, capacity);
+            eventSlots = Arrays.copyOf(eventSlots, capacity);
+        }
+        eventTimes[eventCount] = time;
+        eventTracks[eventCount] = track.id;
+        eventSlots[eventCount] = slot;
+        eventCount++;
+    }
+
+    private Event event(Track track, int slot) {
+        int location = track.location(slot);
+        if (location == NO_STRING) {
+            return new Event(track.key, track.times[slot], "", "", 0, true);
+        }
+        return new Event(track.key, track.times[slot], strings.get(location), strings.get(track.where(slot)), track.quantity(slot), false);
+    }
+
+    private void replay(ByteBuffer block) throws IOException {
+        try {
+            while (block.hasRemaining()) {
+                int tag = block.get() & 0xFF;
+                if (tag == ASSET) {
+                    newTrack(getString(block));
+                } else if (tag == STRING) {
+                    newString(getString(block));
+                } else if ((tag & ~0x0F) == EVENT) {
+                    Track track = tracksById.get((int) getVarint(block));
+                    long time = lastTime + getVarint(block);
+                    if ((tag & REMOVED) != 0) {
+                        append(track, time, NO_STRING, NO_STRING, 0);
+                        continue;
+                    }
+                    int slot = track.count - 1;
+                    boolean known = slot >= 0 && track.location(slot) != NO_STRING;
+                    int location = (tag & LOCATION) != 0 ? (int) getVarint(block) : track.location(slot);
+                    int where = (tag & WHERE) != 0 ? (int) getVarint(block) : track.where(slot);
+                    int quantity = (known ? track.quantity(slot) : 0) + ((tag & QUANTITY) != 0 ? unzigzag(getVarint(block)) : 0);
+                    if (location >= strings.size() || where >= strings.size()) {
+                        throw new IOException("Bad string id in " + file);
+                    }
+                    append(track, time, location, where, quantity);
+                } else {
+                    throw new IOException("Unknown record " + tag + " in " + file);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt history in " + file, e);
+        }
+    }
+
+    // Writing
+
+    private void flushLater() {
+        if (encoder.size > 0) {
+            pending.write(encoder.bytes, 0, encoder.size);
+            encoder.size = 0;
+            scheduler.coalesce(this, this::flush, FLUSH_DELAY_MILLIS);
+        }
+    }
+
+    private void flush() {
+        byte[] payload;
+        synchronized (pending) {
+            if (pending.size() == 0) {
+                return;
+            }
+            payload = pending.toByteArray();
+            pending.reset();
+        }
+        synchronized (this) { // flush() also runs from close()
+            if (channel == null || !channel.isOpen()) {
+                return;
+            }
+            try {
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                ByteBuffer buf = ByteBuffer.allocate(BLOCK_HEADER + payload.length);
+                buf.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                LOG.error("Could not write to {}", file, e);
+            }
+        }
+    }
+
+    private void write(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                return null;
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unzigzag(long value) {
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+
+    private static long getVarint(ByteBuffer buf) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Varint too long");
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[(int) getVarint(buf)];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** One asset's events: times, and the full state after each (location, where, quantity). */
+    private static class Track {
+        final int id;
+        final String key;
+        long[] times = new long[2];
+        int[] states = new int[6];
+        int count;
+
+        Track(int id, String key) {
+            this.id = id;
+            this.key = key;
+        }
+
+        int add(long time, int location, int where, int quantity) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                states = Arrays.copyOf(states, count * 6);
+            }
+            times[count] = time;
+            states[count * 3] = location;
+            states[count * 3 + 1] = where;
+            states[count * 3 + 2] = quantity;
+            return count++;
+        }
+
+        int location(int slot) {
+            return states[slot * 3];
+        }
+
+        int where(int slot) {
+            return states[slot * 3 + 1];
+        }
+
+        int quantity(int slot) {
+            return states[slot * 3 + 2];
+        }
+
+        // Index of the last event at or before time, -1 if none
+        int floor(long time) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (times[middle] <= time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low - 1;
+        }
+
+        // Index of the first event at or after time, count if none
+        int first(long time) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (times[middle] < time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static class Encoder {
+        byte[] bytes = new byte[4096];
+        int size;
+
+        void putByte(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void putVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void putString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        private void ensure(int needed) {
+            if (size + needed > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + needed));
+            }
+        }
+    }
+}
@@ -0,0 +1,433 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.swing.RowFilter;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+
+/**
+ * RowSorter for AssetTableModel that keeps the sort order as a maintained
+ * index instead of re-sorting on every change.
+ *
+ * sorted holds every model row in sort order. Inserted and updated rows are
+ * sorted on their own and merged into it, deleted rows are dropped, so a
+ * single edit costs one binary search worth of comparisons plus an array
+ * copy, not an O(n log n) sort. The row filter is only evaluated for rows
+ * that changed; the view is rebuilt from sorted with one pass over a
+ * boolean array. TableRowSorter, by comparison, re-sorts and re-filters the
+ * whole model on most changes.
+ *
+ * AssetTable hands a BatchEvent from AssetTableModel.apply() to the sorter
+ * as its steps between beginBatch() and endBatch(), so deletes, undo and
+ * merges are sorted the same way instead of as a whole-table change.
+ */
+public class AssetRowSorter extends RowSorter<AssetTableModel> {
+
+    private static final int MAX_SORT_KEYS = 3;
+
+    private final AssetTableModel model;
+    private final FilterEntry entry = new FilterEntry();
+    private List<SortKey> sortKeys = Collections.emptyList();
+    private RowFilter<Object, Object> filter;
+
+    private int[] sorted = new int[0]; // model indexes in sort order, unfiltered
+    private boolean[] included = new boolean[0]; // by model index
+    private int[] viewToModel = new int[0];
+    private int[] modelToView = new int[0];
+    private BitSet batch; // rows inserted or updated by the batch being replayed, null outside one
+
+    public AssetRowSorter(AssetTableModel model) {
+        this.model = model;
+        rebuild();
+    }
+
+    public void setRowFilter(RowFilter<Object, Object> filter) {
+        this.filter = filter;
+        int[] old = viewToModel;
+        for (int row = 0; row < included.length; row++) {
+            included[row] = include(row);
+        }
+        rebuildView(old);
+    }
+
+    @Override
+    public AssetTableModel getModel() {
+        return model;
+    }
+
+    @Override
+    public void toggleSortOrder(int column) {
+        List<SortKey> keys = new ArrayList<>(sortKeys);
+        SortOrder order = SortOrder.ASCENDING;
+        for (int i = 0; i < keys.size(); i++) {
+            if (keys.get(i).getColumn() == column) {
+                if (i == 0 && keys.get(i).getSortOrder() == SortOrder.ASCENDING) {
+                    order = SortOrder.DESCENDING;
+                }
+                keys.remove(i);
+                break;
+            }
+        }
+        keys.add(0, new SortKey(column, order));
+        setSortKeys(keys.subList(0, Math.min(keys.size(), MAX_SORT_KEYS)));
+    }
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        List<SortKey> newKeys = keys == null ? Collections.<SortKey>emptyList() : Collections.unmodifiableList(new ArrayList<SortKey>(keys));
+        if (!newKeys.equals(sortKeys)) {
+            sortKeys = newKeys;
+            fireSortOrderChanged();
+            int[] old = viewToModel;
+            sortAll();
+            rebuildView(old);
+        }
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        return viewToModel[index];
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        return index < 0 || index >= modelToView.length ? -1 : modelToView[index];
+    }
+
+    @Override
+    public int getViewRowCount() {
+        return viewToModel.length;
+    }
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public void modelStructureChanged() {
+        sortKeys = Collections.emptyList();
+        rebuild();
+    }
+
+    @Override
+    public void allRowsChanged() {
+        rebuild();
+    }
+
+    /**
+     * Starts replaying the steps of a BatchEvent. The model already holds
+     * the result of the whole batch, so rows can only be compared and
+     * filtered once every step has renumbered them: until endBatch(),
+     * inserted rows stay out of the view and updated rows where they were.
+     */
+    public void beginBatch() {
+        batch = new BitSet();
+    }
+
+    /**
+     * Sorts and filters the rows the batch inserted or updated.
+     */
+    public void endBatch() {
+        BitSet changed = batch;
+        batch = null;
+        int count = changed.cardinality();
+        if (count == 0) {
+            return;
+        }
+        if (count > sorted.length / 8) {
+            rebuild(); // cheaper to sort everything again
+            return;
+        }
+        int[] rows = changed.stream().toArray();
+        for (int row : rows) {
+            included[row] = include(row);
+        }
+        int[] kept = new int[sorted.length - count];
+        int n = 0;
+        for (int row : sorted) {
+            if (!changed.get(row)) {
+                kept[n++] = row;
+            }
+        }
+        int[] old = viewToModel;
+        sorted = merge(kept, rows);
+        rebuildView(old);
+    }
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+        int count = endRow - firstRow + 1;
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] >= firstRow) {
+                sorted[i] += count;
+            }
+        }
+        boolean[] grown = new boolean[included.length + count];
+        System.arraycopy(included, 0, grown, 0, firstRow);
+        System.arraycopy(included, firstRow, grown, endRow + 1, included.length - firstRow);
+        included = grown;
+
+        if (batch != null) {
+            batch = shift(batch, firstRow, count);
+            batch.set(firstRow, endRow + 1);
+            int[] old = viewToModel;
+            sorted = Arrays.copyOf(sorted, sorted.length + count); // placed by endBatch()
+            for (int i = 0; i < count; i++) {
+                sorted[sorted.length - count + i] = firstRow + i;
+            }
+            rebuildView(old);
+            return;
+        }
+        int[] added = new int[count];
+        for (int i = 0; i < count; i++) {
+            added[i] = firstRow + i;
+            included[firstRow + i] = include(firstRow + i);
+        }
+        int[] old = viewToModel;
+        sorted = merge(sorted, added);
+        rebuildView(old);
+    }
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+        int count = endRow - firstRow + 1;
+        int[] kept = new int[Math.max(0, sorted.length - count)];
+        int n = 0;
+        for (int row : sorted) {
+            if (row < firstRow) {
+                kept[n++] = row;
+            } else if (row > endRow) {
+                kept[n++] = row - count;
+            }
+        }
+        sorted = kept;
+        if (batch != null) {
+            batch = shift(batch, endRow + 1, -count);
+        }
+        boolean[] shrunk = new boolean[included.length - count];
+        System.arraycopy(included, 0, shrunk, 0, firstRow);
+        System.arraycopy(included, endRow + 1, shrunk, firstRow, included.length - endRow - 1);
+        included = shrunk;
+        int[] old = viewToModel;
+        rebuildView(old);
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+        rowsUpdated(firstRow, endRow, -1);
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+        if (batch != null) {
+            batch.set(firstRow, endRow + 1);
+            return;
+        }
+        int count = endRow - firstRow + 1;
+        if (count > sorted.length / 8) {
+            rebuild(); // cheaper to sort everything again
+            return;
+        }
+        boolean filterChanged = false;
+        for (int row = firstRow; row <= endRow; row++) {
+            boolean include = include(row);
+            filterChanged |= include != included[row];
+            included[row] = include;
+        }
+        boolean orderChanged = affectsOrder(column);
+        if (!filterChanged && !orderChanged) {
+            return; // same rows in the same order, the table just repaints them
+        }
+        int[] old = viewToModel;
+        if (orderChanged) {
+            // Take the rows out and merge them back in at their new position
+            int[] kept = new int[sorted.length - count];
+            int n = 0;
+            for (int row : sorted) {
+                if (row < firstRow || row > endRow) {
+                    kept[n++] = row;
+                }
+            }
+            int[] updated = new int[count];
+            for (int i = 0; i < count; i++) {
+                updated[i] = firstRow + i;
+            }
+            sorted = merge(kept, updated);
+        }
+        rebuildView(old);
+    }
+
+    // Moves the rows from first on by count; a negative count drops the rows it moves over
+    private static BitSet shift(BitSet rows, int first, int count) {
+        BitSet shifted = rows.get(0, Math.max(0, first + Math.min(0, count)));
+        for (int row = rows.nextSetBit(first); row >= 0; row = rows.nextSetBit(row + 1)) {
+            shifted.set(row + count);
+        }
+        return shifted;
+    }
+
+    private boolean affectsOrder(int column) {
+        if (column < 0) {
+            return !sortKeys.isEmpty();
+        }
+        for (SortKey key : sortKeys) {
+            if (key.getColumn() == column) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rebuild() {
+        int[] old = viewToModel;
+        int rowCount = model.getRowCount();
+        included = new boolean[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            included[row] = include(row);
+        }
+        sortAll();
+        rebuildView(old);
+    }
+
+    private void sortAll() {
+        int rowCount = model.getRowCount();
+        if (sortKeys.isEmpty()) {
+            sorted = new int[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                sorted[row] = row;
+            }
+            return;
+        }
+        Integer[] rows = new Integer[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            rows[row] = row;
+        }
+        Arrays.sort(rows, rowComparator());
+        sorted = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            sorted[i] = rows[i];
+        }
+    }
+
+    // base must be in sort order. Each added row is placed by binary search, so
+    // the comparator runs O(k log n) times and the rest is array copying.
+    private int[] merge(int[] base, int[] added) {
+        Comparator<Integer> comparator = rowComparator();
+        Integer[] boxed = new Integer[added.length];
+        for (int i = 0; i < added.length; i++) {
+            boxed[i] = added[i];
+        }
+        Arrays.sort(boxed, comparator);
+        int[] result = new int[base.length + added.length];
+        int from = 0;
+        int n = 0;
+        for (Integer row : boxed) {
+            int low = from;
+            int high = base.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (comparator.compare(base[mid], row) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            System.arraycopy(base, from, result, n, low - from);
+            n += low - from;
+            result[n++] = row;
+            from = low;
+        }
+        System.arraycopy(base, from, result, n, base.length - from);
+        return result;
+    }
+
+    private void rebuildView(int[] oldViewToModel) {
+        int[] view = new int[sorted.length];
+        int[] toView = new int[sorted.length];
+        Arrays.fill(toView, -1);
+        int n = 0;
+        for (int row : sorted) {
+            if (included[row]) {
+                toView[row] = n;
+                view[n++] = row;
+            }
+        }
+        viewToModel = n == view.length ? view : Arrays.copyOf(view, n);
+        modelToView = toView;
+        fireRowSorterChanged(oldViewToModel);
+    }
+
+    private boolean include(int row) {
+        if (filter == null) {
+            return true;
+        }
+        entry.row = row;
+        return filter.include(entry);
+    }
+
+    // Sort keys in order, ties broken by model index so equal rows keep a stable, searchable order
+    private Comparator<Integer> rowComparator() {
+        return (a, b) -> {
+            Asset left = model.getAsset(a);
+            Asset right = model.getAsset(b);
+            for (SortKey key : sortKeys) {
+                if (key.getSortOrder() == SortOrder.UNSORTED) {
+                    continue;
+                }
+                int result = compareValues(left.get(key.getColumn()), right.get(key.getColumn()));
+                if (result != 0) {
+                    return key.getSortOrder() == SortOrder.DESCENDING ? -result : result;
+                }
+            }
+            return Integer.compare(a, b);
+        };
+    }
+
+    private static int compareValues(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b ? 0 : (a == null ? -1 : 1);
+        }
+        if (a instanceof Integer) {
+            return Integer.compare((Integer) a, (Integer) b);
+        }
+        if (a instanceof LocalDate) {
+            return ((LocalDate) a).compareTo((LocalDate) b);
+        }
+        return String.CASE_INSENSITIVE_ORDER.compare(a.toString(), b.toString());
+    }
+
+    private class FilterEntry extends RowFilter.Entry<Object, Object> {
+        int row;
+
+        @Override
+        public Object getModel() {
+            return model;
+        }
+
+        @Override
+        public int getValueCount() {
+            return model.getColumnCount();
+        }
+
+        @Override
+        public Object getValue(int index) {
+            return model.getValueAt(row, index);
+        }
+
+        @Override
+        public Object getIdentifier() {
+            return row;
+        }
+    }
+}
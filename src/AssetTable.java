@@ -0,0 +1,41 @@
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.event.TableModelEvent;
+
+/**
+ * The inventory table: a JTable over an AssetTableModel, sorted by an
+ * AssetRowSorter.
+ *
+ * A BatchEvent from AssetTableModel.apply() reaches listeners as one event
+ * covering the whole table when rows are inserted or deleted, which a plain
+ * JTable answers by re-sorting every row and clearing the selection. This
+ * table replays the batch's steps instead, like the other listeners, so
+ * deleting a few rows, undo and merges cost as much as the rows they touch
+ * and the selection follows the rows.
+ */
+public class AssetTable extends JTable {
+    private static final long serialVersionUID = 1L;
+
+    public AssetTable(AssetTableModel model) {
+        super(model);
+        setRowSorter(new AssetRowSorter(model));
+    }
+
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        RowSorter<?> sorter = getRowSorter(); // null while JTable's constructor sets the model
+        if (!(e instanceof AssetTableModel.BatchEvent) || !(sorter instanceof AssetRowSorter)) {
+            super.tableChanged(e);
+            return;
+        }
+        AssetRowSorter rowSorter = (AssetRowSorter) sorter;
+        rowSorter.beginBatch();
+        try {
+            for (TableModelEvent step : ((AssetTableModel.BatchEvent) e).getSteps()) {
+                super.tableChanged(step);
+            }
+        } finally {
+            rowSorter.endBatch();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model reading straight from a list of Assets.
+ *
+ * Replaces DefaultTableModel's Vector of Vectors: no boxed cells, no
+ * synchronized Vector per row, and columns are addressed through the Asset
+ * column constants. Bulk methods fire a single event for the whole change.
+ * Must only be used from the EDT.
+ *
+ * apply() makes any mix of inserts, updates and deletes one change: one
+ * BatchEvent, which listeners that know it replay step by step (the stores
+ * save it as one write), and which returns the changes that undo it.
+ */
+public class AssetTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<Asset> assets = new ArrayList<>();
+    private boolean readOnly;
+
+    @Override
+    public int getRowCount() {
+        return assets.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return Asset.COLUMN_COUNT;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return Asset.COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == Asset.QUANTITY ? Integer.class : Object.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        // Make only the image column non-editable
+        return !readOnly && column != Asset.IMAGE;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return assets.get(row).get(column);
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        if (readOnly) {
+            return;
+        }
+        Asset old = assets.get(row);
+        Asset updated = old.with(column, value);
+        if (!Objects.equals(updated.get(column), old.get(column))) {
+            assets.set(row, updated);
+            fireTableCellUpdated(row, column);
+        }
+    }
+
+    /**
+     * Blocks cell edits, e.g. while rows are still being loaded. The bulk
+     * methods are not affected.
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public Asset getAsset(int row) {
+        return assets.get(row);
+    }
+
+    /**
+     * The current rows as an unmodifiable copy. Assets are immutable, so the
+     * copy can be read from any thread.
+     */
+    public List<Asset> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(assets));
+    }
+
+    public void addAsset(Asset asset) {
+        assets.add(asset);
+        fireTableRowsInserted(assets.size() - 1, assets.size() - 1);
+    }
+
+    public void addAssets(Collection<Asset> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        int first = assets.size();
+        assets.addAll(added);
+        fireTableRowsInserted(first, assets.size() - 1);
+    }
+
+    public void setAsset(int row, Asset asset) {
+        assets.set(row, asset);
+        fireTableRowsUpdated(row, row);
+    }
+
+    public void removeRow(int row) {
+        assets.remove(row);
+        fireTableRowsDeleted(row, row);
+    }
+
+    public void clear() {
+        int count = assets.size();
+        if (count > 0) {
+            assets.clear();
+            fireTableRowsDeleted(0, count - 1);
+        }
+    }
+
+    public void replaceAll(Collection<Asset> replacement) {
+        assets.clear();
+        assets.addAll(replacement);
+        fireTableDataChanged();
+    }
+
+    /**
+     * Applies the changes as one model change and returns the changes that
+     * undo it. Fires one BatchEvent, unless nothing changed: an update of the
+     * rows between the first and last updated one if no rows are inserted or
+     * deleted, otherwise a data-changed event.
+     */
+    public Changes apply(Changes changes) {
+        int size = assets.size();
+        BitSet deleted = changes.deletes.get(0, size);
+        int[] updatedRows = changes.updates.keySet().stream().mapToInt(Integer::intValue)
+                .filter(row -> row >= 0 && row < size && !deleted.get(row) && assets.get(row) != changes.updates.get(row))
+                .sorted().toArray();
+        Integer[] order = new Integer[changes.inserted.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(changes.insertRows.get(a), changes.insertRows.get(b))); // stable
+        Changes undo = new Changes();
+        if (updatedRows.length == 0 && deleted.isEmpty() && order.length == 0) {
+            return undo;
+        }
+
+        List<TableModelEvent> steps = new ArrayList<>();
+        // Deletes from the bottom up, so each step's rows are still where they were
+        for (int last = deleted.length() - 1; last >= 0; ) {
+            int first = deleted.previousClearBit(last) + 1;
+            steps.add(new TableModelEvent(this, first, last, TableModelEvent.ALL_COLUMNS, TableModelEvent.DELETE));
+            for (int row = first; row <= last; row++) {
+                undo.insert(row, assets.get(row));
+            }
+            last = deleted.previousSetBit(first - 1);
+        }
+
+        int[] finalRows = updatedRows; // where the updated rows end up
+        if (deleted.isEmpty() && order.length == 0) {
+            for (int row : updatedRows) {
+                undo.update(row, assets.set(row, changes.updates.get(row)));
+            }
+        } else {
+            finalRows = new int[updatedRows.length];
+            int[] insertedAt = new int[order.length];
+            ArrayList<Asset> result = new ArrayList<>(size - deleted.cardinality() + order.length);
+            int next = 0; // next insert, in order
+            int updated = 0;
+            for (int row = 0; row <= size; row++) {
+                while (next < order.length && changes.insertRows.get(order[next]) <= result.size()) {
+                    insertedAt[next] = result.size();
+                    result.add(changes.inserted.get(order[next++]));
+                }
+                if (row == size) {
+                    break;
+                }
+                if (deleted.get(row)) {
+                    continue;
+                }
+                Asset asset = assets.get(row);
+                if (updated < updatedRows.length && updatedRows[updated] == row) {
+                    undo.update(result.size(), asset);
+                    finalRows[updated++] = result.size();
+                    asset = changes.updates.get(row);
+                }
+                result.add(asset);
+            }
+            while (next < order.length) { // inserts past the end
+                insertedAt[next] = result.size();
+                result.add(changes.inserted.get(order[next++]));
+            }
+            for (int i = 0; i < insertedAt.length; ) {
+                int first = insertedAt[i];
+                int last = first;
+                while (++i < insertedAt.length && insertedAt[i] == last + 1) {
+                    last++;
+                }
+                steps.add(new TableModelEvent(this, first, last, TableModelEvent.ALL_COLUMNS, TableModelEvent.INSERT));
+                undo.deletes.set(first, last + 1);
+            }
+            assets.clear();
+            assets.addAll(result);
+        }
+
+        // Updates last, numbered as in the result; a change of one column says which
+        for (int i = 0; i < finalRows.length; i++) {
+            int row = finalRows[i];
+            int column = changedColumn(undo.updates.get(row), assets.get(row));
+            TableModelEvent previous = steps.isEmpty() ? null : steps.get(steps.size() - 1);
+            if (previous != null && previous.getType() == TableModelEvent.UPDATE && previous.getColumn() == column && previous.getLastRow() == row - 1) {
+                steps.set(steps.size() - 1, new TableModelEvent(this, previous.getFirstRow(), row, column, TableModelEvent.UPDATE));
+            } else {
+                steps.add(new TableModelEvent(this, row, row, column, TableModelEvent.UPDATE));
+            }
+        }
+
+        if (deleted.isEmpty() && order.length == 0) {
+            fireTableChanged(new BatchEvent(this, finalRows[0], finalRows[finalRows.length - 1], steps));
+        } else {
+            fireTableChanged(new BatchEvent(this, 0, Integer.MAX_VALUE, steps));
+        }
+        return undo;
+    }
+
+    private static int changedColumn(Asset before, Asset after) {
+        int changed = TableModelEvent.ALL_COLUMNS;
+        for (int column = 0; column < Asset.COLUMN_COUNT; column++) {
+            if (!Objects.equals(before.get(column), after.get(column))) {
+                if (changed != TableModelEvent.ALL_COLUMNS) {
+                    return TableModelEvent.ALL_COLUMNS;
+                }
+                changed = column;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Rows whose Asset Tag already exists are replaced in place, the rest are
+     * appended. Fires one data-changed event.
+     */
+    public void mergeByAssetTag(Collection<Asset> incoming) {
+        Map<String, Integer> rowByTag = new HashMap<>();
+        for (int row = 0; row < assets.size(); row++) {
+            String tag = assets.get(row).getTagKey();
+            if (tag != null) {
+                rowByTag.put(tag, row);
+            }
+        }
+        for (Asset asset : incoming) {
+            String tag = asset.getTagKey();
+            Integer existing = tag == null ? null : rowByTag.get(tag);
+            if (existing != null) {
+                assets.set(existing, asset);
+            } else {
+                assets.add(asset);
+                if (tag != null) {
+                    rowByTag.put(tag, assets.size() - 1);
+                }
+            }
+        }
+        fireTableDataChanged();
+    }
+
+    /**
+     * Row changes for apply(). Rows to update or delete are numbered as
+     * before the change, inserted rows as in the result.
+     */
+    public static class Changes {
+        private final Map<Integer, Asset> updates = new HashMap<>();
+        private final BitSet deletes = new BitSet();
+        private final List<Integer> insertRows = new ArrayList<>();
+        private final List<Asset> inserted = new ArrayList<>();
+
+        public void update(int row, Asset asset) {
+            updates.put(row, asset);
+        }
+
+        public void delete(int row) {
+            deletes.set(row);
+        }
+
+        public void deleteAll(int rowCount) {
+            deletes.set(0, rowCount);
+        }
+
+        public void insert(int row, Asset asset) {
+            insertRows.add(row);
+            inserted.add(asset);
+        }
+
+        /** Inserts after the last row. */
+        public void add(Asset asset) {
+            insert(Integer.MAX_VALUE, asset);
+        }
+
+        public boolean isEmpty() {
+            return updates.isEmpty() && deletes.isEmpty() && inserted.isEmpty();
+        }
+
+        /** Rows updated, deleted or inserted. */
+        public int size() {
+            return updates.size() + deletes.cardinality() + inserted.size();
+        }
+    }
+
+    /**
+     * The one event apply() fires. To listeners that don't know it, it is an
+     * update of the rows it spans (the whole table if rows were inserted or
+     * deleted). getSteps() has the same change as ordinary row events in the
+     * order to replay them: deletes numbered from the bottom up, then inserts
+     * and updates, both numbered as in the result, reading values from the
+     * model as usual.
+     */
+    public static class BatchEvent extends TableModelEvent {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<TableModelEvent> steps;
+
+        BatchEvent(AssetTableModel source, int firstRow, int lastRow, List<TableModelEvent> steps) {
+            super(source, firstRow, lastRow, ALL_COLUMNS, UPDATE);
+            this.steps = Collections.unmodifiableList(steps);
+        }
+
+        public List<TableModelEvent> getSteps() {
+            return steps;
+        }
+    }
+}
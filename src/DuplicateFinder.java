@@ -0,0 +1,556 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Finds rows that are probably the same asset, and different spellings of
+ * the same Manufacturer or Model, for the Find Duplicates review.
+ *
+ * Same asset: rows whose Serials match once spacing, punctuation and case
+ * are ignored. Each row's Serial is hashed in place (no strings are built)
+ * into one long per row, holding the hash and the row number, and the
+ * array is sorted in parallel; only rows whose hashes collide are compared
+ * as text. That is 8 bytes per row whatever the inventory holds.
+ *
+ * Spellings: the distinct Manufacturer values and Model values (per
+ * manufacturer) are normalized to lower-case words, without company
+ * suffixes such as "Inc." for manufacturers, so "Dell" and "DELL Inc." fall
+ * together. Typos ("Lattitude") are found with MinHash over character
+ * trigrams: values sharing a band of their signature are compared, and
+ * joined if their trigrams are at least MIN_SIMILARITY alike and their
+ * digits are the same, so "Latitude 5520" never meets "Latitude 5420".
+ * This only looks at distinct values, which are far fewer than rows.
+ *
+ * find() works on a snapshot, off the EDT; merge() turns the clusters the
+ * user picked into changes to the current model.
+ */
+public class DuplicateFinder {
+
+    public static final int MAX_CLUSTERS = 10_000;
+
+    private static final int ROW_BITS = 27; // up to 134M rows; the other 36 bits of each key are the hash
+    private static final long ROW_MASK = (1L << ROW_BITS) - 1;
+    private static final int MIN_CHUNK = 16_384;
+    private static final int SIGNATURE = 32; // MinHash values per value
+    private static final int BAND = 2; // values per LSH band; catches pairs about 0.25 alike or more
+    private static final int MAX_BUCKET = 64; // larger LSH buckets are compared with their first value only
+    private static final double MIN_SIMILARITY = 0.6;
+    private static final Metrics.Timer FIND_TIMER = Metrics.timer("duplicates");
+    private static final Set<String> COMPANY_WORDS = new HashSet<>(Arrays.asList(
+            "inc", "incorporated", "corp", "corporation", "co", "company", "ltd", "limited", "llc", "plc",
+            "gmbh", "ag", "sa", "intl", "international", "technologies", "technology", "computer", "computers"));
+
+    public enum Kind {
+        SAME_SERIAL("Same serial"),
+        MANUFACTURER("Manufacturer spellings"),
+        MODEL("Model spellings");
+
+        public final String description;
+
+        Kind(String description) {
+            this.description = description;
+        }
+    }
+
+    public static class Cluster {
+        public final Kind kind;
+        public final List<Asset> assets; // SAME_SERIAL: the rows, in table order
+        public final Map<String, Integer> spellings; // MANUFACTURER, MODEL: rows per spelling, most used first
+        public final Set<String> manufacturers; // MODEL: the manufacturer spellings the models were seen with
+
+        Cluster(Kind kind, List<Asset> assets, Map<String, Integer> spellings, Set<String> manufacturers) {
+            this.kind = kind;
+            this.assets = assets;
+            this.spellings = spellings;
+            this.manufacturers = manufacturers;
+        }
+
+        /** The spelling a merge keeps. */
+        public String canonical() {
+            return spellings.keySet().iterator().next();
+        }
+
+        /** Rows a merge changes or removes. */
+        public int rows() {
+            if (kind == Kind.SAME_SERIAL) {
+                return assets.size();
+            }
+            int rows = 0;
+            for (int count : spellings.values()) {
+                rows += count;
+            }
+            return rows;
+        }
+    }
+
+    public static class Result {
+        public final List<Cluster> clusters;
+        public final boolean truncated; // more than MAX_CLUSTERS were found
+
+        Result(List<Cluster> clusters, boolean truncated) {
+            this.clusters = clusters;
+            this.truncated = truncated;
+        }
+    }
+
+    /**
+     * Told how far the search is, from 0 to 1; returning false stops it.
+     */
+    public interface Progress {
+        boolean step(double fraction);
+    }
+
+    private interface Chunk<T> {
+        T run(int from, int to);
+    }
+
+    private DuplicateFinder() {
+    }
+
+    /**
+     * Searches the rows on the pool. Returns null if stopped by the progress
+     * callback. rows must not change meanwhile.
+     */
+    public static Result find(List<Asset> rows, ForkJoinPool pool, Progress progress) {
+        if (rows.size() > ROW_MASK) {
+            throw new IllegalArgumentException("Too many rows: " + rows.size());
+        }
+        long start = System.nanoTime();
+        List<Cluster> clusters = new ArrayList<>();
+        boolean truncated = sameSerials(rows, pool, clusters);
+        if (!progress.step(0.6)) {
+            return null;
+        }
+
+        Map<String, Integer> manufacturerRows = new HashMap<>();
+        Map<String, Map<String, Integer>> modelRows = new HashMap<>(); // manufacturer -> model -> rows
+        for (Map<String, Map<String, Integer>> counted : inChunks(pool, rows.size(), (from, to) -> countValues(rows, from, to))) {
+            for (Map.Entry<String, Map<String, Integer>> manufacturer : counted.entrySet()) {
+                Map<String, Integer> models = modelRows.computeIfAbsent(manufacturer.getKey(), m -> new HashMap<>());
+                for (Map.Entry<String, Integer> model : manufacturer.getValue().entrySet()) {
+                    models.merge(model.getKey(), model.getValue(), Integer::sum);
+                    manufacturerRows.merge(manufacturer.getKey(), model.getValue(), Integer::sum);
+                }
+            }
+        }
+        if (!progress.step(0.8)) {
+            return null;
+        }
+
+        // Manufacturers first; models are then compared within each group of manufacturer spellings
+        List<String> manufacturers = new ArrayList<>(manufacturerRows.keySet());
+        manufacturers.removeIf(String::isEmpty);
+        Collections.sort(manufacturers);
+        List<List<String>> manufacturerGroups = similar(manufacturers, DuplicateFinder::companyKey, pool);
+        List<List<String>> modelBlocks = new ArrayList<>();
+        for (List<String> group : manufacturerGroups) {
+            if (group.size() > 1 && !add(clusters, new Cluster(Kind.MANUFACTURER, Collections.emptyList(), spellings(group, manufacturerRows), Collections.emptySet()))) {
+                truncated = true;
+            }
+            modelBlocks.add(group);
+        }
+        if (manufacturerRows.containsKey("")) {
+            modelBlocks.add(Collections.singletonList(""));
+        }
+        for (List<String> block : modelBlocks) {
+            Map<String, Integer> blockModels = new HashMap<>();
+            for (String manufacturer : block) {
+                modelRows.get(manufacturer).forEach((model, count) -> blockModels.merge(model, count, Integer::sum));
+            }
+            List<String> models = new ArrayList<>(blockModels.keySet());
+            models.removeIf(String::isEmpty);
+            Collections.sort(models);
+            for (List<String> group : similar(models, DuplicateFinder::words, pool)) {
+                if (group.size() > 1 && !add(clusters, new Cluster(Kind.MODEL, Collections.emptyList(), spellings(group, blockModels),
+                        Collections.unmodifiableSet(new HashSet<>(block))))) {
+                    truncated = true;
+                }
+            }
+        }
+        if (!progress.step(1)) {
+            return null;
+        }
+        FIND_TIMER.since(start);
+        return new Result(clusters, truncated);
+    }
+
+    /**
+     * The changes that merge the clusters into the model as it is now: rows
+     * with the same serial become the first of them, its blank columns
+     * filled from the others and differing notes joined, and the other rows
+     * are deleted; spellings are replaced by the most used one. Rows that
+     * were deleted since the search are left out, as are duplicates edited
+     * since.
+     */
+    public static AssetTableModel.Changes merge(AssetTableModel model, Collection<Cluster> clusters) {
+        Map<String, String> manufacturerSpelling = new HashMap<>();
+        Map<String, Map<String, String>> modelSpelling = new HashMap<>(); // manufacturer -> model -> canonical
+        Map<Asset, List<Integer>> duplicateRows = new IdentityHashMap<>(); // shared by the rows of one cluster
+        for (Cluster cluster : clusters) {
+            switch (cluster.kind) {
+                case SAME_SERIAL:
+                    List<Integer> found = new ArrayList<>();
+                    for (Asset asset : cluster.assets) {
+                        duplicateRows.put(asset, found);
+                    }
+                    break;
+                case MANUFACTURER:
+                    for (String spelling : cluster.spellings.keySet()) {
+                        manufacturerSpelling.put(spelling, cluster.canonical());
+                    }
+                    break;
+                default:
+                    for (String manufacturer : cluster.manufacturers) {
+                        Map<String, String> models = modelSpelling.computeIfAbsent(manufacturer, m -> new HashMap<>());
+                        for (String spelling : cluster.spellings.keySet()) {
+                            models.put(spelling, cluster.canonical());
+                        }
+                    }
+                    break;
+            }
+        }
+
+        Map<Integer, Asset> updated = new HashMap<>();
+        List<List<Integer>> duplicates = new ArrayList<>();
+        for (int row = 0; row < model.getRowCount(); row++) {
+            Asset asset = model.getAsset(row);
+            List<Integer> found = duplicateRows.get(asset);
+            if (found != null) {
+                if (found.isEmpty()) {
+                    duplicates.add(found);
+                }
+                found.add(row);
+            }
+            Asset respelled = asset;
+            String manufacturer = manufacturerSpelling.get(asset.getManufacturer());
+            if (manufacturer != null) {
+                respelled = respelled.with(Asset.MANUFACTURER, manufacturer);
+            }
+            String modelName = modelSpelling.getOrDefault(asset.getManufacturer(), Collections.emptyMap()).get(asset.getModel());
+            if (modelName != null) {
+                respelled = respelled.with(Asset.MODEL, modelName);
+            }
+            if (respelled != asset && !Arrays.equals(respelled.toValues(), asset.toValues())) {
+                updated.put(row, respelled);
+            }
+        }
+
+        AssetTableModel.Changes changes = new AssetTableModel.Changes();
+        for (List<Integer> found : duplicates) {
+            if (found.size() < 2) {
+                continue;
+            }
+            int kept = found.get(0);
+            Asset merged = updated.getOrDefault(kept, model.getAsset(kept));
+            for (int i = 1; i < found.size(); i++) {
+                int row = found.get(i);
+                merged = fill(merged, updated.getOrDefault(row, model.getAsset(row)));
+                updated.remove(row);
+                changes.delete(row);
+            }
+            updated.put(kept, merged);
+        }
+        for (Map.Entry<Integer, Asset> update : updated.entrySet()) {
+            if (update.getValue() != model.getAsset(update.getKey())) {
+                changes.update(update.getKey(), update.getValue());
+            }
+        }
+        return changes;
+    }
+
+    // Blank columns of kept taken from other, notes joined
+    private static Asset fill(Asset kept, Asset other) {
+        Asset merged = kept;
+        for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+            Object value = merged.get(col);
+            Object otherValue = other.get(col);
+            if (col == Asset.QUANTITY || isBlank(otherValue) || Objects.equals(value, otherValue)) {
+                continue;
+            }
+            if (isBlank(value)) {
+                merged = merged.with(col, otherValue);
+            } else if (col == Asset.NOTE && !value.toString().contains(otherValue.toString())) {
+                merged = merged.with(col, value + "; " + otherValue);
+            }
+        }
+        return merged;
+    }
+
+    private static boolean isBlank(Object value) {
+        return value == null || value.toString().trim().isEmpty() || Asset.NO_IMAGE.equals(value);
+    }
+
+    // Serials
+
+    private static boolean sameSerials(List<Asset> rows, ForkJoinPool pool, List<Cluster> clusters) {
+        long[] keys = new long[rows.size()];
+        inChunks(pool, rows.size(), (from, to) -> {
+            for (int row = from; row < to; row++) {
+                long hash = serialHash(rows.get(row).getSerial());
+                keys[row] = hash == 0 ? -1 : (hash >>> (ROW_BITS + 1)) << ROW_BITS | row;
+            }
+            return null;
+        });
+        Arrays.parallelSort(keys);
+
+        boolean truncated = false;
+        int start = 0;
+        while (start < keys.length && keys[start] < 0) {
+            start++; // no serial
+        }
+        while (start < keys.length) {
+            int end = start + 1;
+            while (end < keys.length && keys[end] >>> ROW_BITS == keys[start] >>> ROW_BITS) {
+                end++;
+            }
+            if (end - start > 1) {
+                // Same hash: group by the normalized serial itself, rows in table order
+                Map<String, List<Asset>> bySerial = new LinkedHashMap<>();
+                for (int i = start; i < end; i++) {
+                    Asset asset = rows.get((int) (keys[i] & ROW_MASK));
+                    bySerial.computeIfAbsent(normalizeSerial(asset.getSerial()), s -> new ArrayList<>()).add(asset);
+                }
+                for (List<Asset> same : bySerial.values()) {
+                    if (same.size() > 1 && !add(clusters, new Cluster(Kind.SAME_SERIAL, Collections.unmodifiableList(same),
+                            Collections.emptyMap(), Collections.emptySet()))) {
+                        truncated = true;
+                    }
+                }
+            }
+            start = end;
+        }
+        return truncated;
+    }
+
+    // FNV-1a of the serial's letters and digits, upper-cased; 0 if it has none
+    private static long serialHash(String serial) {
+        long hash = 0xcbf29ce484222325L;
+        boolean any = false;
+        for (int i = 0; i < serial.length(); i++) {
+            char c = serial.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                hash = (hash ^ Character.toUpperCase(c)) * 0x100000001b3L;
+                any = true;
+            }
+        }
+        return any ? hash | 1 : 0;
+    }
+
+    private static String normalizeSerial(String serial) {
+        StringBuilder normalized = new StringBuilder(serial.length());
+        for (int i = 0; i < serial.length(); i++) {
+            char c = serial.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toUpperCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    // Spellings
+
+    private static Map<String, Map<String, Integer>> countValues(List<Asset> rows, int from, int to) {
+        Map<String, Map<String, Integer>> counts = new HashMap<>();
+        for (int row = from; row < to; row++) {
+            Asset asset = rows.get(row);
+            counts.computeIfAbsent(asset.getManufacturer(), m -> new HashMap<>()).merge(asset.getModel(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private interface Normalizer {
+        String key(String value);
+    }
+
+    /**
+     * Groups the values that are spellings of each other: same normalized
+     * key, or keys similar enough. Every value is in exactly one group.
+     */
+    private static List<List<String>> similar(List<String> values, Normalizer normalizer, ForkJoinPool pool) {
+        Map<String, List<String>> byKey = new LinkedHashMap<>();
+        for (String value : values) {
+            byKey.computeIfAbsent(normalizer.key(value), k -> new ArrayList<>()).add(value);
+        }
+        List<String> keys = new ArrayList<>(byKey.keySet());
+        int[] parent = new int[keys.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+
+        int[][] trigrams = new int[keys.size()][];
+        int[][] signatures = new int[keys.size()][];
+        String[] digits = new String[keys.size()];
+        inChunks(pool, keys.size(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                digits[i] = digits(keys.get(i));
+                trigrams[i] = trigrams(keys.get(i));
+                signatures[i] = signature(trigrams[i]);
+            }
+            return null;
+        });
+        for (int band = 0; band < SIGNATURE; band += BAND) {
+            Map<Long, List<Integer>> buckets = new HashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                if (trigrams[i].length > 0) {
+                    long bucket = (long) signatures[i][band] << 32 | (signatures[i][band + 1] & 0xffffffffL);
+                    buckets.computeIfAbsent(bucket, b -> new ArrayList<>(2)).add(i);
+                }
+            }
+            for (List<Integer> bucket : buckets.values()) {
+                for (int a = 0; a < bucket.size(); a++) {
+                    for (int b = a + 1; b < bucket.size() && (a == 0 || bucket.size() <= MAX_BUCKET); b++) {
+                        int x = bucket.get(a);
+                        int y = bucket.get(b);
+                        if (digits[x].equals(digits[y]) && find(parent, x) != find(parent, y)
+                                && jaccard(trigrams[x], trigrams[y]) >= MIN_SIMILARITY) {
+                            parent[find(parent, x)] = find(parent, y);
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<Integer, List<String>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            groups.computeIfAbsent(find(parent, i), root -> new ArrayList<>()).addAll(byKey.get(keys.get(i)));
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // Lower-case words of letters and digits, one space apart
+    private static String words(String value) {
+        StringBuilder key = new StringBuilder(value.length());
+        for (String word : value.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                key.append(key.length() > 0 ? " " : "").append(word);
+            }
+        }
+        return key.toString();
+    }
+
+    private static String companyKey(String manufacturer) {
+        List<String> kept = new ArrayList<>();
+        for (String word : words(manufacturer).split(" ")) {
+            if (!COMPANY_WORDS.contains(word)) {
+                kept.add(word);
+            }
+        }
+        return kept.isEmpty() ? words(manufacturer) : String.join(" ", kept);
+    }
+
+    private static String digits(String key) {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < key.length(); i++) {
+            if (Character.isDigit(key.charAt(i))) {
+                digits.append(key.charAt(i));
+            }
+        }
+        return digits.toString();
+    }
+
+    // Sorted, distinct trigrams of " key ", packed into ints
+    private static int[] trigrams(String key) {
+        String padded = " " + key + " ";
+        if (key.isEmpty()) {
+            return new int[0];
+        }
+        int[] grams = new int[padded.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = (padded.charAt(i) * 31 + padded.charAt(i + 1)) * 31 + padded.charAt(i + 2);
+        }
+        return Arrays.stream(grams).sorted().distinct().toArray();
+    }
+
+    private static int[] signature(int[] trigrams) {
+        int[] signature = new int[SIGNATURE];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (int gram : trigrams) {
+            for (int i = 0; i < SIGNATURE; i++) {
+                int hash = mix(gram * (2 * i + 1) + i * 0x9e3779b9);
+                if (hash < signature[i]) {
+                    signature[i] = hash;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private static double jaccard(int[] a, int[] b) {
+        int shared = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] == b[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) shared / (a.length + b.length - shared);
+    }
+
+    // Most used spelling first
+    private static Map<String, Integer> spellings(List<String> group, Map<String, Integer> rows) {
+        List<String> sorted = new ArrayList<>(group);
+        sorted.sort((a, b) -> rows.get(a).equals(rows.get(b)) ? a.compareTo(b) : Integer.compare(rows.get(b), rows.get(a)));
+        Map<String, Integer> spellings = new LinkedHashMap<>();
+        for (String spelling : sorted) {
+            spellings.put(spelling, rows.get(spelling));
+        }
+        return Collections.unmodifiableMap(spellings);
+    }
+
+    private static boolean add(List<Cluster> clusters, Cluster cluster) {
+        if (clusters.size() >= MAX_CLUSTERS) {
+            return false;
+        }
+        clusters.add(cluster);
+        return true;
+    }
+
+    // Runs chunk over [0, size) in pieces on the pool and returns the results in order
+    private static <T> List<T> inChunks(ForkJoinPool pool, int size, Chunk<T> chunk) {
+        int pieces = Math.max(1, Math.min(pool.getParallelism() * 4, size / MIN_CHUNK));
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(pieces);
+        for (int piece = 0; piece < pieces; piece++) {
+            int from = (int) ((long) size * piece / pieces);
+            int to = (int) ((long) size * (piece + 1) / pieces);
+            tasks.add(pool.submit(() -> chunk.run(from, to)));
+        }
+        List<T> results = new ArrayList<>(pieces);
+        for (ForkJoinTask<T> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,122 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Finds out what blocks the event dispatch thread.
+ *
+ * Replaces the system event queue with one that times every event. A
+ * watchdog thread looks at the EDT while an event is still running: once it
+ * has been busy for longer than the threshold, the EDT's stack is logged, so
+ * the log shows what it was stuck in (a save, a search, an image...). When
+ * the event is done, its total time is logged too. Modal dialogs run their
+ * own event loop inside an event; the time spent waiting in that loop does
+ * not count, only the work before and after it.
+ *
+ * Every event's time goes into the "edt.dispatch" timer, stalls into
+ * "edt.stall".
+ */
+public class EdtMonitor extends EventQueue {
+
+    private static final Logger LOG = LogManager.getLogger(EdtMonitor.class);
+    private static final int MAX_FRAMES = 40;
+    private static final int MAX_DESCRIPTION = 200;
+
+    private final long thresholdNanos;
+    private final Metrics.Timer dispatchTimer = Metrics.timer("edt.dispatch");
+    private final Metrics.Timer stallTimer = Metrics.timer("edt.stall");
+
+    private volatile long busySince; // start of the work being timed, 0 while idle
+    private volatile AWTEvent current;
+    private volatile Thread dispatchThread;
+    private int depth; // EDT only
+    private long reported; // watchdog only: busySince of the last stall logged
+
+    private EdtMonitor(long thresholdMillis) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Installs the monitor for events that keep the EDT busy for longer than
+     * thresholdMillis.
+     */
+    public static void install(long thresholdMillis) {
+        EdtMonitor monitor = new EdtMonitor(thresholdMillis);
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(monitor);
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "inventory-edt-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(10, thresholdMillis / 2);
+        watchdog.scheduleAtFixedRate(monitor::check, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        long start = System.nanoTime();
+        AWTEvent outer = current;
+        if (depth > 0) {
+            finished(outer, start); // the outer event's work up to the nested loop
+        }
+        depth++;
+        dispatchThread = Thread.currentThread();
+        current = event;
+        busySince = start;
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long end = System.nanoTime();
+            finished(event, end);
+            depth--;
+            current = outer;
+            busySince = depth > 0 ? end : 0;
+        }
+    }
+
+    private void finished(AWTEvent event, long now) {
+        long since = busySince;
+        if (since == 0) {
+            return;
+        }
+        long nanos = now - since;
+        dispatchTimer.record(nanos);
+        if (nanos > thresholdNanos) {
+            stallTimer.record(nanos);
+            LOG.warn("EDT blocked for {} ms by {}", TimeUnit.NANOSECONDS.toMillis(nanos), describe(event));
+        }
+    }
+
+    // Watchdog: logs the EDT's stack once per stall, while it is still stuck
+    private void check() {
+        long since = busySince;
+        AWTEvent event = current;
+        Thread thread = dispatchThread;
+        if (since == 0 || since == reported || thread == null || System.nanoTime() - since <= thresholdNanos) {
+            return;
+        }
+        reported = since;
+        StringBuilder stack = new StringBuilder();
+        StackTraceElement[] frames = thread.getStackTrace();
+        for (int i = 0; i < frames.length && i < MAX_FRAMES; i++) {
+            stack.append("\n\tat ").append(frames[i]);
+        }
+        if (frames.length > MAX_FRAMES) {
+            stack.append("\n\t... ").append(frames.length - MAX_FRAMES).append(" more");
+        }
+        LOG.warn("EDT busy for over {} ms with {}, now in:{}", TimeUnit.NANOSECONDS.toMillis(thresholdNanos),
+                event == null ? "?" : describe(event), stack);
+    }
+
+    private static String describe(AWTEvent event) {
+        String params = event.paramString();
+        String text = event.getClass().getSimpleName() + (params == null || params.isEmpty() ? "" : "[" + params + "]");
+        return text.length() > MAX_DESCRIPTION ? text.substring(0, MAX_DESCRIPTION) + "..." : text;
+    }
+}
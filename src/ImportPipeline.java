@@ -0,0 +1,361 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Turns the rows of an imported sheet into assets, and sets aside the rows
+ * that should not go into the inventory, with the reason.
+ *
+ * The parser hands rows over on its own thread with add(). They are
+ * normalized (text trimmed, POI's "3.0" read as 3, dates parsed) and
+ * validated in chunks on a fork-join pool while parsing goes on. finish()
+ * then finds duplicates by hashing Asset Tags and Serials over all rows in
+ * parallel: the first row with a tag or serial keeps it and later rows are
+ * rejected, as are rows whose Serial belongs to a different asset in the
+ * current inventory. Blank rows are skipped.
+ *
+ * Not thread safe: add() and finish() are called from one thread.
+ */
+public class ImportPipeline {
+
+    private static final int CHUNK_SIZE = 2_000;
+    private static final Metrics.Timer IMPORT_TIMER = Metrics.timer("import");
+
+    public enum Problem {
+        BAD_QUANTITY("Quantity is not a whole number"),
+        BAD_DATE("Not a date"),
+        DUPLICATE_TAG("Asset Tag already on an earlier row"),
+        DUPLICATE_SERIAL("Serial already on an earlier row"),
+        SERIAL_IN_INVENTORY("Serial belongs to another asset in the inventory");
+
+        public final String description;
+
+        Problem(String description) {
+            this.description = description;
+        }
+    }
+
+    public static class Rejection {
+        public final String source;
+        public final int row; // as numbered in Excel
+        public final Problem problem;
+        public final String reason;
+        public final String[] values;
+
+        Rejection(String source, int row, Problem problem, String reason, String[] values) {
+            this.source = source;
+            this.row = row;
+            this.problem = problem;
+            this.reason = reason;
+            this.values = values;
+        }
+    }
+
+    public static class Result {
+        public final List<Asset> assets;
+        public final List<Rejection> rejections;
+        public final int blankRows;
+
+        Result(List<Asset> assets, List<Rejection> rejections, int blankRows) {
+            this.assets = assets;
+            this.rejections = rejections;
+            this.blankRows = blankRows;
+        }
+
+        public Map<Problem, Integer> countByProblem() {
+            Map<Problem, Integer> counts = new EnumMap<>(Problem.class);
+            for (Rejection rejection : rejections) {
+                counts.merge(rejection.problem, 1, Integer::sum);
+            }
+            return counts;
+        }
+    }
+
+    // One non-blank sheet row on its way through the stages
+    private static class Row {
+        final int number;
+        final String[] values;
+        Asset asset;
+        String tagKey; // lower-cased, null if blank
+        String serialKey;
+        Rejection rejection;
+
+        Row(int number, String[] values) {
+            this.number = number;
+            this.values = values;
+        }
+    }
+
+    private final String source;
+    private final List<Asset> inventory;
+    private final ForkJoinPool pool;
+    private final int maxInFlight;
+    private final ArrayDeque<ForkJoinTask<List<Row>>> inFlight = new ArrayDeque<>();
+    private final List<Row> rows = new ArrayList<>();
+    private List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+    private int blankRows;
+
+    /**
+     * source names the sheet in the rejections. inventory is what the rows
+     * are merged into, for the Serial check; null if they replace it.
+     */
+    public ImportPipeline(String source, List<Asset> inventory, ForkJoinPool pool) {
+        this.source = source;
+        this.inventory = inventory;
+        this.pool = pool;
+        this.maxInFlight = pool.getParallelism() * 2;
+    }
+
+    /**
+     * Reads the first sheet of an XLSX file through the pipeline. The
+     * progress callback gets the fraction of the sheet read; returning false
+     * stops the import and returns null.
+     */
+    public static Result readXlsx(File file, List<Asset> inventory, ForkJoinPool pool, InventoryImporter.RowHandler progress)
+            throws IOException {
+        long start = System.nanoTime();
+        ImportPipeline pipeline = new ImportPipeline(file.getName(), inventory, pool);
+        boolean finished = InventoryImporter.readXlsx(file, Asset.COLUMN_COUNT,
+                (rowNumber, values, fraction) -> pipeline.add(rowNumber, values) && progress.row(values, fraction));
+        if (!finished) {
+            return null;
+        }
+        Result result = pipeline.finish();
+        IMPORT_TIMER.since(start);
+        return result;
+    }
+
+    /**
+     * Takes one sheet row. values are not copied and must not be changed
+     * afterwards. Always returns true, to be usable as a row handler.
+     */
+    public boolean add(int rowNumber, String[] values) {
+        if (isBlank(values)) {
+            blankRows++;
+            return true;
+        }
+        chunk.add(new Row(rowNumber, values));
+        if (chunk.size() == CHUNK_SIZE) {
+            submit();
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the rows added so far, removes the duplicates and returns the
+     * accepted assets in sheet order along with the rejections.
+     */
+    public Result finish() {
+        if (!chunk.isEmpty()) {
+            submit();
+        }
+        while (!inFlight.isEmpty()) {
+            rows.addAll(inFlight.poll().join());
+        }
+        // Tags first, so a row repeated in full is reported once, as a repeated tag
+        Map<String, Integer> firstByTag = firstRows(row -> row.tagKey);
+        forEach(index -> {
+            Row row = rows.get(index);
+            if (row.rejection == null && row.tagKey != null) {
+                int first = firstByTag.get(row.tagKey);
+                if (first != index) {
+                    reject(row, Problem.DUPLICATE_TAG, row.asset.getAssetTag() + " (row " + rows.get(first).number + ")");
+                }
+            }
+        });
+        Map<String, Integer> firstBySerial = firstRows(row -> row.serialKey);
+        Map<String, String> inventoryTagBySerial = new HashMap<>();
+        Set<String> inventorySerialTags = new HashSet<>();
+        if (inventory != null) {
+            for (Asset asset : inventory) {
+                String serial = Asset.key(asset.getSerial());
+                if (serial != null) {
+                    inventoryTagBySerial.putIfAbsent(serial, asset.getAssetTag().trim());
+                    inventorySerialTags.add(serial + '\t' + asset.getTagKey());
+                }
+            }
+        }
+        forEach(index -> {
+            Row row = rows.get(index);
+            if (row.rejection == null && row.serialKey != null) {
+                int first = firstBySerial.get(row.serialKey);
+                String owner = inventoryTagBySerial.get(row.serialKey);
+                if (first != index) {
+                    reject(row, Problem.DUPLICATE_SERIAL, row.asset.getSerial() + " (row " + rows.get(first).number + ")");
+                } else if (owner != null && (row.tagKey == null || !inventorySerialTags.contains(row.serialKey + '\t' + row.tagKey))) {
+                    // A matching tag makes the row an update of that asset; an untagged row would be added again
+                    reject(row, Problem.SERIAL_IN_INVENTORY, row.asset.getSerial() + " (" + (owner.isEmpty() ? "untagged asset" : owner) + ")");
+                }
+            }
+        });
+
+        List<Asset> assets = new ArrayList<>(rows.size());
+        List<Rejection> rejections = new ArrayList<>();
+        for (Row row : rows) {
+            if (row.rejection != null) {
+                rejections.add(row.rejection);
+            } else {
+                assets.add(row.asset);
+            }
+        }
+        rows.clear();
+        return new Result(assets, rejections, blankRows);
+    }
+
+    /**
+     * Writes the rejections as CSV: file, sheet row, reason, then the row as
+     * it was read. Returns false if stopped by the progress callback.
+     */
+    public static boolean writeReport(File file, List<Rejection> rejections, InventoryExporter.Progress progress) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            Object[] line = new Object[Asset.COLUMN_COUNT + 3];
+            line[0] = "File";
+            line[1] = "Row";
+            line[2] = "Reason";
+            System.arraycopy(Asset.COLUMN_NAMES, 0, line, 3, Asset.COLUMN_COUNT);
+            InventoryExporter.writeCsvLine(out, line);
+            for (int i = 0; i < rejections.size(); i++) {
+                Rejection rejection = rejections.get(i);
+                line[0] = rejection.source;
+                line[1] = rejection.row;
+                line[2] = rejection.reason;
+                System.arraycopy(rejection.values, 0, line, 3, Asset.COLUMN_COUNT);
+                InventoryExporter.writeCsvLine(out, line);
+                if (!progress.rowWritten(i + 1, rejections.size())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Stages
+
+    private void submit() {
+        List<Row> full = chunk;
+        chunk = new ArrayList<>(CHUNK_SIZE);
+        inFlight.add(pool.submit(() -> normalize(full)));
+        if (inFlight.size() >= maxInFlight) {
+            rows.addAll(inFlight.poll().join()); // keeps the parser from running far ahead
+        }
+    }
+
+    private List<Row> normalize(List<Row> chunk) {
+        for (Row row : chunk) {
+            String[] values = row.values;
+            Object[] normalized = new Object[Asset.COLUMN_COUNT];
+            for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+                normalized[col] = values[col] == null ? "" : values[col].trim();
+            }
+            // Parsed once here; fromValues takes the typed values as they are
+            String quantityText = (String) normalized[Asset.QUANTITY];
+            int quantity = Asset.toQuantity(quantityText, -1);
+            if (quantity < 0) {
+                reject(row, Problem.BAD_QUANTITY, quantityText);
+                continue;
+            }
+            normalized[Asset.QUANTITY] = quantity;
+            if (!parseDate(normalized, Asset.DATE_RECEIVED, row) || !parseDate(normalized, Asset.DATE_RECORDED, row)) {
+                continue;
+            }
+            row.asset = Asset.fromValues(normalized);
+            row.tagKey = row.asset.getTagKey();
+            row.serialKey = Asset.key(row.asset.getSerial());
+        }
+        return chunk;
+    }
+
+    private boolean parseDate(Object[] normalized, int column, Row row) {
+        String text = (String) normalized[column];
+        if (text.isEmpty()) {
+            normalized[column] = null;
+            return true;
+        }
+        LocalDate date = Asset.toDate(text);
+        if (date == null) {
+            reject(row, Problem.BAD_DATE, text);
+            return false;
+        }
+        normalized[column] = date;
+        return true;
+    }
+
+    // Index of the first row (in sheet order) for each key, over the rows not yet rejected
+    private Map<String, Integer> firstRows(Function<Row, String> key) {
+        ConcurrentHashMap<String, Integer> first = new ConcurrentHashMap<>();
+        forEach(index -> {
+            Row row = rows.get(index);
+            String value = row.rejection == null ? key.apply(row) : null;
+            if (value != null) {
+                first.merge(value, index, Math::min);
+            }
+        });
+        return first;
+    }
+
+    private void forEach(IntConsumer body) {
+        if (!rows.isEmpty()) {
+            pool.invoke(new Slice(0, rows.size(), body));
+        }
+    }
+
+    private static class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final transient IntConsumer body;
+
+        Slice(int from, int to, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                for (int index = from; index < to; index++) {
+                    body.accept(index);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Slice(from, middle, body), new Slice(middle, to, body));
+        }
+    }
+
+    private void reject(Row row, Problem problem, String detail) {
+        String reason = detail.isEmpty() ? problem.description : problem.description + ": " + detail;
+        row.rejection = new Rejection(source, row.number, problem, reason, row.values);
+    }
+
+    private static boolean isBlank(String[] values) {
+        for (String value : values) {
+            if (value != null && !value.trim().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,297 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Asset counts and quantity totals by Category, Manufacturer, Physical
+ * Location and month received, kept up to date from TableModelEvents like
+ * SearchIndex.
+ *
+ * A copy of the model's row references is kept, so an edit or delete can
+ * take the old row out of its groups before the new one is added: one
+ * changed row costs a few hash lookups, however big the inventory. Only
+ * whole-table changes (an import, Delete All) count everything again.
+ * Must only be used from the EDT; report() copies the totals for other
+ * threads.
+ */
+public class InventoryAggregates implements TableModelListener {
+
+    public static final String NONE = "(none)";
+
+    public enum Dimension {
+        CATEGORY("Category"),
+        MANUFACTURER("Manufacturer"),
+        LOCATION("Physical Location"),
+        RECEIVED_MONTH("Month Received");
+
+        public final String label;
+
+        Dimension(String label) {
+            this.label = label;
+        }
+
+        String key(Asset asset) {
+            switch (this) {
+                case CATEGORY: return text(asset.getCategory());
+                case MANUFACTURER: return text(asset.getManufacturer());
+                case LOCATION: return text(asset.getPhysicalLocation());
+                default:
+                    LocalDate received = asset.getDateReceived();
+                    return received == null ? NONE : YearMonth.from(received).toString(); // 2024-03, sorts by date
+            }
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /** One group's totals, copied out for a report. */
+    public static class Group {
+        public final String key;
+        public final int assets;
+        public final long quantity;
+
+        Group(String key, int assets, long quantity) {
+            this.key = key;
+            this.assets = assets;
+            this.quantity = quantity;
+        }
+    }
+
+    /** The groups of every dimension, sorted by key, with (none) last. */
+    public static class Report {
+        public final Map<Dimension, List<Group>> groups;
+        public final int assets;
+        public final long quantity;
+
+        Report(Map<Dimension, List<Group>> groups, int assets, long quantity) {
+            this.groups = groups;
+            this.assets = assets;
+            this.quantity = quantity;
+        }
+    }
+
+    private static final Comparator<Group> BY_KEY = Comparator.comparing((Group group) -> group.key.equals(NONE))
+            .thenComparing(group -> group.key, String.CASE_INSENSITIVE_ORDER);
+
+    private final AssetTableModel model;
+    private final List<Asset> rows = new ArrayList<>(); // parallel to the model rows
+    private final Totals totals = new Totals();
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    public InventoryAggregates(AssetTableModel model) {
+        this.model = model;
+        rebuild();
+    }
+
+    /**
+     * Totals of a list of rows, for batch mode where there is no model.
+     */
+    public static Report report(List<Asset> assets) {
+        Totals totals = new Totals();
+        for (Asset asset : assets) {
+            totals.add(asset, 1);
+        }
+        return totals.report();
+    }
+
+    public Report report() {
+        return totals.report();
+    }
+
+    /**
+     * Called on the EDT after every model change that was counted.
+     */
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        if (e instanceof AssetTableModel.BatchEvent) {
+            for (TableModelEvent step : ((AssetTableModel.BatchEvent) e).getSteps()) {
+                change(step);
+            }
+        } else if (e.getFirstRow() == TableModelEvent.HEADER_ROW || e.getLastRow() == Integer.MAX_VALUE) {
+            rebuild();
+        } else {
+            change(e);
+        }
+        ChangeEvent event = new ChangeEvent(this);
+        for (ChangeListener listener : listeners) {
+            listener.stateChanged(event);
+        }
+    }
+
+    private void change(TableModelEvent e) {
+        int first = e.getFirstRow();
+        int last = e.getLastRow();
+        switch (e.getType()) {
+            case TableModelEvent.INSERT:
+                List<Asset> inserted = new ArrayList<>(last - first + 1);
+                for (int row = first; row <= last; row++) {
+                    Asset asset = model.getAsset(row);
+                    totals.add(asset, 1);
+                    inserted.add(asset);
+                }
+                rows.addAll(first, inserted);
+                break;
+            case TableModelEvent.DELETE:
+                List<Asset> deleted = rows.subList(first, Math.min(last + 1, rows.size()));
+                for (Asset asset : deleted) {
+                    totals.add(asset, -1);
+                }
+                deleted.clear();
+                break;
+            default:
+                for (int row = first; row <= last && row < rows.size(); row++) {
+                    Asset asset = model.getAsset(row);
+                    totals.add(rows.set(row, asset), -1);
+                    totals.add(asset, 1);
+                }
+                break;
+        }
+    }
+
+    private void rebuild() {
+        rows.clear();
+        totals.clear();
+        for (int row = 0; row < model.getRowCount(); row++) {
+            Asset asset = model.getAsset(row);
+            rows.add(asset);
+            totals.add(asset, 1);
+        }
+    }
+
+    /**
+     * Writes a report as CSV (Group By, Value, Assets, Quantity, one line per
+     * group) or as XLSX with a sheet per dimension.
+     */
+    public static void write(File file, Report report) throws IOException {
+        if (InventoryExporter.isCsv(file)) {
+            writeCsv(file, report);
+        } else {
+            writeXlsx(file, report);
+        }
+    }
+
+    private static void writeCsv(File file, Report report) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            InventoryExporter.writeCsvLine(out, new Object[] {"Group By", "Value", "Assets", "Quantity"});
+            for (Map.Entry<Dimension, List<Group>> dimension : report.groups.entrySet()) {
+                for (Group group : dimension.getValue()) {
+                    InventoryExporter.writeCsvLine(out, new Object[] {dimension.getKey().label, group.key, group.assets, group.quantity});
+                }
+            }
+            InventoryExporter.writeCsvLine(out, new Object[] {"Total", "", report.assets, report.quantity});
+        }
+    }
+
+    private static void writeXlsx(File file, Report report) throws IOException {
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook()) {
+            for (Map.Entry<Dimension, List<Group>> dimension : report.groups.entrySet()) {
+                Sheet sheet = workbook.createSheet(dimension.getKey().label);
+                Row header = sheet.createRow(0);
+                header.createCell(0).setCellValue(dimension.getKey().label);
+                header.createCell(1).setCellValue("Assets");
+                header.createCell(2).setCellValue("Quantity");
+                int rowNumber = 1;
+                for (Group group : dimension.getValue()) {
+                    Row row = sheet.createRow(rowNumber++);
+                    row.createCell(0).setCellValue(group.key);
+                    row.createCell(1).setCellValue(group.assets);
+                    row.createCell(2).setCellValue(group.quantity);
+                }
+                Row total = sheet.createRow(rowNumber);
+                total.createCell(0).setCellValue("Total");
+                total.createCell(1).setCellValue(report.assets);
+                total.createCell(2).setCellValue(report.quantity);
+            }
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                workbook.write(fos);
+            }
+        }
+    }
+
+    private static String text(String value) {
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? NONE : trimmed;
+    }
+
+    // Running totals per group; a group is dropped when its last asset goes
+    private static class Totals {
+        private final Map<Dimension, Map<String, long[]>> groups = new EnumMap<>(Dimension.class); // key -> {assets, quantity}
+        private int assets;
+        private long quantity;
+
+        Totals() {
+            for (Dimension dimension : Dimension.values()) {
+                groups.put(dimension, new HashMap<>());
+            }
+        }
+
+        void add(Asset asset, int sign) {
+            assets += sign;
+            quantity += sign * (long) asset.getQuantity();
+            for (Map.Entry<Dimension, Map<String, long[]>> dimension : groups.entrySet()) {
+                String key = dimension.getKey().key(asset);
+                long[] group = dimension.getValue().computeIfAbsent(key, k -> new long[2]);
+                group[0] += sign;
+                group[1] += sign * (long) asset.getQuantity();
+                if (group[0] == 0) {
+                    dimension.getValue().remove(key);
+                }
+            }
+        }
+
+        void clear() {
+            for (Map<String, long[]> byKey : groups.values()) {
+                byKey.clear();
+            }
+            assets = 0;
+            quantity = 0;
+        }
+
+        Report report() {
+            Map<Dimension, List<Group>> copy = new EnumMap<>(Dimension.class);
+            for (Map.Entry<Dimension, Map<String, long[]>> dimension : groups.entrySet()) {
+                List<Group> list = new ArrayList<>(dimension.getValue().size());
+                for (Map.Entry<String, long[]> group : dimension.getValue().entrySet()) {
+                    list.add(new Group(group.getKey(), (int) group.getValue()[0], group.getValue()[1]));
+                }
+                list.sort(BY_KEY);
+                copy.put(dimension.getKey(), Collections.unmodifiableList(list));
+            }
+            return new Report(Collections.unmodifiableMap(copy), assets, quantity);
+        }
+    }
+}
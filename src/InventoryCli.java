@@ -0,0 +1,415 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Headless batch mode, for running the asset sync from cron:
+ * <pre>
+ *   App --import new.xlsx [--replace] [--rejects report.csv] [--dedupe] [--find column=value] [--query text [--column name]] [--export out.xlsx|out.csv] [--summary out.xlsx|out.csv] [--dry-run]
+ *   App --serve [host:]port
+ * </pre>
+ * Uses the same InventoryStore and Excel code as the GUI but never touches
+ * Swing. Spreadsheets go through ImportPipeline: rows are validated on all
+ * cores while the parser keeps reading, and rejected rows are counted (and
+ * listed with --rejects) instead of imported. Timings and
+ * throughput for each step go to stdout. --serve runs an InventoryServer
+ * on the store until the process is stopped.
+ */
+public class InventoryCli {
+
+    private static final Logger LOG = LogManager.getLogger(InventoryCli.class);
+
+    private final IoScheduler scheduler;
+    private final InventoryStore store;
+    private final AssetHistory history; // null if the store doesn't keep one
+    private final PrintStream out;
+
+    private final List<File> imports = new ArrayList<>();
+    private File rejects;
+    private boolean replace;
+    private boolean dedupe;
+    private boolean dryRun;
+    private int findColumn = -1;
+    private String findValue;
+    private String query;
+    private int queryColumn = SearchIndex.ALL_COLUMNS;
+    private File export;
+    private File summary;
+    private InetSocketAddress serve;
+
+    public InventoryCli(IoScheduler scheduler, InventoryStore store, AssetHistory history, PrintStream out) {
+        this.scheduler = scheduler;
+        this.store = store;
+        this.history = history;
+        this.out = out;
+    }
+
+    /**
+     * True if the arguments ask for batch mode rather than the GUI.
+     */
+    public static boolean isBatch(String[] args) {
+        return args.length > 0 && args[0].startsWith("--");
+    }
+
+    /**
+     * Runs the batch and returns the process exit code: 0 on success, 1 if
+     * a step failed, 2 for bad arguments.
+     */
+    public int run(String[] args) {
+        String error = parseArgs(args);
+        if (error != null) {
+            System.err.println(error);
+            printUsage();
+            return 2;
+        }
+        if (serve != null) {
+            return serve();
+        }
+        long start = System.nanoTime();
+        try {
+            long stepStart = System.nanoTime();
+            List<Asset> rows = store.read(0, store.open());
+            stat("load", rows.size(), stepStart);
+            boolean changed = false;
+
+            List<ImportPipeline.Rejection> rejected = new ArrayList<>();
+            for (File file : imports) {
+                stepStart = System.nanoTime();
+                boolean replacing = replace && !changed;
+                // The parser has this thread, the common pool's workers take the other cores
+                ImportPipeline.Result result = ImportPipeline.readXlsx(file, replacing ? null : rows, ForkJoinPool.commonPool(),
+                        (values, progress) -> true);
+                stat("import " + file.getName(), result.assets.size() + result.rejections.size(), stepStart);
+                for (Map.Entry<ImportPipeline.Problem, Integer> count : result.countByProblem().entrySet()) {
+                    out.printf("  %d rows rejected: %s%n", count.getValue(), count.getKey().description);
+                }
+                rejected.addAll(result.rejections);
+                if (result.assets.isEmpty()) {
+                    out.println("  nothing to import");
+                    continue;
+                }
+                stepStart = System.nanoTime();
+                rows = replacing ? result.assets : mergeByAssetTag(rows, result.assets);
+                stat(replacing ? "replace" : "merge", rows.size(), stepStart);
+                changed = true;
+            }
+            if (rejects != null) {
+                ImportPipeline.writeReport(rejects, rejected, (done, total) -> true);
+                out.printf("  %d rejected rows listed in %s%n", rejected.size(), rejects);
+            } else if (!rejected.isEmpty()) {
+                out.println("  use --rejects report.csv to list them");
+            }
+
+            if (dedupe) {
+                stepStart = System.nanoTime();
+                int before = rows.size();
+                rows = dedupe(rows);
+                stat("dedupe", before, stepStart);
+                out.printf("  removed %d duplicate rows%n", before - rows.size());
+                changed |= rows.size() != before;
+            }
+
+            List<Asset> result = rows;
+            if (findValue != null) {
+                stepStart = System.nanoTime();
+                // The store's indexes describe the saved inventory, without this run's changes
+                result = changed ? exactMatches(rows, findColumn, findValue) : store.find(findColumn, findValue);
+                stat("find", rows.size(), stepStart);
+                out.printf("  %d matching rows%n", result.size());
+            }
+            if (query != null) {
+                stepStart = System.nanoTime();
+                int searched = result.size();
+                result = query(result, queryColumn, query);
+                stat("query", searched, stepStart);
+                out.printf("  %d matching rows%n", result.size());
+            }
+
+            if (changed && !dryRun) {
+                stepStart = System.nanoTime();
+                store.replaceAll(Collections.unmodifiableList(rows));
+                recordHistory(rows);
+                stat("save", rows.size(), stepStart); // the files are written by close()
+            }
+
+            if (summary != null) {
+                stepStart = System.nanoTime();
+                InventoryAggregates.write(summary, InventoryAggregates.report(result));
+                stat("summary " + summary.getName(), result.size(), stepStart);
+            }
+            if (export != null) {
+                stepStart = System.nanoTime();
+                InventoryExporter.write(export, result, (done, total) -> true);
+                stat("export " + export.getName(), result.size(), stepStart);
+            } else if (query != null || findValue != null) {
+                for (Asset asset : result) {
+                    out.println(Arrays.stream(asset.toValues()).map(v -> v == null ? "" : v.toString()).collect(Collectors.joining("\t")));
+                }
+            }
+            out.printf("done in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+            return 0;
+        } catch (IOException e) {
+            LOG.error("Batch failed", e);
+            return 1;
+        } finally {
+            scheduler.shutdown();
+            store.close(); // waits for everything to be written
+            if (history != null) {
+                history.close();
+            }
+            Metrics.report(); // the run's timings, for comparing runs from cron
+        }
+    }
+
+    // Movements made by the batch go into the history with the time of the run
+    private void recordHistory(List<Asset> rows) {
+        if (history == null) {
+            return;
+        }
+        try {
+            history.open();
+            history.sync(rows);
+        } catch (IOException e) {
+            LOG.error("Could not update the movement history", e);
+        }
+    }
+
+    // Blocks until the process is stopped; the shutdown hook saves what is pending
+    private int serve() {
+        InventoryServer server = new InventoryServer(store, history, serve);
+        try {
+            if (history != null) {
+                history.open();
+            }
+            int port = server.start();
+            out.printf("serving %d rows on %s:%d%n", server.getRowCount(), serve.getHostString(), port);
+        } catch (IOException e) {
+            LOG.error("Could not start the server", e);
+            scheduler.shutdown();
+            store.close();
+            if (history != null) {
+                history.close();
+            }
+            return 1;
+        }
+        Metrics.gauge("rows", server::getRowCount);
+        Metrics.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            scheduler.shutdown();
+            store.close();
+            if (history != null) {
+                history.close();
+            }
+            Metrics.stop();
+        }, "inventory-shutdown"));
+        try {
+            server.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    private String parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            switch (arg) {
+                case "--import":
+                    if (!hasValue) {
+                        return "--import needs a file";
+                    }
+                    File file = new File(args[++i]);
+                    if (InventoryExporter.isCsv(file)) {
+                        return "Only .xlsx files can be imported: " + file;
+                    }
+                    if (!file.isFile()) {
+                        return "No such file: " + file;
+                    }
+                    imports.add(file);
+                    break;
+                case "--export":
+                    if (!hasValue) {
+                        return "--export needs a file";
+                    }
+                    export = new File(args[++i]);
+                    break;
+                case "--summary":
+                    if (!hasValue) {
+                        return "--summary needs a file";
+                    }
+                    summary = new File(args[++i]);
+                    break;
+                case "--find":
+                    if (!hasValue || args[i + 1].indexOf('=') < 0) {
+                        return "--find needs column=value";
+                    }
+                    String[] find = args[++i].split("=", 2);
+                    findColumn = Arrays.asList(Asset.COLUMN_NAMES).indexOf(find[0]);
+                    findValue = find[1];
+                    if (findColumn < 0) {
+                        return "Unknown column " + find[0] + ", expected one of " + String.join(", ", Asset.COLUMN_NAMES);
+                    }
+                    break;
+                case "--query":
+                    if (!hasValue) {
+                        return "--query needs a search text";
+                    }
+                    query = args[++i];
+                    break;
+                case "--column":
+                    if (!hasValue) {
+                        return "--column needs a column name";
+                    }
+                    queryColumn = Arrays.asList(Asset.COLUMN_NAMES).indexOf(args[++i]);
+                    if (queryColumn < 0) {
+                        return "Unknown column " + args[i] + ", expected one of " + String.join(", ", Asset.COLUMN_NAMES);
+                    }
+                    break;
+                case "--serve":
+                    String address = hasValue ? args[++i] : String.valueOf(SyncProtocol.DEFAULT_PORT);
+                    int colon = address.lastIndexOf(':');
+                    try {
+                        int port = Integer.parseInt(address.substring(colon + 1));
+                        serve = colon > 0 ? new InetSocketAddress(address.substring(0, colon), port) : new InetSocketAddress(port);
+                    } catch (IllegalArgumentException e) {
+                        return "--serve needs [host:]port, got " + address;
+                    }
+                    break;
+                case "--replace":
+                    replace = true;
+                    break;
+                case "--rejects":
+                    if (!hasValue) {
+                        return "--rejects needs a file";
+                    }
+                    rejects = new File(args[++i]);
+                    break;
+                case "--dedupe":
+                    dedupe = true;
+                    break;
+                case "--dry-run":
+                    dryRun = true;
+                    break;
+                default:
+                    return "Unknown option " + arg;
+            }
+        }
+        return null;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: App [--import file.xlsx]... [--replace] [--rejects report.csv] [--dedupe] [--find column=value] [--query text [--column name]] [--export out.xlsx|out.csv] [--summary out.xlsx|out.csv] [--dry-run]");
+        System.err.println("  --replace   imported rows replace the inventory instead of merging by Asset Tag");
+        System.err.println("  --rejects   write the rows that were not imported (bad quantity or date, duplicate tag or serial) to a CSV file");
+        System.err.println("  --dedupe    keep only the last row for each Asset Tag (or Serial, for untagged rows)");
+        System.err.println("  --find      only export (or print) rows where the column equals the value; uses the store's indexes");
+        System.err.println("  --query     only export (or print) rows containing the text");
+        System.err.println("  --summary   write asset counts and quantities by Category, Manufacturer, Physical Location and month received");
+        System.err.println("  --dry-run   don't save the inventory");
+        System.err.println("       App --serve [host:]port");
+        System.err.println("  --serve     share the inventory with desktops started with -Dinventory.server=host:port (default port " + SyncProtocol.DEFAULT_PORT + ")");
+    }
+
+    private void stat(String step, int rows, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        long perSecond = nanos > 0 ? rows * 1_000_000_000L / nanos : 0;
+        out.printf("%-28s %10d rows %8d ms %12d rows/s%n", step, rows, nanos / 1_000_000, perSecond);
+    }
+
+    // Same rule as AssetTableModel.mergeByAssetTag, on plain lists
+    static List<Asset> mergeByAssetTag(List<Asset> existing, List<Asset> incoming) {
+        List<Asset> merged = new ArrayList<>(existing.size() + incoming.size());
+        merged.addAll(existing);
+        Map<String, Integer> rowByTag = new HashMap<>();
+        for (int row = 0; row < merged.size(); row++) {
+            String tag = merged.get(row).getTagKey();
+            if (tag != null) {
+                rowByTag.put(tag, row);
+            }
+        }
+        for (Asset asset : incoming) {
+            String tag = asset.getTagKey();
+            Integer row = tag == null ? null : rowByTag.get(tag);
+            if (row != null) {
+                merged.set(row, asset);
+            } else {
+                merged.add(asset);
+                if (tag != null) {
+                    rowByTag.put(tag, merged.size() - 1);
+                }
+            }
+        }
+        return merged;
+    }
+
+    // Keeps the last row per Asset Tag, or per Serial for rows without a tag,
+    // at the position of the first one. Rows with neither are always kept.
+    static List<Asset> dedupe(List<Asset> rows) {
+        LinkedHashMap<String, Asset> byKey = new LinkedHashMap<>();
+        List<Object> order = new ArrayList<>(rows.size());
+        for (Asset asset : rows) {
+            String key = dedupeKey(asset);
+            if (key == null) {
+                order.add(asset);
+            } else if (byKey.put(key, asset) == null) {
+                order.add(key);
+            }
+        }
+        List<Asset> result = new ArrayList<>(order.size());
+        for (Object entry : order) {
+            result.add(entry instanceof String ? byKey.get(entry) : (Asset) entry);
+        }
+        return result;
+    }
+
+    private static String dedupeKey(Asset asset) {
+        String tag = asset.getTagKey();
+        if (tag != null) {
+            return "tag:" + tag;
+        }
+        String serial = Asset.key(asset.getSerial());
+        return serial == null ? null : "serial:" + serial;
+    }
+
+    private static List<Asset> exactMatches(List<Asset> rows, int column, String value) {
+        String key = value.trim();
+        return rows.stream().filter(asset -> asset.get(column) != null && asset.get(column).toString().trim().equalsIgnoreCase(key))
+                .collect(Collectors.toList());
+    }
+
+    // Case-insensitive substring match like the GUI search, scanned in parallel
+    static List<Asset> query(List<Asset> rows, int column, String text) {
+        String needle = text.trim().toLowerCase(Locale.ROOT);
+        return rows.parallelStream().filter(asset -> {
+            if (column != SearchIndex.ALL_COLUMNS) {
+                return contains(asset.get(column), needle);
+            }
+            for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+                if (contains(asset.get(col), needle)) {
+                    return true;
+                }
+            }
+            return false;
+        }).collect(Collectors.toList());
+    }
+
+    private static boolean contains(Object value, String needle) {
+        return value != null && value.toString().toLowerCase(Locale.ROOT).contains(needle);
+    }
+}
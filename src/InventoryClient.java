@@ -0,0 +1,740 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * InventoryStore backed by an InventoryServer, selected with
+ * -Dinventory.server=host[:port]. Desktops sharing a server see each other's
+ * changes as they happen.
+ *
+ * open() fetches the whole inventory once; after that only row-level
+ * changes travel. Each model change is sent as inserts, updates and
+ * deletes of single rows, based on the row version last heard from the
+ * server, in the background and without waiting for the answer. Results
+ * and other users' changes are applied to the model on the EDT. An edit
+ * that loses a conflict is replaced by the server's values and reported
+ * through the notices callback (see InventoryServer for the rules).
+ *
+ * If the connection drops the table turns read-only while the client
+ * reconnects. It then catches up on the changes it missed, or reloads
+ * everything if changes of its own were lost in between.
+ */
+public class InventoryClient implements InventoryStore {
+
+    private static final Logger LOG = LogManager.getLogger(InventoryClient.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final long RECONNECT_DELAY_MILLIS = 2_000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 30_000;
+    private static final int MAX_CHANGES_PER_MESSAGE = 10_000;
+
+    private final InetSocketAddress address;
+    private final LinkedBlockingQueue<Change> outbox = new LinkedBlockingQueue<>();
+    private volatile Link link; // null while disconnected
+    private volatile boolean closed;
+    private Thread reader;
+    private Thread sender;
+
+    // Guarded by this; once attached, rows only change on the EDT
+    private final List<Row> rows = new ArrayList<>(); // same order as the model
+    private final Map<Long, Row> byId = new HashMap<>(); // inserted rows by temporary id until acknowledged
+    private boolean positionsValid; // Row.position is up to date
+    private List<Asset> loaded = Collections.emptyList(); // what open() returned, for read()
+    private AssetTableModel model;
+    private Consumer<String> notices; // the desktop's, once attached
+    private boolean changedWhileLoading;
+    private List<Op> held = new ArrayList<>(); // other users' ops, applied once attached
+    private boolean applying; // model events caused by the server; not sent back
+    private long nextTemporaryId = -1;
+    private long epoch;
+    private long receivedSeq;
+    private int unacknowledged; // changes sent or queued without a result yet
+    private int discarded; // local changes lost to a dropped connection
+
+    /**
+     * Server address as host or host:port.
+     */
+    public InventoryClient(String server) {
+        int colon = server.lastIndexOf(':');
+        if (colon > 0) {
+            address = InetSocketAddress.createUnresolved(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1)));
+        } else {
+            address = InetSocketAddress.createUnresolved(server, SyncProtocol.DEFAULT_PORT);
+        }
+    }
+
+    @Override
+    public synchronized int open() throws IOException {
+        Link first = connect(0, 0);
+        try {
+            if (first.in.readByte() != SyncProtocol.SNAPSHOT) {
+                throw new IOException("Expected a snapshot from " + address);
+            }
+            replaceRows(readSnapshot(first.in));
+        } catch (IOException e) {
+            first.socket.close();
+            throw e;
+        }
+        loaded = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            loaded.add(row.asset);
+        }
+        link = first;
+        reader = newThread(this::readLoop, "inventory-sync-in");
+        sender = newThread(this::sendLoop, "inventory-sync-out");
+        return loaded.size();
+    }
+
+    @Override
+    public synchronized List<Asset> read(int from, int count) {
+        int end = Math.min(loaded.size(), from + count);
+        return new ArrayList<>(loaded.subList(Math.min(from, end), end));
+    }
+
+    @Override
+    public void attach(AssetTableModel model, Consumer<String> notices) {
+        synchronized (this) {
+            loaded = Collections.emptyList();
+            for (Op op : held) {
+                apply(op);
+                changedWhileLoading = true;
+            }
+            held = new ArrayList<>();
+            this.model = model;
+            this.notices = notices;
+            if (changedWhileLoading) {
+                applying = true;
+                try {
+                    model.replaceAll(assets());
+                } finally {
+                    applying = false;
+                }
+            }
+            if (link == null) {
+                model.setReadOnly(true);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void record(TableModelEvent e, AssetTableModel model) {
+        if (applying) {
+            return;
+        }
+        if (e instanceof AssetTableModel.BatchEvent) {
+            for (TableModelEvent step : ((AssetTableModel.BatchEvent) e).getSteps()) {
+                record(step, model);
+            }
+            return;
+        }
+        Link current = link;
+        if (current == null) {
+            discarded++; // undone by the reload after reconnecting
+            return;
+        }
+        int first = e.getFirstRow();
+        int last = e.getLastRow();
+        if (first == TableModelEvent.HEADER_ROW || last == Integer.MAX_VALUE) {
+            sync(model.snapshot(), current);
+        } else if (e.getType() == TableModelEvent.INSERT) {
+            for (int index = first; index <= last; index++) {
+                Row row = newRow(model.getAsset(index));
+                rows.add(index, row);
+                positionsValid = false;
+                send(current, SyncProtocol.INSERT, row, row.asset);
+            }
+        } else if (e.getType() == TableModelEvent.DELETE) {
+            for (int index = last; index >= first; index--) {
+                Row row = rows.remove(index);
+                byId.remove(row.id);
+                positionsValid = false;
+                send(current, SyncProtocol.DELETE, row, null);
+            }
+        } else {
+            for (int index = first; index <= last; index++) {
+                updated(rows.get(index), model.getAsset(index), current);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void replaceAll(List<Asset> replacement) {
+        Link current = link;
+        if (current == null) {
+            LOG.warn("Not connected to the inventory server at {}, changes not saved", address);
+            return;
+        }
+        sync(replacement, current);
+    }
+
+    @Override
+    public synchronized List<Asset> find(int column, String value) {
+        String key = value.trim();
+        List<Asset> found = new ArrayList<>();
+        for (Row row : rows) {
+            Object cell = row.asset.get(column);
+            if (cell != null && cell.toString().trim().equalsIgnoreCase(key)) {
+                found.add(row.asset);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Waits for the server to confirm every change sent, then disconnects.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+            try {
+                while (unacknowledged > 0 && link != null) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        LOG.warn("{} changes were not confirmed by the inventory server at {}", unacknowledged, address);
+                        break;
+                    }
+                    wait(left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            closed = true;
+        }
+        Link current = link;
+        if (current != null) {
+            closeQuietly(current);
+        }
+        if (reader != null) {
+            reader.interrupt();
+            sender.interrupt();
+        }
+    }
+
+    // Local changes
+
+    // Turns a whole-table change (import, replace) into row changes. Rows
+    // still holding the same Asset are unchanged, rows whose Asset Tag is
+    // still there are updated, the rest are inserted or deleted.
+    private void sync(List<Asset> target, Link current) {
+        Map<Asset, Row> byAsset = new IdentityHashMap<>();
+        Map<String, Row> byTag = new HashMap<>();
+        for (Row row : rows) {
+            byAsset.putIfAbsent(row.asset, row);
+            String tag = row.asset.getTagKey();
+            if (tag != null) {
+                byTag.putIfAbsent(tag, row);
+            }
+        }
+        Set<Row> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Row> next = new ArrayList<>(target.size());
+        for (Asset asset : target) {
+            Row row = byAsset.remove(asset);
+            if (row == null || kept.contains(row)) {
+                String tag = asset.getTagKey();
+                row = tag == null ? null : byTag.get(tag);
+                if (row != null && !kept.contains(row)) {
+                    updated(row, asset, current);
+                } else {
+                    row = newRow(asset);
+                    send(current, SyncProtocol.INSERT, row, asset);
+                }
+            }
+            kept.add(row);
+            next.add(row);
+        }
+        for (Row row : rows) {
+            if (!kept.contains(row)) {
+                byId.remove(row.id);
+                send(current, SyncProtocol.DELETE, row, null);
+            }
+        }
+        rows.clear();
+        rows.addAll(next);
+        positionsValid = false;
+    }
+
+    private Row newRow(Asset asset) {
+        Row row = new Row(nextTemporaryId--, 0, asset);
+        byId.put(row.id, row);
+        return row;
+    }
+
+    private void updated(Row row, Asset asset, Link current) {
+        if (!SyncProtocol.sameValues(row.asset, asset)) {
+            row.asset = asset;
+            send(current, SyncProtocol.UPDATE, row, asset);
+        }
+    }
+
+    private void send(Link current, byte type, Row row, Asset value) {
+        // The base is what the server last said; the server merges any
+        // column this client didn't touch, so resending earlier edits is harmless
+        outbox.add(new Change(current, type, row.id, row.version, row.base, value, current.results));
+        row.pending++;
+        unacknowledged++;
+    }
+
+    private void sendLoop() {
+        List<Change> batch = new ArrayList<>();
+        while (!closed) {
+            try {
+                batch.add(outbox.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            outbox.drainTo(batch, MAX_CHANGES_PER_MESSAGE - 1);
+            Link current = link;
+            batch.removeIf(change -> change.link != current); // queued before the connection dropped
+            if (!batch.isEmpty()) {
+                try {
+                    DataOutputStream out = current.out;
+                    out.writeByte(SyncProtocol.CHANGES);
+                    out.writeLong(batch.get(0).applied); // the oldest change's; later ones saw at least as many
+                    out.writeInt(batch.size());
+                    for (Change change : batch) {
+                        out.writeByte(change.type);
+                        out.writeLong(change.id);
+                        if (change.type == SyncProtocol.INSERT) {
+                            SyncProtocol.writeAsset(out, change.value);
+                        } else if (change.type == SyncProtocol.UPDATE) {
+                            out.writeLong(change.baseVersion);
+                            SyncProtocol.writeAsset(out, change.base);
+                            SyncProtocol.writeAsset(out, change.value);
+                        } else {
+                            out.writeLong(change.baseVersion);
+                        }
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    closeQuietly(current); // the reader notices and reconnects
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    // Server messages
+
+    private void readLoop() {
+        while (!closed) {
+            Link current = link;
+            try {
+                while (true) {
+                    byte type = current.in.readByte();
+                    if (type == SyncProtocol.OPS) {
+                        List<Op> ops = readOps(current.in);
+                        deliver(() -> applyOps(current, ops));
+                    } else if (type == SyncProtocol.SNAPSHOT) {
+                        List<Row> snapshot = readSnapshot(current.in);
+                        deliver(() -> replaceRows(snapshot));
+                    } else {
+                        throw new IOException("Unknown message " + type + " from " + address);
+                    }
+                }
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                disconnected(current, e);
+                Link next = reconnect();
+                if (next != null) {
+                    link = next;
+                    deliver(this::reconnected);
+                }
+            }
+        }
+    }
+
+    private List<Op> readOps(DataInputStream in) throws IOException {
+        int count = SyncProtocol.readCount(in);
+        List<Op> ops = new ArrayList<>(Math.min(count, 1024));
+        int mine = 0;
+        long lastSeq = 0;
+        for (int i = 0; i < count; i++) {
+            Op op = new Op();
+            op.kind = in.readByte();
+            op.mine = in.readByte() == SyncProtocol.MINE;
+            op.seq = in.readLong();
+            op.id = in.readLong();
+            op.version = in.readLong();
+            op.temporaryId = in.readLong();
+            if (op.kind == SyncProtocol.UPSERT || op.kind == SyncProtocol.REJECT && in.readBoolean()) {
+                op.asset = SyncProtocol.readAsset(in);
+            }
+            ops.add(op);
+            mine += op.mine ? 1 : 0;
+            lastSeq = op.seq != 0 ? op.seq : lastSeq;
+        }
+        synchronized (this) {
+            unacknowledged -= mine;
+            receivedSeq = lastSeq != 0 ? lastSeq : receivedSeq;
+            notifyAll(); // close() waits for the acknowledgements
+        }
+        return ops;
+    }
+
+    private List<Row> readSnapshot(DataInputStream in) throws IOException {
+        long snapshotEpoch = in.readLong();
+        long snapshotSeq = in.readLong();
+        int count = SyncProtocol.readCount(in);
+        List<Row> snapshot = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = in.readLong();
+            long version = in.readLong();
+            snapshot.add(new Row(id, version, SyncProtocol.readAsset(in)));
+        }
+        synchronized (this) {
+            epoch = snapshotEpoch;
+            receivedSeq = snapshotSeq;
+        }
+        return snapshot;
+    }
+
+    // Runs the update on the EDT once a model is attached, right away before
+    // that. Until then only this client's own results are applied, so that
+    // replaceAll() compares against what read() returned.
+    private void deliver(Runnable update) {
+        synchronized (this) {
+            if (model == null) {
+                update.run();
+                changedWhileLoading = true;
+                return;
+            }
+        }
+        SwingUtilities.invokeLater(update);
+    }
+
+    private synchronized void applyOps(Link from, List<Op> ops) {
+        int rejected = 0;
+        applying = true;
+        try {
+            for (Op op : ops) {
+                from.results += op.mine ? 1 : 0;
+                if (model == null && !op.mine) {
+                    held.add(op);
+                } else if (!apply(op)) {
+                    rejected++;
+                }
+            }
+        } finally {
+            applying = false;
+        }
+        if (rejected > 0) {
+            notice(rejected + (rejected == 1 ? " change conflicts" : " changes conflict")
+                    + " with changes by other users and " + (rejected == 1 ? "was" : "were") + " replaced by the saved values.");
+        }
+    }
+
+    // False if the op rejects a change of ours
+    private boolean apply(Op op) {
+        Row row = byId.get(op.temporaryId != 0 ? op.temporaryId : op.id);
+        if (op.kind == SyncProtocol.UPSERT) {
+            upserted(row, op);
+        } else if (op.kind == SyncProtocol.REMOVED) {
+            if (row != null) {
+                removeRow(row); // someone else's delete, or ours of a row a rejection brought back
+            }
+        } else {
+            rejected(row, op);
+            return false;
+        }
+        return true;
+    }
+
+    private void upserted(Row row, Op op) {
+        if (row == null) {
+            if (!op.mine) {
+                addRow(new Row(op.id, op.version, op.asset)); // someone else's insert
+            }
+            return; // ours, of a row deleted here meanwhile
+        }
+        if (op.temporaryId != 0 && row.id != op.id) {
+            // Our insert is acknowledged. If its Asset Tag already existed the
+            // server merged it into that row, which is shown here separately.
+            Row merged = byId.get(op.id);
+            if (merged != null) {
+                row.pending += merged.pending; // results for it now come to this row
+                removeRow(merged);
+            }
+            byId.remove(row.id);
+            row.id = op.id;
+            byId.put(row.id, row);
+        }
+        if (op.mine) {
+            unpend(row);
+        }
+        row.version = op.version;
+        row.base = op.asset;
+        if (row.pending == 0) {
+            show(row, op.asset); // a later edit of ours is still on its way otherwise
+        }
+    }
+
+    private void rejected(Row row, Op op) {
+        if (row == null) {
+            if (op.asset != null && !byId.containsKey(op.id)) {
+                addRow(new Row(op.id, op.version, op.asset)); // a refused delete: bring the row back
+            }
+            return;
+        }
+        unpend(row);
+        if (op.asset == null) {
+            removeRow(row); // deleted by someone else
+            return;
+        }
+        row.version = op.version;
+        row.base = op.asset;
+        if (row.pending == 0) {
+            show(row, op.asset);
+        }
+    }
+
+    // A result may be for a copy of the row deleted here and since brought
+    // back by someone else's change, which has nothing pending
+    private static void unpend(Row row) {
+        if (row.pending > 0) {
+            row.pending--;
+        }
+    }
+
+    private synchronized void replaceRows(List<Row> snapshot) {
+        rows.clear();
+        byId.clear();
+        held.clear();
+        rows.addAll(snapshot);
+        for (Row row : rows) {
+            byId.put(row.id, row);
+        }
+        positionsValid = false;
+        if (model != null) {
+            applying = true;
+            try {
+                model.replaceAll(assets());
+            } finally {
+                applying = false;
+            }
+        }
+        if (discarded > 0) {
+            notice(discarded + " changes made while disconnected from the inventory server were lost.");
+            discarded = 0;
+        }
+    }
+
+    private void addRow(Row row) {
+        if (positionsValid) {
+            row.position = rows.size();
+        }
+        rows.add(row);
+        byId.put(row.id, row);
+        if (model != null) {
+            model.addAsset(row.asset);
+        }
+    }
+
+    private void removeRow(Row row) {
+        int position = positionOf(row);
+        rows.remove(position);
+        byId.remove(row.id, row);
+        positionsValid = false;
+        if (model != null) {
+            model.removeRow(position);
+        }
+    }
+
+    private void show(Row row, Asset asset) {
+        row.asset = asset;
+        if (model != null) {
+            int position = positionOf(row);
+            if (!SyncProtocol.sameValues(model.getAsset(position), asset)) {
+                model.setAsset(position, asset);
+            }
+        }
+    }
+
+    private int positionOf(Row row) {
+        if (!positionsValid) {
+            for (int i = 0; i < rows.size(); i++) {
+                rows.get(i).position = i;
+            }
+            positionsValid = true;
+        }
+        return row.position;
+    }
+
+    private List<Asset> assets() {
+        List<Asset> assets = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            assets.add(row.asset);
+        }
+        return assets;
+    }
+
+    // Logged, and shown to the user if there is a desktop
+    private void notice(String message) {
+        LOG.warn(message);
+        if (model != null) {
+            SwingUtilities.invokeLater(() -> notices.accept(message));
+        }
+    }
+
+    // Connection
+
+    private Link connect(long resumeEpoch, long resumeSeq) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            Link connected = new Link(socket);
+            connected.out.writeByte(SyncProtocol.HELLO);
+            connected.out.writeInt(SyncProtocol.PROTOCOL);
+            connected.out.writeLong(resumeEpoch);
+            connected.out.writeLong(resumeSeq);
+            connected.out.flush();
+            return connected;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void disconnected(Link lost, IOException cause) {
+        closeQuietly(lost);
+        synchronized (this) {
+            link = null;
+            outbox.clear();
+            discarded += unacknowledged; // unknown whether the server got them; reload to find out
+            unacknowledged = 0;
+            notifyAll();
+        }
+        deliver(() -> {
+            if (model != null) {
+                model.setReadOnly(true);
+            }
+            notice("Lost the connection to the inventory server at " + address + " (" + cause.getMessage() + "). Reconnecting...");
+        });
+    }
+
+    private Link reconnect() {
+        while (!closed) {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            long resumeEpoch;
+            long resumeSeq;
+            synchronized (this) {
+                resumeEpoch = discarded > 0 ? 0 : epoch; // 0 asks for a full reload
+                resumeSeq = receivedSeq;
+            }
+            try {
+                return connect(resumeEpoch, resumeSeq);
+            } catch (IOException e) {
+                // server still down, keep trying
+            }
+        }
+        return null;
+    }
+
+    private synchronized void reconnected() {
+        if (model != null) {
+            model.setReadOnly(false);
+        }
+        notice("Reconnected to the inventory server at " + address + ".");
+    }
+
+    private static void closeQuietly(Link link) {
+        try {
+            link.socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private static Thread newThread(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private static class Link {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        long results; // guarded by the client: own results applied, sent with each change
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+    }
+
+    private static class Row {
+        long id; // negative: temporary, until the server acknowledges the insert
+        long version; // as last heard from the server
+        Asset base; // the values at that version
+        Asset asset; // the values shown, including edits not acknowledged yet
+        int pending; // changes to this row sent without a result yet
+        int position;
+
+        Row(long id, long version, Asset asset) {
+            this.id = id;
+            this.version = version;
+            this.base = asset;
+            this.asset = asset;
+        }
+    }
+
+    private static class Change {
+        final Link link;
+        final byte type;
+        final long id;
+        final long baseVersion;
+        final Asset base;
+        final Asset value;
+        final long applied; // link's results when the change was made
+
+        Change(Link link, byte type, long id, long baseVersion, Asset base, Asset value, long applied) {
+            this.link = link;
+            this.type = type;
+            this.id = id;
+            this.baseVersion = baseVersion;
+            this.base = base;
+            this.value = value;
+            this.applied = applied;
+        }
+    }
+
+    private static class Op {
+        byte kind;
+        boolean mine;
+        long seq;
+        long id;
+        long version;
+        long temporaryId;
+        Asset asset;
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Writes inventory rows to XLSX or CSV without holding the whole workbook
+ * in memory.
+ *
+ * XLSX goes through SXSSF: only ROW_WINDOW rows are kept in memory, older
+ * rows are flushed to a compressed temp file, so heap use stays flat as the
+ * row count grows. CSV is a plain streaming writer for exports that don't
+ * need Excel formatting.
+ */
+public class InventoryExporter {
+
+    private static final int ROW_WINDOW = 200;
+    private static final Metrics.Timer EXPORT_TIMER = Metrics.timer("export");
+
+    /**
+     * Called after each row; returning false stops the export.
+     */
+    public interface Progress {
+        boolean rowWritten(int rowsDone, int totalRows);
+    }
+
+    private InventoryExporter() {
+    }
+
+    public static boolean isCsv(File file) {
+        return file.getName().toLowerCase().endsWith(".csv");
+    }
+
+    /**
+     * Returns false if the export was stopped by the progress callback. The
+     * rows go to a temp file next to file that replaces it once complete, so
+     * a stopped or failed export leaves no partial file (and keeps an older
+     * one).
+     */
+    public static boolean write(File file, List<Asset> rows, Progress progress) throws IOException {
+        long start = System.nanoTime();
+        File tmp = new File(file.getPath() + ".tmp");
+        boolean finished = false;
+        try {
+            if (isCsv(file) ? writeCsv(tmp, rows, progress) : writeXlsx(tmp, rows, progress)) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                finished = true;
+                EXPORT_TIMER.since(start);
+            }
+        } finally {
+            if (!finished) {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
+        return finished;
+    }
+
+    public static boolean writeXlsx(File file, List<Asset> rows, Progress progress) throws IOException {
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW)) { // close() also deletes the temp files
+            workbook.setCompressTempFiles(true);
+            Sheet sheet = workbook.createSheet("Inventory");
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+
+            Row headerRow = sheet.createRow(0);
+            for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+                headerRow.createCell(col).setCellValue(Asset.COLUMN_NAMES[col]);
+            }
+
+            for (int row = 0; row < rows.size(); row++) {
+                Row excelRow = sheet.createRow(row + 1);
+                Asset asset = rows.get(row);
+                for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+                    setCell(excelRow, col, asset.get(col), dateStyle);
+                }
+                if (!progress.rowWritten(row + 1, rows.size())) {
+                    return false;
+                }
+            }
+
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                workbook.write(fos);
+            }
+            return true;
+        }
+    }
+
+    public static boolean writeCsv(File file, List<Asset> rows, Progress progress) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            writeCsvLine(out, Asset.COLUMN_NAMES);
+            for (int row = 0; row < rows.size(); row++) {
+                writeCsvLine(out, rows.get(row).toValues());
+                if (!progress.rowWritten(row + 1, rows.size())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Quantity is numeric and the dates are real date cells; empty values get no cell
+    private static void setCell(Row excelRow, int col, Object value, CellStyle dateStyle) {
+        if (value instanceof Integer) {
+            excelRow.createCell(col).setCellValue((Integer) value);
+        } else if (value instanceof LocalDate) {
+            Cell cell = excelRow.createCell(col);
+            cell.setCellValue((LocalDate) value);
+            cell.setCellStyle(dateStyle);
+        } else if (value != null && !value.toString().isEmpty()) {
+            excelRow.createCell(col).setCellValue(value.toString());
+        }
+    }
+
+    static void writeCsvLine(Writer out, Object[] values) throws IOException {
+        for (int col = 0; col < values.length; col++) {
+            if (col > 0) {
+                out.write(',');
+            }
+            Object value = values[col];
+            if (value != null) {
+                writeCsvField(out, value.toString());
+            }
+        }
+        out.write("\r\n");
+    }
+
+    private static void writeCsvField(Writer out, String field) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(field);
+            return;
+        }
+        out.write('"');
+        out.write(field.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Reads the first sheet of an XLSX file as a stream of rows.
+ *
+ * The sheet XML is parsed with SAX through XSSFReader and the shared strings
+ * come from the read-only (SAX parsed) table, so no workbook DOM is built and
+ * memory use does not depend on the size of the sheet. Cell values are
+ * formatted by DataFormatter the way Excel shows them, so whole numbers come
+ * back as "3" rather than "3.0".
+ */
+public class InventoryImporter {
+
+    /**
+     * Receives each data row (the header row is skipped) and the fraction of
+     * the sheet read so far. Returning false stops the import.
+     */
+    public interface RowHandler {
+        boolean row(String[] values, double progress);
+    }
+
+    /**
+     * Like RowHandler, with the row number Excel shows for the row (the
+     * header is row 1).
+     */
+    public interface NumberedRowHandler {
+        boolean row(int rowNumber, String[] values, double progress);
+    }
+
+    private InventoryImporter() {
+    }
+
+    /**
+     * Returns false if the import was stopped by the handler.
+     */
+    public static boolean readXlsx(File file, int columnCount, RowHandler handler) throws IOException {
+        return readXlsx(file, columnCount, (rowNumber, values, progress) -> handler.row(values, progress));
+    }
+
+    public static boolean readXlsx(File file, int columnCount, NumberedRowHandler handler) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg, true);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return true;
+            }
+            try (InputStream sheetData = sheets.next()) {
+                long size = sheets.getSheetPart().getSize();
+                CountingInputStream counted = new CountingInputStream(sheetData);
+                RowCollector collector = new RowCollector(columnCount, handler, counted, size);
+
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(), reader.getSharedStringsTable(),
+                        collector, new DataFormatter(), false));
+                try {
+                    parser.parse(new InputSource(counted));
+                } catch (StopParsing e) {
+                    return false;
+                }
+                return true;
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Unreadable Excel file " + file.getName(), e);
+        }
+    }
+
+    private static class RowCollector implements SheetContentsHandler {
+        private final int columnCount;
+        private final NumberedRowHandler handler;
+        private final CountingInputStream counted;
+        private final long size;
+        private String[] current;
+        private int nextColumn;
+        private boolean header;
+
+        RowCollector(int columnCount, NumberedRowHandler handler, CountingInputStream counted, long size) {
+            this.columnCount = columnCount;
+            this.handler = handler;
+            this.counted = counted;
+            this.size = size;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            header = rowNum == 0;
+            current = new String[columnCount];
+            nextColumn = 0;
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int col = cellReference != null ? new CellReference(cellReference).getCol() : nextColumn;
+            nextColumn = col + 1;
+            if (col < columnCount) {
+                current[col] = formattedValue;
+            }
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (header) {
+                return; // Skip header row
+            }
+            for (int col = 0; col < columnCount; col++) {
+                if (current[col] == null) {
+                    current[col] = "";
+                }
+            }
+            double progress = size > 0 ? Math.min(1.0, (double) counted.count / size) : 0;
+            if (!handler.row(rowNum + 1, current, progress)) {
+                throw new StopParsing();
+            }
+        }
+    }
+
+    private static class StopParsing extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StopParsing() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import javax.swing.event.TableModelEvent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append-only write-ahead log for the inventory table.
+ *
+ * Every table change is written as a small record (the row key plus the
+ * column values that changed) instead of rewriting the whole table. Records
+ * are encoded on the calling thread and written on the IoScheduler's I/O
+ * thread; a burst of edits within FLUSH_DELAY_MILLIS becomes one write and
+ * one fsync. When the log grows past COMPACT_THRESHOLD records it is folded
+ * into the snapshot file and truncated.
+ *
+ * The row key is the model row index at the time of the change. Records are
+ * replayed strictly in order, so index shifts from earlier inserts and
+ * deletes are reproduced exactly.
+ *
+ * As an InventoryStore it keeps a list of the current rows (references to
+ * the model's immutable Assets) to answer read() and find().
+ */
+public class InventoryJournal implements InventoryStore {
+
+    private static final Logger LOG = LogManager.getLogger(InventoryJournal.class);
+    private static final Metrics.Timer WRITE_TIMER = Metrics.timer("store.write");
+    private static final Metrics.Timer SNAPSHOT_TIMER = Metrics.timer("store.snapshot");
+
+    private static final int COMPACT_THRESHOLD = 10_000;
+    private static final long FLUSH_DELAY_MILLIS = 200;
+
+    private static final byte OP_INSERT = 1;
+    private static final byte OP_UPDATE = 2;
+    private static final byte OP_DELETE = 3;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_LOCAL_DATE = 2;
+    private static final byte TYPE_DATE = 3;
+    private static final byte TYPE_INT = 4;
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final IoScheduler scheduler;
+
+    // Items are either an encoded record (byte[]) or a Snapshot to write
+    private final LinkedBlockingQueue<Object> pending = new LinkedBlockingQueue<>();
+    private final List<Object> unwritten = new ArrayList<>(); // failed writes, I/O thread only
+
+    private FileChannel channel; // only touched by the I/O thread after load()
+    private long nextSeq = 1; // only touched by the thread that owns the model
+    private int recordsSinceSnapshot = 0;
+    private final List<Asset> current = new ArrayList<>(); // guarded by itself
+
+    public InventoryJournal(File snapshotFile, File journalFile, IoScheduler scheduler) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public int open() throws IOException {
+        List<Asset> loaded = load();
+        synchronized (current) {
+            current.clear();
+            current.addAll(loaded);
+            return current.size();
+        }
+    }
+
+    @Override
+    public List<Asset> read(int from, int count) {
+        synchronized (current) {
+            int end = Math.min(current.size(), from + count);
+            return from >= end ? new ArrayList<>() : new ArrayList<>(current.subList(from, end));
+        }
+    }
+
+    @Override
+    public List<Asset> find(int column, String value) {
+        String key = value.trim();
+        List<Asset> found = new ArrayList<>();
+        synchronized (current) {
+            for (Asset asset : current) {
+                Object cell = asset.get(column);
+                if (cell != null && cell.toString().trim().equalsIgnoreCase(key)) {
+                    found.add(asset);
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void replaceAll(List<Asset> replacement) {
+        snapshot(replacement);
+    }
+
+    /**
+     * Reads the snapshot, replays the journal on top of it and opens the
+     * journal for appending. Must be called once, before any record().
+     */
+    public List<Asset> load() throws IOException {
+        List<Asset> rows = new ArrayList<>();
+        long snapshotSeq = 0;
+        if (snapshotFile.exists()) {
+            SnapshotFile.Contents contents = SnapshotFile.read(snapshotFile);
+            rows = contents.rows;
+            snapshotSeq = contents.seq;
+        }
+        nextSeq = snapshotSeq + 1;
+
+        long validLength = 0;
+        if (journalFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+                while (true) {
+                    byte[] payload = readRecord(in);
+                    if (payload == null) {
+                        break; // end of log, or a torn write from a crash
+                    }
+                    validLength += 8 + payload.length;
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                    long seq = record.readLong();
+                    if (seq > snapshotSeq) {
+                        replay(record, rows);
+                        recordsSinceSnapshot++;
+                    }
+                    nextSeq = Math.max(nextSeq, seq + 1);
+                }
+            }
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        channel = raf.getChannel();
+        channel.truncate(validLength); // drop a partially written tail record
+        channel.position(validLength);
+        return rows;
+    }
+
+    /**
+     * Appends the change described by the event. Called from the model's
+     * listener on the EDT; only the changed rows are read and encoded.
+     */
+    @Override
+    public void record(TableModelEvent e, AssetTableModel model) {
+        if (e instanceof AssetTableModel.BatchEvent) {
+            for (TableModelEvent step : ((AssetTableModel.BatchEvent) e).getSteps()) {
+                append(step, model);
+            }
+        } else if (e.getFirstRow() == TableModelEvent.HEADER_ROW || e.getLastRow() == Integer.MAX_VALUE) {
+            snapshot(model); // structure or whole-table change
+            return;
+        } else {
+            append(e, model);
+        }
+        // Not between a batch's steps: the snapshot has all of them
+        if (recordsSinceSnapshot >= COMPACT_THRESHOLD) {
+            snapshot(model);
+        }
+    }
+
+    private void append(TableModelEvent e, AssetTableModel model) {
+        int first = e.getFirstRow();
+        int last = e.getLastRow();
+        mirror(e.getType(), first, last, model);
+        try {
+            switch (e.getType()) {
+                case TableModelEvent.INSERT:
+                    for (int row = first; row <= last; row++) {
+                        DataOutputStream out = begin(OP_INSERT, row);
+                        Asset asset = model.getAsset(row);
+                        out.writeInt(Asset.COLUMN_COUNT);
+                        for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+                            writeValue(out, asset.get(col));
+                        }
+                        append();
+                    }
+                    break;
+                case TableModelEvent.DELETE:
+                    begin(OP_DELETE, first).writeInt(last);
+                    append();
+                    break;
+                default:
+                    if (e.getColumn() == TableModelEvent.ALL_COLUMNS) {
+                        for (int row = first; row <= last; row++) {
+                            Asset asset = model.getAsset(row);
+                            for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+                                appendUpdate(row, col, asset.get(col));
+                            }
+                        }
+                    } else {
+                        for (int row = first; row <= last; row++) {
+                            appendUpdate(row, e.getColumn(), model.getValueAt(row, e.getColumn()));
+                        }
+                    }
+                    break;
+            }
+        } catch (IOException ex) {
+            LOG.error("Could not encode a change", ex); // in-memory streams, not expected
+        }
+    }
+
+    /**
+     * Queues a full snapshot of the model. Only the list of (immutable)
+     * assets is copied on the calling thread; the write and journal
+     * truncation happen in the background after every record queued before
+     * it.
+     */
+    public void snapshot(AssetTableModel model) {
+        snapshot(model.snapshot());
+    }
+
+    /**
+     * Same, for callers that hold the rows themselves (the batch CLI). The
+     * list must not be changed afterwards.
+     */
+    public void snapshot(List<Asset> snapshot) {
+        synchronized (current) {
+            current.clear();
+            current.addAll(snapshot);
+        }
+        recordsSinceSnapshot = 0;
+        enqueue(new Snapshot(snapshot, nextSeq - 1));
+    }
+
+    private void mirror(int type, int first, int last, AssetTableModel model) {
+        synchronized (current) {
+            if (type == TableModelEvent.INSERT) {
+                List<Asset> inserted = new ArrayList<>(last - first + 1);
+                for (int row = first; row <= last; row++) {
+                    inserted.add(model.getAsset(row));
+                }
+                current.addAll(first, inserted);
+            } else if (type == TableModelEvent.DELETE) {
+                current.subList(first, last + 1).clear();
+            } else {
+                for (int row = first; row <= last; row++) {
+                    current.set(row, model.getAsset(row));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes everything still queued and closes the journal. The scheduler
+     * must already be shut down.
+     */
+    @Override
+    public void close() {
+        flush(); // anything queued after the last scheduled flush
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOG.error("Could not close {}", journalFile, e);
+        }
+    }
+
+    // Record encoding
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+
+    private DataOutputStream begin(byte op, int row) throws IOException {
+        buffer.reset();
+        bufferOut.writeLong(nextSeq++);
+        bufferOut.writeByte(op);
+        bufferOut.writeInt(row);
+        return bufferOut;
+    }
+
+    private void appendUpdate(int row, int col, Object value) throws IOException {
+        DataOutputStream out = begin(OP_UPDATE, row);
+        out.writeInt(col);
+        writeValue(out, value);
+        append();
+    }
+
+    private void append() {
+        recordsSinceSnapshot++;
+        enqueue(buffer.toByteArray());
+    }
+
+    private void enqueue(Object item) {
+        pending.add(item);
+        scheduler.coalesce(this, this::flush, item instanceof Snapshot ? 0 : FLUSH_DELAY_MILLIS);
+    }
+
+    static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof LocalDate) {
+            out.writeByte(TYPE_LOCAL_DATE);
+            out.writeLong(((LocalDate) value).toEpochDay());
+        } else if (value instanceof java.util.Date) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((java.util.Date) value).getTime());
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            out.writeInt((Integer) value);
+        } else {
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(TYPE_STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_LOCAL_DATE:
+                return LocalDate.ofEpochDay(in.readLong());
+            case TYPE_DATE:
+                return new java.util.Date(in.readLong());
+            case TYPE_INT:
+                return in.readInt();
+            case TYPE_STRING:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    // I/O thread
+
+    private synchronized void flush() {
+        List<Object> batch = new ArrayList<>(unwritten);
+        unwritten.clear();
+        pending.drainTo(batch);
+        // A snapshot already contains every record queued before it, so only
+        // the newest snapshot and what follows it need writing
+        int start = 0;
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            if (batch.get(i) instanceof Snapshot) {
+                start = i;
+                break;
+            }
+        }
+        if (batch.isEmpty() || channel == null) {
+            return;
+        }
+        int kept = 0; // nothing before this is durable yet
+        long mark = 0;
+        try {
+            mark = channel.position();
+            long written = System.nanoTime();
+            boolean dirty = false;
+            for (int i = start; i < batch.size(); i++) {
+                Object item = batch.get(i);
+                if (item instanceof Snapshot) {
+                    long snapshotStart = System.nanoTime();
+                    writeSnapshot((Snapshot) item);
+                    SNAPSHOT_TIMER.since(snapshotStart);
+                    kept = i + 1;
+                    mark = 0;
+                    written = System.nanoTime();
+                } else {
+                    writeRecord((byte[]) item);
+                    dirty = true;
+                }
+            }
+            if (dirty) {
+                channel.force(false); // one fsync for the whole batch
+                WRITE_TIMER.since(written);
+            }
+        } catch (IOException e) {
+            // Keep everything that isn't on disk yet, including the records a
+            // failed snapshot would have replaced, and try again on the next
+            // flush. The old snapshot and journal are still valid meanwhile.
+            LOG.error("Could not write to {}, will retry", journalFile, e);
+            unwritten.addAll(batch.subList(kept, batch.size()));
+            try {
+                channel.truncate(mark); // no half-written records before the retry
+                channel.position(mark);
+            } catch (IOException ignored) {
+                // replay stops at a torn record anyway
+            }
+        }
+    }
+
+    private void writeRecord(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buf = ByteBuffer.allocate(8 + payload.length);
+        buf.putInt(payload.length);
+        buf.putInt((int) crc.getValue());
+        buf.put(payload);
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private void writeSnapshot(Snapshot snapshot) throws IOException {
+        SnapshotFile.write(snapshotFile, snapshot.rows, snapshot.seq);
+        // Records up to snapshot.seq are now in the snapshot; a crash before the
+        // truncate is harmless since replay skips them by sequence number
+        channel.truncate(0);
+        channel.position(0);
+    }
+
+    // Replay
+
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        int checksum;
+        try {
+            length = in.readInt();
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > 64 * 1024 * 1024) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        try {
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    private void replay(DataInputStream record, List<Asset> rows) throws IOException {
+        byte op = record.readByte();
+        int row = record.readInt();
+        switch (op) {
+            case OP_INSERT:
+                int count = record.readInt();
+                Object[] values = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    values[i] = readValue(record);
+                }
+                rows.add(Math.min(row, rows.size()), Asset.fromValues(values));
+                break;
+            case OP_UPDATE:
+                int col = record.readInt();
+                Object value = readValue(record);
+                if (row < rows.size() && col < Asset.COLUMN_COUNT) {
+                    rows.set(row, rows.get(row).with(col, value));
+                }
+                break;
+            case OP_DELETE:
+                int last = Math.min(record.readInt(), rows.size() - 1);
+                if (row <= last) {
+                    rows.subList(row, last + 1).clear();
+                }
+                break;
+            default:
+                throw new IOException("Unknown journal op " + op);
+        }
+    }
+
+    private static class Snapshot {
+        final List<Asset> rows;
+        final long seq;
+
+        Snapshot(List<Asset> rows, long seq) {
+            this.rows = rows;
+            this.seq = seq;
+        }
+    }
+}
@@ -0,0 +1,677 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Shared inventory server, started with App --serve [host:]port. Owns the
+ * inventory, kept in the usual InventoryStore, for any number of desktop
+ * clients (InventoryClient); the wire format is in SyncProtocol.
+ *
+ * A client gets the whole inventory once, then only row-level changes.
+ * Every row has an id and a version that goes up with each change. One
+ * writer thread applies all changes, taking whatever requests queued up
+ * meanwhile as one batch: the batch is saved through the store, whose
+ * background flush turns it into one write, and each client gets one
+ * message with the batch's results.
+ *
+ * Conflicts are resolved per row, keyed on Asset Tag:
+ * - An update based on an older version is merged column by column with
+ *   the changes made since. It is rejected only if both sides changed the
+ *   same column to different values.
+ * - Updates of a row that is gone are rejected, and so are deletes of a
+ *   row someone else changed since the client saw it.
+ * - Asset Tags stay unique. An insert whose tag exists updates that row
+ *   instead, like an import merging by Asset Tag, and an update that would
+ *   give a row another row's tag is rejected.
+ * A rejected client gets the row's current values back.
+ *
+ * Each connection has a reader and a writer thread from a cached pool. A
+ * client that falls OUTBOX_LIMIT messages behind is disconnected and
+ * catches up when it reconnects. There is no authentication, so only bind
+ * to a trusted network.
+ */
+public class InventoryServer {
+
+    private static final Logger LOG = LogManager.getLogger(InventoryServer.class);
+
+    private static final int MAX_BATCH = 1_000; // requests applied and sent as one batch
+    private static final int LOG_SIZE = 100_000; // recent ops kept for clients that reconnect
+    private static final int OUTBOX_LIMIT = 1_000; // messages queued for one client
+    private static final Request STOP = new Request(null, null);
+    private static final Object CLOSED = new Object();
+
+    private final InventoryStore store;
+    private final AssetHistory history;
+    private final InetSocketAddress address;
+    private final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "inventory-server");
+        t.setDaemon(true);
+        return t;
+    });
+    private final LinkedBlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final long epoch = 1 + (new Random().nextLong() >>> 1); // never 0, which clients send when they have nothing yet
+    private ServerSocket serverSocket;
+    private Thread writer;
+
+    // Writer thread only. The model is confined to the writer thread rather
+    // than the EDT here; its listener saves every change to the store.
+    private final AssetTableModel model = new AssetTableModel();
+    private final List<Row> rows = new ArrayList<>(); // same order as the model
+    private final Map<Long, Row> byId = new HashMap<>();
+    private final Map<String, Row> byTag = new HashMap<>();
+    private final ArrayDeque<Result> log = new ArrayDeque<>(); // ops seq - log.size() + 1 through seq
+    private long seq;
+    private long nextId = 1;
+
+    /**
+     * history, if not null, must be open; it records every change from then on.
+     */
+    public InventoryServer(InventoryStore store, AssetHistory history, InetSocketAddress address) {
+        this.store = store;
+        this.history = history;
+        this.address = address;
+    }
+
+    /**
+     * Loads the inventory from the store and starts accepting clients.
+     * Returns the port, which the system picks if the address has port 0.
+     */
+    public int start() throws IOException {
+        int count = store.open();
+        model.addAssets(store.read(0, count));
+        for (int index = 0; index < count; index++) {
+            Row row = new Row(nextId++, index, model.getAsset(index));
+            rows.add(row);
+            byId.put(row.id, row);
+            indexTag(row);
+        }
+        model.addTableModelListener(e -> store.record(e, model));
+        if (history != null) {
+            history.sync(model.snapshot());
+            model.addTableModelListener(e -> history.record(e, model));
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address, 256);
+        writer = new Thread(this::applyLoop, "inventory-server-writer");
+        writer.setDaemon(true);
+        writer.start();
+        threads.execute(this::acceptLoop);
+        return serverSocket.getLocalPort();
+    }
+
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    /** Waits until the server is stopped. */
+    public void join() throws InterruptedException {
+        writer.join();
+    }
+
+    /**
+     * Disconnects everyone and waits for the changes already received to be
+     * applied. The store is left open.
+     */
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close the server socket", e);
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        requests.add(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        threads.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                threads.execute(connection::readLoop);
+                threads.execute(connection::writeLoop);
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOG.error("Could not accept a connection", e);
+                }
+            }
+        }
+    }
+
+    // Writer thread
+
+    private void applyLoop() {
+        List<Request> batch = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(requests.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            requests.drainTo(batch, MAX_BATCH - 1);
+            for (Request request : batch) {
+                if (request == STOP) {
+                    send(results);
+                    return;
+                }
+                if (request.changes == null) {
+                    // Everything before the hello goes out first, so the snapshot or
+                    // missed ops line up with what the client is sent afterwards
+                    send(results);
+                    results.clear();
+                    hello(request);
+                    continue;
+                }
+                try {
+                    forget(request.from, request.applied);
+                    for (Change change : request.changes) {
+                        results.add(apply(request.from, change));
+                    }
+                } catch (RuntimeException e) {
+                    LOG.error("Could not apply changes from {}, disconnecting it", request.from.socket.getRemoteSocketAddress(), e);
+                    request.from.close();
+                }
+            }
+            send(results);
+            batch.clear();
+            results.clear();
+        }
+    }
+
+    private void hello(Request request) {
+        Connection connection = request.from;
+        if (request.epoch == epoch && request.seq <= seq && request.seq >= seq - log.size()) {
+            List<Result> missed = new ArrayList<>();
+            for (Result result : log) {
+                if (result.seq > request.seq) {
+                    missed.add(result);
+                }
+            }
+            byte[] message = encode(missed, null);
+            if (message != null) {
+                connection.send(message);
+            }
+        } else {
+            connection.send(new Snapshot(epoch, seq, rows));
+        }
+        connection.subscribed = true;
+    }
+
+    private Result apply(Connection from, Change change) {
+        from.results++;
+        switch (change.type) {
+            case SyncProtocol.INSERT:
+                return insert(from, change);
+            case SyncProtocol.UPDATE:
+                return update(from, change);
+            default:
+                return delete(from, change);
+        }
+    }
+
+    private Result insert(Connection from, Change change) {
+        String tag = change.value.getTagKey();
+        Row row = tag == null ? null : byTag.get(tag);
+        long opSeq;
+        if (row != null) {
+            opSeq = change(from, row, change.value); // the tag exists: the newer values win, as in an import
+        } else {
+            row = new Row(nextId++, rows.size(), change.value);
+            rows.add(row);
+            byId.put(row.id, row);
+            indexTag(row);
+            model.addAsset(row.asset);
+            opSeq = ++seq;
+        }
+        from.temporaryIds.put(change.id, new long[] {row.id, row.version, from.results});
+        from.inserts.add(change.id);
+        return logged(new Result(from, SyncProtocol.UPSERT, opSeq, row.id, row.version, change.id, row.asset));
+    }
+
+    private Result update(Connection from, Change change) {
+        Row row = resolve(from, change);
+        if (row == null) {
+            return new Result(from, SyncProtocol.REJECT, 0, change.id, 0, 0, null);
+        }
+        Asset merged = change.value;
+        if (row.version != change.baseVersion) {
+            merged = merge(change.base, change.value, row.asset);
+            if (merged == null) {
+                return reject(from, row);
+            }
+        }
+        String tag = merged.getTagKey();
+        Row holder = tag == null ? null : byTag.get(tag);
+        if (holder != null && holder != row) {
+            return reject(from, row);
+        }
+        long opSeq = change(from, row, merged);
+        return logged(new Result(from, SyncProtocol.UPSERT, opSeq, row.id, row.version, 0, row.asset));
+    }
+
+    private Result delete(Connection from, Change change) {
+        Row row = resolve(from, change);
+        if (row == null) {
+            return new Result(from, SyncProtocol.REMOVED, 0, change.id, 0, 0, null); // already gone
+        }
+        if (row.version != change.baseVersion && !(row.changedBy == from && change.baseVersion >= row.changedFrom)) {
+            return reject(from, row); // changed by someone else since
+        }
+        rows.remove(row.index);
+        for (int index = row.index; index < rows.size(); index++) {
+            rows.get(index).index = index;
+        }
+        byId.remove(row.id);
+        unindexTag(row);
+        model.removeRow(row.index);
+        return logged(new Result(from, SyncProtocol.REMOVED, ++seq, row.id, row.version, 0, null));
+    }
+
+    // Finds the row a change is about. Rows the client inserted but hasn't
+    // heard back about yet are addressed by its temporary id, based on the
+    // version its insert produced.
+    private Row resolve(Connection from, Change change) {
+        if (change.id >= 0) {
+            return byId.get(change.id);
+        }
+        long[] inserted = from.temporaryIds.get(change.id);
+        if (inserted == null) {
+            return null;
+        }
+        if (change.baseVersion == 0) {
+            change.baseVersion = inserted[1];
+        }
+        return byId.get(inserted[0]);
+    }
+
+    // Drops the temporary ids of inserts whose results the client had applied
+    // before making the changes it sent next; it uses the real ids from then on
+    private static void forget(Connection from, long applied) {
+        while (!from.inserts.isEmpty() && from.temporaryIds.get(from.inserts.peek())[2] <= applied) {
+            from.temporaryIds.remove(from.inserts.remove());
+        }
+    }
+
+    // Returns the op's seq, or 0 if the values were already the same
+    private long change(Connection from, Row row, Asset value) {
+        if (SyncProtocol.sameValues(row.asset, value)) {
+            return 0;
+        }
+        if (row.changedBy != from) {
+            row.changedBy = from;
+            row.changedFrom = row.version;
+        }
+        unindexTag(row);
+        row.asset = value;
+        row.version++;
+        indexTag(row);
+        model.setAsset(row.index, value);
+        return ++seq;
+    }
+
+    // Three-way merge per column; null if both sides changed a column to different values
+    private static Asset merge(Asset base, Asset value, Asset current) {
+        Object[] merged = current.toValues();
+        for (int column = 0; column < Asset.COLUMN_COUNT; column++) {
+            Object mine = value.get(column);
+            Object original = base.get(column);
+            if (Objects.equals(mine, original)) {
+                continue;
+            }
+            Object theirs = current.get(column);
+            if (!Objects.equals(theirs, original) && !Objects.equals(theirs, mine)) {
+                return null;
+            }
+            merged[column] = mine;
+        }
+        return Asset.fromValues(merged);
+    }
+
+    private static Result reject(Connection from, Row row) {
+        return new Result(from, SyncProtocol.REJECT, 0, row.id, row.version, 0, row.asset);
+    }
+
+    private void indexTag(Row row) {
+        String tag = row.asset.getTagKey();
+        if (tag != null) {
+            byTag.put(tag, row);
+        }
+    }
+
+    private void unindexTag(Row row) {
+        String tag = row.asset.getTagKey();
+        if (tag != null && byTag.get(tag) == row) {
+            byTag.remove(tag);
+        }
+    }
+
+    private Result logged(Result result) {
+        if (result.seq != 0) {
+            log.addLast(new Result(null, result.kind, result.seq, result.id, result.version, 0, result.asset));
+            if (log.size() > LOG_SIZE) {
+                log.removeFirst();
+            }
+        }
+        return result;
+    }
+
+    // One message per client per batch; clients without changes of their own in it share one encoding
+    private void send(List<Result> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        Set<Connection> owners = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Result result : results) {
+            owners.add(result.owner);
+        }
+        byte[] common = null;
+        boolean commonEncoded = false;
+        for (Connection connection : connections) {
+            if (!connection.subscribed) {
+                continue;
+            }
+            byte[] message;
+            if (owners.contains(connection)) {
+                message = encode(results, connection);
+            } else {
+                if (!commonEncoded) {
+                    common = encode(results, null);
+                    commonEncoded = true;
+                }
+                message = common;
+            }
+            if (message != null) {
+                connection.send(message);
+            }
+        }
+    }
+
+    // The ops for one client: everything that changed something, plus its own results; null if none
+    private static byte[] encode(List<Result> results, Connection to) {
+        int count = 0;
+        for (Result result : results) {
+            if (result.owner == to && to != null || result.seq != 0) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + count * 128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(SyncProtocol.OPS);
+            out.writeInt(count);
+            for (Result result : results) {
+                boolean mine = result.owner == to && to != null;
+                if (!mine && result.seq == 0) {
+                    continue;
+                }
+                out.writeByte(result.kind);
+                out.writeByte(mine ? SyncProtocol.MINE : 0);
+                out.writeLong(result.seq);
+                out.writeLong(result.id);
+                out.writeLong(result.version);
+                out.writeLong(mine ? result.temporaryId : 0);
+                if (result.kind == SyncProtocol.UPSERT) {
+                    SyncProtocol.writeAsset(out, result.asset);
+                } else if (result.kind == SyncProtocol.REJECT) {
+                    out.writeBoolean(result.asset != null);
+                    if (result.asset != null) {
+                        SyncProtocol.writeAsset(out, result.asset);
+                    }
+                }
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream doesn't throw
+        }
+    }
+
+    private static class Row {
+        final long id;
+        int index; // position in rows and the model
+        long version = 1;
+        Asset asset;
+        Connection changedBy; // made the latest changes, the ones since version changedFrom
+        long changedFrom;
+
+        Row(long id, int index, Asset asset) {
+            this.id = id;
+            this.index = index;
+            this.asset = asset;
+        }
+    }
+
+    /** A client's HELLO (changes null) or CHANGES message. */
+    private static class Request {
+        final Connection from;
+        final List<Change> changes;
+        long epoch;
+        long seq;
+        long applied; // the client's own results it had applied, for CHANGES
+
+        Request(Connection from, List<Change> changes) {
+            this.from = from;
+            this.changes = changes;
+        }
+    }
+
+    private static class Change {
+        byte type;
+        long id;
+        long baseVersion;
+        Asset base;
+        Asset value;
+    }
+
+    private static class Result {
+        final Connection owner; // the client whose change this is the result of
+        final byte kind;
+        final long seq; // 0 if nothing changed
+        final long id;
+        final long version;
+        final long temporaryId; // for inserts
+        final Asset asset; // current values; null once removed
+
+        Result(Connection owner, byte kind, long seq, long id, long version, long temporaryId, Asset asset) {
+            this.owner = owner;
+            this.kind = kind;
+            this.seq = seq;
+            this.id = id;
+            this.version = version;
+            this.temporaryId = temporaryId;
+            this.asset = asset;
+        }
+    }
+
+    /** A copy of every row, written out by the connection's own thread. */
+    private static class Snapshot {
+        final long epoch;
+        final long seq;
+        final long[] ids;
+        final long[] versions;
+        final Asset[] assets;
+
+        Snapshot(long epoch, long seq, List<Row> rows) {
+            this.epoch = epoch;
+            this.seq = seq;
+            ids = new long[rows.size()];
+            versions = new long[rows.size()];
+            assets = new Asset[rows.size()];
+            for (int i = 0; i < assets.length; i++) {
+                Row row = rows.get(i);
+                ids[i] = row.id;
+                versions[i] = row.version;
+                assets[i] = row.asset;
+            }
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeByte(SyncProtocol.SNAPSHOT);
+            out.writeLong(epoch);
+            out.writeLong(seq);
+            out.writeInt(assets.length);
+            for (int i = 0; i < assets.length; i++) {
+                out.writeLong(ids[i]);
+                out.writeLong(versions[i]);
+                SyncProtocol.writeAsset(out, assets[i]);
+            }
+        }
+    }
+
+    private class Connection {
+        final Socket socket;
+        final LinkedBlockingQueue<Object> outbox = new LinkedBlockingQueue<>(OUTBOX_LIMIT);
+        final Map<Long, long[]> temporaryIds = new HashMap<>(); // writer thread: temporary id -> {id, version, result number} of this client's inserts
+        final ArrayDeque<Long> inserts = new ArrayDeque<>(); // writer thread: the keys of temporaryIds, oldest first
+        long results; // writer thread: results of this client's changes so far, numbering them
+        boolean subscribed; // writer thread: hello handled, send it every batch
+        volatile boolean closed;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        void readLoop() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16))) {
+                while (!closed) {
+                    byte type = in.readByte();
+                    if (type == SyncProtocol.HELLO) {
+                        int protocol = in.readInt();
+                        if (protocol != SyncProtocol.PROTOCOL) {
+                            throw new IOException("Unsupported protocol " + protocol + " from " + socket.getRemoteSocketAddress());
+                        }
+                        Request hello = new Request(this, null);
+                        hello.epoch = in.readLong();
+                        hello.seq = in.readLong();
+                        requests.add(hello);
+                    } else if (type == SyncProtocol.CHANGES) {
+                        long applied = in.readLong();
+                        int count = SyncProtocol.readCount(in);
+                        List<Change> changes = new ArrayList<>(Math.min(count, 1024));
+                        for (int i = 0; i < count; i++) {
+                            changes.add(readChange(in));
+                        }
+                        Request request = new Request(this, changes);
+                        request.applied = applied;
+                        requests.add(request);
+                    } else {
+                        throw new IOException("Unknown message " + type + " from " + socket.getRemoteSocketAddress());
+                    }
+                }
+            } catch (EOFException | SocketException e) {
+                // client went away
+            } catch (IOException e) {
+                LOG.error("Could not read from {}", socket.getRemoteSocketAddress(), e);
+            } finally {
+                close();
+            }
+        }
+
+        private Change readChange(DataInputStream in) throws IOException {
+            Change change = new Change();
+            change.type = in.readByte();
+            change.id = in.readLong();
+            switch (change.type) {
+                case SyncProtocol.INSERT:
+                    change.value = SyncProtocol.readAsset(in);
+                    break;
+                case SyncProtocol.UPDATE:
+                    change.baseVersion = in.readLong();
+                    change.base = SyncProtocol.readAsset(in);
+                    change.value = SyncProtocol.readAsset(in);
+                    break;
+                case SyncProtocol.DELETE:
+                    change.baseVersion = in.readLong();
+                    break;
+                default:
+                    throw new IOException("Unknown change " + change.type);
+            }
+            return change;
+        }
+
+        void writeLoop() {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+                while (!closed) {
+                    Object message = outbox.take();
+                    if (message instanceof byte[]) {
+                        out.write((byte[]) message);
+                    } else if (message instanceof Snapshot) {
+                        ((Snapshot) message).writeTo(out);
+                    } else {
+                        break;
+                    }
+                    if (outbox.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (InterruptedException | SocketException e) {
+                // stopping, or the client went away
+            } catch (IOException e) {
+                LOG.error("Could not write to {}", socket.getRemoteSocketAddress(), e);
+            } finally {
+                close();
+            }
+        }
+
+        void send(Object message) {
+            if (!closed && !outbox.offer(message)) {
+                LOG.warn("Disconnecting {}, too far behind", socket.getRemoteSocketAddress());
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            connections.remove(this);
+            outbox.clear();
+            outbox.offer(CLOSED);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close the connection to {}", socket.getRemoteSocketAddress(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.swing.event.TableModelEvent;
+
+/**
+ * Where the inventory is kept between runs.
+ *
+ * App talks to the store only through this interface: open it, page the
+ * rows into the table model, then hand it every model change. Three
+ * implementations: InventoryJournal (binary snapshot plus change log, the
+ * default), AssetDatabase (paged single-file database with indexes,
+ * selected with -Dinventory.store=db) and InventoryClient (an inventory
+ * shared through an InventoryServer, -Dinventory.server=host:port).
+ */
+public interface InventoryStore {
+
+    /**
+     * Opens the store and returns the number of rows. Must be called once,
+     * before anything else.
+     */
+    int open() throws IOException;
+
+    /**
+     * Reads up to count rows starting at row from, in table order.
+     */
+    List<Asset> read(int from, int count) throws IOException;
+
+    /**
+     * Persists the change described by the event. Called from the model's
+     * listener on the EDT, so implementations must not wait on the disk.
+     */
+    void record(TableModelEvent e, AssetTableModel model);
+
+    /**
+     * Called on the EDT once the model holds every row and its listener
+     * calls record(). A store shared with other users pushes their changes
+     * into the model from then on, and passes messages for the user, such
+     * as lost conflicts, to notices. Does nothing by default.
+     */
+    default void attach(AssetTableModel model, Consumer<String> notices) {
+    }
+
+    /**
+     * Replaces everything in the store with rows, as one change.
+     */
+    void replaceAll(List<Asset> rows);
+
+    /**
+     * Rows whose value in column equals value, ignoring case and surrounding
+     * spaces, in table order.
+     */
+    List<Asset> find(int column, String value) throws IOException;
+
+    /**
+     * Writes everything still pending and releases the files. The
+     * IoScheduler must already be shut down.
+     */
+    void close();
+}
@@ -0,0 +1,79 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Background threads for everything that touches the disk, so the EDT never
+ * waits on I/O.
+ *
+ * Persistence work runs in order on a single "inventory-io" thread and is
+ * coalesced per key: while a task for a key is pending, further requests for
+ * the same key are absorbed by it. Long running jobs (import/export) run as
+ * SwingWorkers on a separate thread, one at a time, so they never hold up
+ * saves.
+ */
+public class IoScheduler {
+
+    private final ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor(r -> newThread(r, "inventory-io"));
+    private final ExecutorService tasks = Executors.newSingleThreadExecutor(r -> newThread(r, "inventory-task"));
+    private final ConcurrentHashMap<Object, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+    private volatile SwingWorker<?, ?> activeTask;
+
+    /**
+     * Runs the task on the I/O thread after delayMillis, unless a task for the
+     * same key is already waiting, in which case that one covers this request.
+     */
+    public void coalesce(Object key, Runnable task, long delayMillis) {
+        pending.computeIfAbsent(key, k -> io.schedule(() -> {
+            pending.remove(k);
+            task.run();
+        }, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Starts a long running task unless another one is still running.
+     * Returns false if the task was not started.
+     */
+    public synchronized boolean runTask(SwingWorker<?, ?> task) {
+        if (isBusy()) {
+            return false;
+        }
+        activeTask = task;
+        tasks.execute(task);
+        return true;
+    }
+
+    public boolean isBusy() {
+        SwingWorker<?, ?> task = activeTask;
+        return task != null && !task.isDone();
+    }
+
+    /**
+     * Runs every coalesced task that is still waiting, then stops the I/O
+     * thread. Running import/export tasks are cancelled.
+     */
+    public void shutdown() {
+        SwingWorker<?, ?> task = activeTask;
+        if (task != null) {
+            task.cancel(true);
+        }
+        tasks.shutdownNow();
+        io.shutdown(); // already scheduled tasks still run after shutdown
+        try {
+            io.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Thread newThread(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
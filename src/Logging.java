@@ -0,0 +1,69 @@
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.appender.ConsoleAppender;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.logging.log4j.core.config.builder.api.AppenderComponentBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ComponentBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+
+/**
+ * Sets up log4j for the app, in code so it works however the app is started
+ * (VS Code, bin/ without resources, batch mode from cron):
+ * <ul>
+ *   <li>logs/inventory.log gets INFO and up from every class,</li>
+ *   <li>logs/metrics.log gets the periodic Metrics reports only,</li>
+ *   <li>warnings and errors also go to stderr, where printStackTrace used to.</li>
+ * </ul>
+ * Both files roll at 10 MB, keeping 5 old ones. A -Dlog4j2.configurationFile
+ * given on the command line is used instead.
+ */
+public class Logging {
+
+    public static final String METRICS_LOGGER = "metrics";
+    private static final String LOG_DIRECTORY = "logs";
+    private static final String ROLL_SIZE = "10 MB";
+    private static final String KEEP_FILES = "5";
+
+    private Logging() {
+    }
+
+    /**
+     * Must run before the first logger is created.
+     */
+    public static void configure() {
+        if (System.getProperty("log4j2.configurationFile") != null) {
+            return;
+        }
+        ConfigurationBuilder<BuiltConfiguration> builder = ConfigurationBuilderFactory.newConfigurationBuilder();
+        builder.setConfigurationName("inventory");
+        builder.setStatusLevel(Level.ERROR);
+
+        builder.add(builder.newAppender("stderr", "Console")
+                .addAttribute("target", ConsoleAppender.Target.SYSTEM_ERR)
+                .add(builder.newLayout("PatternLayout").addAttribute("pattern", "%d{HH:mm:ss.SSS} %-5level %c{1} - %msg%n%throwable"))
+                .add(builder.newFilter("ThresholdFilter", "ACCEPT", "DENY").addAttribute("level", Level.WARN)));
+        builder.add(rollingFile(builder, "app", "inventory", "%d{ISO8601} %-5level [%t] %c{1} - %msg%n%throwable"));
+        builder.add(rollingFile(builder, "metrics", "metrics", "%d{ISO8601} %msg%n"));
+
+        builder.add(builder.newLogger(METRICS_LOGGER, Level.INFO)
+                .add(builder.newAppenderRef("metrics"))
+                .addAttribute("additivity", false));
+        builder.add(builder.newRootLogger(Level.INFO)
+                .add(builder.newAppenderRef("app"))
+                .add(builder.newAppenderRef("stderr")));
+        Configurator.initialize(builder.build());
+    }
+
+    private static AppenderComponentBuilder rollingFile(ConfigurationBuilder<BuiltConfiguration> builder, String name, String file, String pattern) {
+        ComponentBuilder<?> policies = builder.newComponent("Policies")
+                .addComponent(builder.newComponent("SizeBasedTriggeringPolicy").addAttribute("size", ROLL_SIZE));
+        return builder.newAppender(name, "RollingFile")
+                .addAttribute("fileName", LOG_DIRECTORY + "/" + file + ".log")
+                .addAttribute("filePattern", LOG_DIRECTORY + "/" + file + "-%i.log.gz")
+                .addAttribute("createOnDemand", true)
+                .add(builder.newLayout("PatternLayout").addAttribute("pattern", pattern))
+                .addComponent(policies)
+                .addComponent(builder.newComponent("DefaultRolloverStrategy").addAttribute("max", KEEP_FILES));
+    }
+}
@@ -0,0 +1,359 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Timers and gauges for the paths that can make the app slow: saving,
+ * restoring, import, export, search, image loading and the EDT itself.
+ *
+ * A timer keeps a count, the total and maximum, and a histogram with four
+ * buckets per power of two of microseconds, so percentiles are within 25%.
+ * Recording is a few atomic adds and never blocks, so timers can be used
+ * on the EDT. Gauges are read when someone asks.
+ *
+ * After start() every timer and gauge is an MXBean under
+ * "inventory:type=Timer,name=..." / "inventory:type=Gauge,name=...", and
+ * every -Dinventory.metricsSeconds (default 60) the timers that ran since
+ * the last report and all gauges are written to the metrics log.
+ */
+public class Metrics {
+
+    private static final Logger LOG = LogManager.getLogger(Metrics.class);
+    private static final Logger REPORT = LogManager.getLogger(Logging.METRICS_LOGGER);
+    private static final String DOMAIN = "inventory";
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentSkipListMap<>();
+    private static volatile boolean started;
+    private static ScheduledExecutorService reporter;
+
+    public interface TimerMXBean {
+        long getCount();
+
+        double getTotalMillis();
+
+        double getMeanMillis();
+
+        double getMaxMillis();
+
+        double getP50Millis();
+
+        double getP95Millis();
+
+        double getP99Millis();
+    }
+
+    public interface GaugeMXBean {
+        double getValue();
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * The timer with this name, created on first use.
+     */
+    public static Timer timer(String name) {
+        Timer timer = TIMERS.get(name);
+        if (timer == null) {
+            Timer created = new Timer(name);
+            timer = TIMERS.putIfAbsent(name, created);
+            if (timer == null) {
+                timer = created;
+                if (started) {
+                    register("Timer", name, created);
+                }
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Adds or replaces a gauge. value is called from the JMX and report
+     * threads, so it must be safe to call from any thread.
+     */
+    public static void gauge(String name, Supplier<? extends Number> value) {
+        Gauge gauge = new Gauge(value);
+        boolean replaced = GAUGES.put(name, gauge) != null;
+        if (started) {
+            if (replaced) {
+                unregister("Gauge", name);
+            }
+            register("Gauge", name, gauge);
+        }
+    }
+
+    /**
+     * Adds the heap gauges, registers everything with the platform MBean
+     * server and starts the periodic report.
+     */
+    public static synchronized void start() {
+        if (started) {
+            return;
+        }
+        gauge("heap.used_mb", () -> heap().getUsed() / (1024.0 * 1024.0));
+        gauge("heap.max_mb", () -> heap().getMax() / (1024.0 * 1024.0));
+        started = true;
+        for (Map.Entry<String, Timer> timer : TIMERS.entrySet()) {
+            register("Timer", timer.getKey(), timer.getValue());
+        }
+        for (Map.Entry<String, Gauge> gauge : GAUGES.entrySet()) {
+            register("Gauge", gauge.getKey(), gauge.getValue());
+        }
+        long seconds = Long.getLong("inventory.metricsSeconds", 60);
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "inventory-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(Metrics::report, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes a last report, e.g. from the shutdown hook.
+     */
+    public static synchronized void stop() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        report();
+    }
+
+    /**
+     * Writes one line per timer that ran since the last report, with the
+     * figures for that interval, and one line with all gauges.
+     */
+    public static synchronized void report() {
+        for (Timer timer : TIMERS.values()) {
+            Timer.Snapshot interval = timer.interval();
+            if (interval.count > 0) {
+                REPORT.info(String.format("%-16s count=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms total=%.0fms",
+                        timer.name, interval.count, interval.mean(), interval.percentile(0.5), interval.percentile(0.95),
+                        interval.percentile(0.99), interval.maxMillis(), interval.totalMillis()));
+            }
+        }
+        if (!GAUGES.isEmpty()) {
+            StringBuilder line = new StringBuilder("gauges");
+            for (Map.Entry<String, Gauge> gauge : GAUGES.entrySet()) {
+                line.append(' ').append(gauge.getKey()).append('=').append(String.format("%.1f", gauge.getValue().getValue()));
+            }
+            REPORT.info(line.toString());
+        }
+    }
+
+    private static MemoryUsage heap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    }
+
+    private static void register(String type, String name, Object bean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(bean, objectName(type, name));
+        } catch (JMException e) {
+            LOG.warn("Could not register the {} {} with JMX", type, name, e);
+        }
+    }
+
+    private static void unregister(String type, String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(type, name));
+        } catch (JMException e) {
+            LOG.warn("Could not unregister the {} {} from JMX", type, name, e);
+        }
+    }
+
+    private static ObjectName objectName(String type, String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+
+    public static class Timer implements TimerMXBean {
+        // Durations below 4 us have a bucket each; above, every power of
+        // two is split into four. The last bucket takes everything longer.
+        private static final int BUCKETS = 4 + 4 * 40;
+
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong intervalMaxNanos = new AtomicLong();
+        private Snapshot lastReport = new Snapshot(new long[BUCKETS], 0, 0, 0); // report thread only
+
+        Timer(String name) {
+            this.name = name;
+        }
+
+        public void record(long nanos) {
+            buckets.incrementAndGet(bucket(Math.max(0, nanos) / 1000));
+            count.increment();
+            totalNanos.add(nanos);
+            updateMax(maxNanos, nanos);
+            updateMax(intervalMaxNanos, nanos);
+        }
+
+        /**
+         * Records the time since startNanos, a System.nanoTime() taken before
+         * the work.
+         */
+        public void since(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getTotalMillis() {
+            return totalNanos.sum() / 1e6;
+        }
+
+        @Override
+        public double getMeanMillis() {
+            return snapshot().mean();
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return snapshot().percentile(0.5);
+        }
+
+        @Override
+        public double getP95Millis() {
+            return snapshot().percentile(0.95);
+        }
+
+        @Override
+        public double getP99Millis() {
+            return snapshot().percentile(0.99);
+        }
+
+        private Snapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new Snapshot(counts, count.sum(), totalNanos.sum(), maxNanos.get());
+        }
+
+        // Everything recorded since the previous call
+        synchronized Snapshot interval() {
+            Snapshot now = snapshot();
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = now.counts[i] - lastReport.counts[i];
+            }
+            Snapshot interval = new Snapshot(counts, now.count - lastReport.count, now.totalNanos - lastReport.totalNanos,
+                    intervalMaxNanos.getAndSet(0));
+            lastReport = now;
+            return interval;
+        }
+
+        private static int bucket(long micros) {
+            if (micros < 4) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros); // >= 2
+            int sub = (int) (micros >>> (exponent - 2)) & 3;
+            return Math.min(BUCKETS - 1, 4 + (exponent - 2) * 4 + sub);
+        }
+
+        // Exclusive upper end of a bucket, in microseconds
+        private static long bucketEnd(int bucket) {
+            if (bucket < 4) {
+                return bucket + 1;
+            }
+            int exponent = (bucket - 4) / 4 + 2;
+            int sub = (bucket - 4) % 4;
+            return (long) (4 + sub + 1) << (exponent - 2);
+        }
+
+        private static void updateMax(AtomicLong max, long nanos) {
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+
+        static class Snapshot {
+            final long[] counts;
+            final long count;
+            final long totalNanos;
+            final long maxNanos;
+
+            Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+                this.counts = counts;
+                this.count = count;
+                this.totalNanos = totalNanos;
+                this.maxNanos = maxNanos;
+            }
+
+            double mean() {
+                return count == 0 ? 0 : totalNanos / 1e6 / count;
+            }
+
+            double totalMillis() {
+                return totalNanos / 1e6;
+            }
+
+            double maxMillis() {
+                return maxNanos / 1e6;
+            }
+
+            // Upper end of the bucket holding the q-th value, but never above the maximum
+            double percentile(double q) {
+                long total = 0;
+                for (long c : counts) {
+                    total += c;
+                }
+                if (total == 0) {
+                    return 0;
+                }
+                long rank = Math.max(1, (long) Math.ceil(q * total));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) {
+                        return Math.min(bucketEnd(i) / 1e3, maxMillis());
+                    }
+                }
+                return maxMillis();
+            }
+        }
+    }
+
+    static class Gauge implements GaugeMXBean {
+        private final Supplier<? extends Number> value;
+
+        Gauge(Supplier<? extends Number> value) {
+            this.value = value;
+        }
+
+        @Override
+        public double getValue() {
+            return value.get().doubleValue();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.swing.RowFilter;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.TableModel;
+
+/**
+ * In-memory search index over the inventory table, kept up to date from
+ * TableModelEvents so a search never rescans the model.
+ *
+ * Matching is a case-insensitive substring match, like the old regex
+ * filter. Asset Tag, Serial, Model, Manufacturer, Physical Location and Note
+ * have trigram indexes: the rarest trigram of the query gives a short candidate list that is then
+ * checked with contains(). Other columns, and queries shorter than three
+ * characters, scan the cached lower-case values; an all-columns search
+ * scans the rows once for all of them.
+ *
+ * Hits are marked with a search generation stamp rather than collected into
+ * a set, so the row filter is a single int compare per row. Must only be
+ * used from the EDT.
+ */
+public class SearchIndex implements TableModelListener {
+
+    public static final int ALL_COLUMNS = -1;
+
+    private static final int[] NGRAM_COLUMNS = {Asset.ASSET_TAG, Asset.SERIAL, Asset.MODEL, Asset.MANUFACTURER, Asset.PHYSICAL_LOCATION, Asset.NOTE};
+
+    private final TableModel model;
+    private final int columnCount;
+    private final List<IndexedRow> rows = new ArrayList<>(); // parallel to the model rows
+    private final Map<Integer, IntList>[] grams;
+    private IndexedRow[] byId = new IndexedRow[1024];
+    private int nextId = 0;
+    private int deadIds = 0;
+
+    private int generation = 0;
+    private int activeColumn = ALL_COLUMNS;
+    private String activeQuery = "";
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SearchIndex(TableModel model) {
+        this.model = model;
+        this.columnCount = model.getColumnCount();
+        grams = new Map[columnCount];
+        for (int col : NGRAM_COLUMNS) {
+            grams[col] = new HashMap<>();
+        }
+    }
+
+    /**
+     * Marks the rows matching the query and returns a filter that shows only
+     * them, or null (no filter) for an empty query. column is a model column
+     * index or ALL_COLUMNS.
+     */
+    public RowFilter<Object, Object> filter(int column, String query) {
+        activeColumn = column;
+        activeQuery = query.toLowerCase(Locale.ROOT);
+        generation++;
+        if (activeQuery.isEmpty()) {
+            return null;
+        }
+        if (column == ALL_COLUMNS) {
+            markAll(activeQuery);
+        } else {
+            mark(column, activeQuery);
+        }
+        int hitGeneration = generation;
+        return new RowFilter<Object, Object>() {
+            @Override
+            public boolean include(Entry<? extends Object, ? extends Object> entry) {
+                int row = (Integer) entry.getIdentifier();
+                return row < rows.size() && rows.get(row).stamp == hitGeneration;
+            }
+        };
+    }
+
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        if (e instanceof AssetTableModel.BatchEvent) {
+            for (TableModelEvent step : ((AssetTableModel.BatchEvent) e).getSteps()) {
+                change(step);
+            }
+        } else if (e.getFirstRow() == TableModelEvent.HEADER_ROW || e.getLastRow() == Integer.MAX_VALUE) {
+            rebuild();
+            return;
+        } else {
+            change(e);
+        }
+        if (deadIds > rows.size()) {
+            rebuild(); // drop the stale postings
+        }
+    }
+
+    private void change(TableModelEvent e) {
+        int first = e.getFirstRow();
+        int last = e.getLastRow();
+        switch (e.getType()) {
+            case TableModelEvent.INSERT:
+                List<IndexedRow> inserted = new ArrayList<>(last - first + 1);
+                for (int row = first; row <= last; row++) {
+                    inserted.add(index(readRow(row)));
+                }
+                rows.addAll(first, inserted);
+                break;
+            case TableModelEvent.DELETE:
+                List<IndexedRow> deleted = rows.subList(first, Math.min(last + 1, rows.size()));
+                for (IndexedRow entry : deleted) {
+                    unindex(entry);
+                }
+                deleted.clear();
+                break;
+            default:
+                for (int row = first; row <= last && row < rows.size(); row++) {
+                    unindex(rows.get(row));
+                    rows.set(row, index(readRow(row)));
+                }
+                break;
+        }
+    }
+
+    private void rebuild() {
+        rows.clear();
+        for (int col = 0; col < columnCount; col++) {
+            if (grams[col] != null) {
+                grams[col].clear();
+            }
+        }
+        Arrays.fill(byId, null);
+        nextId = 0;
+        deadIds = 0;
+        for (int row = 0; row < model.getRowCount(); row++) {
+            rows.add(index(readRow(row)));
+        }
+    }
+
+    private String[] readRow(int row) {
+        String[] values = new String[columnCount];
+        for (int col = 0; col < columnCount; col++) {
+            values[col] = normalize(model.getValueAt(row, col));
+        }
+        return values;
+    }
+
+    private IndexedRow index(String[] values) {
+        IndexedRow entry = new IndexedRow(nextId++, values);
+        if (entry.id >= byId.length) {
+            byId = Arrays.copyOf(byId, byId.length * 2);
+        }
+        byId[entry.id] = entry;
+        for (int col : NGRAM_COLUMNS) {
+            String value = values[col];
+            for (int i = 0; i + 3 <= value.length(); i++) {
+                grams[col].computeIfAbsent(trigram(value, i), k -> new IntList()).add(entry.id);
+            }
+        }
+        // Keep the active search current for rows that change while it is shown
+        if (!activeQuery.isEmpty() && matches(entry, activeColumn, activeQuery)) {
+            entry.stamp = generation;
+        }
+        return entry;
+    }
+
+    // Trigram postings are left in place; they point at a dead id and are
+    // skipped until the next rebuild
+    private void unindex(IndexedRow entry) {
+        byId[entry.id] = null;
+        deadIds++;
+    }
+
+    private void mark(int col, String query) {
+        if (markGrams(col, query)) {
+            return;
+        }
+        for (IndexedRow entry : rows) {
+            if (entry.values[col].contains(query)) {
+                entry.stamp = generation;
+            }
+        }
+    }
+
+    // Returns false if the column has no trigram index or the query is too short for it
+    private boolean markGrams(int col, String query) {
+        if (grams[col] == null || query.length() < 3) {
+            return false;
+        }
+        IntList rarest = null;
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            IntList postings = grams[col].get(trigram(query, i));
+            if (postings == null) {
+                return true; // some trigram never occurs, so nothing matches
+            }
+            if (rarest == null || postings.size < rarest.size) {
+                rarest = postings;
+            }
+        }
+        for (int i = 0; i < rarest.size; i++) {
+            IndexedRow entry = byId[rarest.values[i]];
+            if (entry != null && entry.values[col].contains(query)) {
+                entry.stamp = generation;
+            }
+        }
+        return true;
+    }
+
+    // The indexed columns first, then one pass over the rows for the others
+    private void markAll(String query) {
+        int[] scanned = new int[columnCount];
+        int count = 0;
+        for (int col = 0; col < columnCount; col++) {
+            if (!markGrams(col, query)) {
+                scanned[count++] = col;
+            }
+        }
+        int[] columns = Arrays.copyOf(scanned, count);
+        for (IndexedRow entry : rows) {
+            if (entry.stamp != generation && matches(entry, columns, query)) {
+                entry.stamp = generation;
+            }
+        }
+    }
+
+    private static boolean matches(IndexedRow entry, int column, String query) {
+        if (column != ALL_COLUMNS) {
+            return entry.values[column].contains(query);
+        }
+        for (String value : entry.values) {
+            if (value.contains(query)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(IndexedRow entry, int[] columns, String query) {
+        for (int col : columns) {
+            if (entry.values[col].contains(query)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(Object value) {
+        return value == null ? "" : value.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static Integer trigram(String s, int i) {
+        // Three chars folded into an int; collisions only cost an extra contains()
+        return (s.charAt(i) * 31 + s.charAt(i + 1)) * 31 + s.charAt(i + 2);
+    }
+
+    private static class IndexedRow {
+        final int id;
+        final String[] values;
+        int stamp = -1;
+
+        IndexedRow(int id, String[] values) {
+            this.id = id;
+            this.values = values;
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Versioned binary snapshot of the inventory (inventory.dat).
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   int    magic "INVS"
+ *   short  version
+ *   long   last journal sequence number contained in the snapshot
+ *   int    row count
+ *   int    string count, then per string: int length, UTF-8 bytes
+ *   rows:  int length, then one field per column (string columns are an
+ *          index into the string table, quantity an int, dates an epoch
+ *          day or NO_DATE)
+ * </pre>
+ * Every distinct string is stored once, which suits the repeated
+ * categories, manufacturers and locations. Writes go through a FileChannel
+ * into a temp file that is renamed over the old snapshot, so a crash never
+ * leaves a half written file. Reads copy the whole file into a heap buffer
+ * and decode it in one pass. The file isn't mapped, so it is closed as
+ * soon as read() returns.
+ */
+public class SnapshotFile {
+
+    private static final int MAGIC = 0x494E5653; // "INVS"
+    private static final short VERSION = 1;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** What a snapshot holds: the rows and the journal position they include. */
+    public static class Contents {
+        public final List<Asset> rows;
+        public final long seq;
+
+        Contents(List<Asset> rows, long seq) {
+            this.rows = rows;
+            this.seq = seq;
+        }
+    }
+
+    private SnapshotFile() {
+    }
+
+    public static void write(File file, List<Asset> rows, long seq) throws IOException {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        for (Asset asset : rows) {
+            for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+                Object value = asset.get(col);
+                if (value instanceof String && !dictionary.containsKey(value)) {
+                    dictionary.put((String) value, strings.size());
+                    strings.add(((String) value).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buf.putInt(MAGIC);
+            buf.putShort(VERSION);
+            buf.putLong(seq);
+            buf.putInt(rows.size());
+            buf.putInt(strings.size());
+            for (byte[] bytes : strings) {
+                buf = ensure(channel, buf, 4 + bytes.length);
+                buf.putInt(bytes.length);
+                buf.put(bytes);
+            }
+            int rowLength = Asset.COLUMN_COUNT * 4;
+            for (Asset asset : rows) {
+                buf = ensure(channel, buf, 4 + rowLength);
+                buf.putInt(rowLength);
+                for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+                    Object value = asset.get(col);
+                    if (value instanceof String) {
+                        buf.putInt(dictionary.get(value));
+                    } else if (value instanceof Integer) {
+                        buf.putInt((Integer) value);
+                    } else {
+                        buf.putInt(value == null ? NO_DATE : (int) ((LocalDate) value).toEpochDay());
+                    }
+                }
+            }
+            drain(channel, buf);
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Contents read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // Read into the heap rather than mapped: a mapping stays open until it is
+            // garbage collected, and on Windows the next save can't replace the file
+            ByteBuffer buf = fill(channel, file);
+            if (buf.getInt() != MAGIC) {
+                throw new IOException(file + " is not an inventory snapshot");
+            }
+            short version = buf.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + file);
+            }
+            long seq = buf.getLong();
+            int rowCount = buf.getInt();
+            String[] strings = new String[buf.getInt()];
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int length = buf.getInt();
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                buf.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+
+            List<Asset> rows = new ArrayList<>(rowCount);
+            Object[] values = new Object[Asset.COLUMN_COUNT];
+            for (int row = 0; row < rowCount; row++) {
+                int end = buf.getInt();
+                end += buf.position();
+                for (int col = 0; col < Asset.COLUMN_COUNT; col++) {
+                    int field = buf.getInt();
+                    if (col == Asset.QUANTITY) {
+                        values[col] = field;
+                    } else if (col == Asset.DATE_RECEIVED || col == Asset.DATE_RECORDED) {
+                        values[col] = field == NO_DATE ? null : LocalDate.ofEpochDay(field);
+                    } else {
+                        values[col] = strings[field];
+                    }
+                }
+                buf.position(end); // skip fields added by a later version
+                rows.add(Asset.fromValues(values));
+            }
+            return new Contents(rows, seq);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated snapshot " + file, e);
+        }
+    }
+
+    /**
+     * One-time conversion of the old Java-serialized inventory.ser into a
+     * binary snapshot. The old file is kept as inventory.ser.migrated. Only
+     * the classes the old format actually used may be deserialized.
+     */
+    public static void migrateLegacy(File legacyFile, File snapshotFile) throws IOException {
+        if (snapshotFile.exists() || !legacyFile.exists()) {
+            return;
+        }
+        List<Asset> rows = new ArrayList<>();
+        long seq = 0;
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(legacyFile)))) {
+            ois.setObjectInputFilter(ObjectInputFilter.Config.createFilter(
+                    "maxdepth=5;java.util.Vector;java.lang.String;java.lang.Number;java.lang.Integer;java.util.Date;java.time.*;java.lang.Object;!*"));
+            Vector<?> dataVector = (Vector<?>) ois.readObject();
+            for (Object rowData : dataVector) {
+                rows.add(Asset.fromValues(((Vector<?>) rowData).toArray()));
+            }
+            try {
+                seq = ois.readLong(); // written by the journal's old snapshots
+            } catch (EOFException e) {
+                seq = 0;
+            }
+        } catch (InvalidClassException | ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unreadable legacy inventory " + legacyFile, e);
+        }
+        write(snapshotFile, rows, seq);
+        Files.move(legacyFile.toPath(), new File(legacyFile.getPath() + ".migrated").toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static ByteBuffer ensure(FileChannel channel, ByteBuffer buf, int needed) throws IOException {
+        if (buf.remaining() >= needed) {
+            return buf;
+        }
+        drain(channel, buf);
+        return needed <= buf.capacity() ? buf : ByteBuffer.allocate(needed);
+    }
+
+    private static ByteBuffer fill(FileChannel channel, File file) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(file + " is too large");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException("Truncated snapshot " + file);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+}
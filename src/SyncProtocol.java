@@ -0,0 +1,140 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Wire format between InventoryServer and InventoryClient. Plain
+ * DataInput/DataOutput streams over one TCP connection per client.
+ *
+ * <pre>
+ * client to server
+ *   HELLO    byte 'H', int protocol, long epoch, long seq   (epoch 0: send a snapshot)
+ *   CHANGES  byte 'C', long results applied, int count, then per change:
+ *              INSERT  byte 1, long temporary id (negative), asset
+ *              UPDATE  byte 2, long id, long base version, asset base, asset value
+ *              DELETE  byte 3, long id, long base version
+ * server to client
+ *   SNAPSHOT byte 'S', long epoch, long seq, int count, then per row: long id, long version, asset
+ *   OPS      byte 'O', int count, then per op:
+ *              byte kind (UPSERT, REMOVED, REJECT), byte flags (MINE), long seq,
+ *              long id, long version, long temporary id of an acknowledged INSERT,
+ *              then the asset for UPSERT, or a boolean and the current asset if
+ *              it still exists for REJECT
+ * </pre>
+ *
+ * Every applied op gets the next seq; a client that reconnects sends the
+ * last seq it saw and gets only the ops after it, or a new snapshot if the
+ * server restarted (new epoch) or no longer has them. Results of a client's
+ * own changes come back flagged MINE, in order with everyone else's ops;
+ * REJECTs and changes that turned out to change nothing have seq 0.
+ *
+ * A client addresses rows it inserted by their temporary id until it has
+ * applied the insert's result. CHANGES carries how many of its own results
+ * the client had applied on this connection when it made the changes, so
+ * the server can forget temporary ids no later change can use.
+ */
+public class SyncProtocol {
+
+    public static final int PROTOCOL = 2;
+    public static final int DEFAULT_PORT = 7531;
+
+    public static final byte HELLO = 'H';
+    public static final byte CHANGES = 'C';
+    public static final byte SNAPSHOT = 'S';
+    public static final byte OPS = 'O';
+
+    public static final byte INSERT = 1;
+    public static final byte UPDATE = 2;
+    public static final byte DELETE = 3;
+
+    public static final byte UPSERT = 1;
+    public static final byte REMOVED = 2;
+    public static final byte REJECT = 3;
+
+    public static final byte MINE = 1;
+
+    /** Upper bound on the changes or ops in one message, to catch garbage early. */
+    public static final int MAX_COUNT = 10_000_000;
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    public static void writeAsset(DataOutputStream out, Asset asset) throws IOException {
+        writeString(out, asset.getAssetTag());
+        writeString(out, asset.getModel());
+        writeString(out, asset.getManufacturer());
+        writeString(out, asset.getCategory());
+        out.writeInt(asset.getQuantity());
+        writeString(out, asset.getSerial());
+        writeString(out, asset.getPhysicalLocation());
+        writeString(out, asset.getWhere());
+        writeDate(out, asset.getDateReceived());
+        writeDate(out, asset.getDateRecorded());
+        writeString(out, asset.getNote());
+        writeString(out, asset.getImagePath());
+    }
+
+    public static Asset readAsset(DataInputStream in) throws IOException {
+        String assetTag = readString(in);
+        String model = readString(in);
+        String manufacturer = readString(in);
+        String category = readString(in);
+        int quantity = in.readInt();
+        String serial = readString(in);
+        String physicalLocation = readString(in);
+        String where = readString(in);
+        LocalDate dateReceived = readDate(in);
+        LocalDate dateRecorded = readDate(in);
+        String note = readString(in);
+        String imagePath = readString(in);
+        return new Asset(assetTag, model, manufacturer, category, quantity, serial, physicalLocation, where, dateReceived, dateRecorded, note, imagePath);
+    }
+
+    public static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException("Bad message: count " + count);
+        }
+        return count;
+    }
+
+    /** True if both assets hold the same value in every column. */
+    public static boolean sameValues(Asset a, Asset b) {
+        if (a == b) {
+            return true;
+        }
+        for (int column = 0; column < Asset.COLUMN_COUNT; column++) {
+            if (!Objects.equals(a.get(column), b.get(column))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 16 << 20) {
+            throw new IOException("Bad message: string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDate(DataOutputStream out, LocalDate date) throws IOException {
+        out.writeInt(date == null ? NO_DATE : (int) date.toEpochDay());
+    }
+
+    private static LocalDate readDate(DataInputStream in) throws IOException {
+        int day = in.readInt();
+        return day == NO_DATE ? null : LocalDate.ofEpochDay(day);
+    }
+}
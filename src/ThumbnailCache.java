@@ -0,0 +1,244 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Small previews of asset photos, decoded off the EDT.
+ *
+ * Thumbnails are decoded on a background pool with ImageIO source
+ * subsampling, so a multi-megabyte photo is never fully decoded just to
+ * draw 32 pixels, and kept in an LRU cache bounded by pixel bytes. With a
+ * disk directory, generated thumbnails are also written there as PNGs
+ * (keyed by path, size and modification time) and reused across runs. A
+ * file that is missing or can't be decoded is looked at again every
+ * RECHECK_MILLIS, and loaded again once its size or modification time
+ * changes.
+ */
+public class ThumbnailCache {
+
+    private static final Logger LOG = LogManager.getLogger(ThumbnailCache.class);
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("image.load");
+    private static final long RECHECK_MILLIS = 10_000;
+
+    private final int size;
+    private final long maxBytes;
+    private final File diskDir;
+    private final ExecutorService pool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2), r -> {
+        Thread t = new Thread(r, "thumbnail-loader");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Failure> failed = new ConcurrentHashMap<>(); // missing or undecodable files
+    private final LinkedHashMap<String, ImageIcon> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes = 0;
+
+    /**
+     * size is the longest side of a thumbnail in pixels; diskDir may be null
+     * to keep thumbnails in memory only.
+     */
+    public ThumbnailCache(int size, long maxBytes, File diskDir) {
+        this.size = size;
+        this.maxBytes = maxBytes;
+        this.diskDir = diskDir;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the cached thumbnail, or null after queueing a background load
+     * that calls onLoaded on the EDT once the thumbnail is available.
+     */
+    public ImageIcon get(String path, Runnable onLoaded) {
+        synchronized (cache) {
+            ImageIcon icon = cache.get(path);
+            if (icon != null) {
+                return icon;
+            }
+        }
+        Failure failure = failed.get(path);
+        if ((failure == null || failure.isDue()) && loading.add(path)) {
+            pool.execute(() -> {
+                File file = new File(path);
+                String stamp = stamp(file);
+                if (failure != null && failure.stamp.equals(stamp)) {
+                    failure.checked = System.currentTimeMillis(); // not replaced yet
+                    loading.remove(path);
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    BufferedImage thumbnail = loadThumbnail(file);
+                    if (thumbnail != null) {
+                        failed.remove(path);
+                        put(path, new ImageIcon(thumbnail));
+                        SwingUtilities.invokeLater(onLoaded);
+                    } else {
+                        failed.put(path, new Failure(stamp));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed.put(path, new Failure(stamp));
+                    LOG.warn("Could not load a thumbnail of {}", path, e);
+                } finally {
+                    loading.remove(path);
+                    LOAD_TIMER.since(start);
+                }
+            });
+        }
+        return null;
+    }
+
+    // Size and modification time; a missing file is 0|0
+    private static String stamp(File file) {
+        return file.length() + "|" + file.lastModified();
+    }
+
+    /**
+     * Cached thumbnail if there is one, without triggering a load.
+     */
+    public ImageIcon peek(String path) {
+        synchronized (cache) {
+            return cache.get(path);
+        }
+    }
+
+    /**
+     * Decodes the full-size image on the background pool.
+     */
+    public CompletableFuture<BufferedImage> loadFull(String path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return ImageIO.read(new File(path));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, pool);
+    }
+
+    private void put(String path, ImageIcon icon) {
+        synchronized (cache) {
+            ImageIcon previous = cache.put(path, icon);
+            cachedBytes += bytes(icon) - (previous != null ? bytes(previous) : 0);
+            Iterator<Map.Entry<String, ImageIcon>> eldest = cache.entrySet().iterator();
+            while (cachedBytes > maxBytes && eldest.hasNext()) {
+                cachedBytes -= bytes(eldest.next().getValue());
+                eldest.remove();
+            }
+        }
+    }
+
+    private static long bytes(ImageIcon icon) {
+        return (long) icon.getIconWidth() * icon.getIconHeight() * 4; // ARGB
+    }
+
+    private BufferedImage loadThumbnail(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        File stored = diskDir != null ? new File(diskDir, diskKey(file) + ".png") : null;
+        if (stored != null && stored.isFile()) {
+            BufferedImage image = ImageIO.read(stored);
+            if (image != null) {
+                return image;
+            }
+        }
+        BufferedImage thumbnail = decodeScaled(file);
+        if (thumbnail != null && stored != null) {
+            diskDir.mkdirs();
+            ImageIO.write(thumbnail, "png", stored);
+        }
+        return thumbnail;
+    }
+
+    // Reads only every n-th pixel of large images, then scales the rest of the way smoothly
+    private BufferedImage decodeScaled(File file) throws IOException {
+        BufferedImage decoded;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, longest / (size * 4));
+                param.setSourceSubsampling(step, step, 0, 0);
+                decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        double scale = Math.min(1.0, (double) size / Math.max(decoded.getWidth(), decoded.getHeight()));
+        int width = Math.max(1, (int) Math.round(decoded.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(decoded.getHeight() * scale));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(decoded, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return thumbnail;
+    }
+
+    private String diskKey(File file) throws IOException {
+        String identity = file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified() + '|' + size;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static class Failure {
+        final String stamp;
+        volatile long checked = System.currentTimeMillis();
+
+        Failure(String stamp) {
+            this.stamp = stamp;
+        }
+
+        boolean isDue() {
+            return System.currentTimeMillis() - checked >= RECHECK_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Round-trip and crash recovery checks for the binary files: the journal
+ * with its snapshot, SnapshotFile on its own, AssetDatabase and
+ * AssetHistory.
+ *
+ * Each file is written through the same model listeners the app uses, then
+ * read back by a fresh instance and compared with the model. For the crash
+ * checks the last write is cut off at several points, the way a crash in
+ * the middle of it would leave the file: reopening must give the state from
+ * before that write and cut the file back to where it ended. A snapshot is
+ * never written in place, so a cut one must fail to read with an
+ * IOException instead of yielding fewer rows.
+ *
+ * Exits with status 1 if any check fails. Run with test/run.sh.
+ */
+public class FormatChecks {
+
+    private final Random random = new Random(7);
+    private int checks;
+    private int failures;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("inventory-checks").toFile();
+        FormatChecks checks = new FormatChecks();
+        try {
+            checks.snapshotFile(new File(dir, "snapshot"));
+            checks.journal(new File(dir, "journal"));
+            checks.database(new File(dir, "database"));
+            checks.history(new File(dir, "history"));
+        } finally {
+            delete(dir);
+        }
+        System.out.println(checks.checks + " checks, " + checks.failures + " failed");
+        if (checks.failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    // SnapshotFile
+
+    private void snapshotFile(File dir) throws Exception {
+        dir.mkdirs();
+        File file = new File(dir, "inventory.dat");
+        List<Asset> rows = rows(500);
+        SnapshotFile.write(file, rows, 42);
+        SnapshotFile.Contents read = SnapshotFile.read(file);
+        check("snapshot round trip", same(rows, read.rows) && read.seq == 42);
+
+        SnapshotFile.write(file, new ArrayList<>(), 0);
+        check("empty snapshot round trip", SnapshotFile.read(file).rows.isEmpty());
+
+        SnapshotFile.write(file, rows, 42);
+        long length = file.length();
+        File cut = new File(dir, "cut.dat");
+        for (long at : new long[] {0, 3, 10, 18, length / 2, length - 1}) {
+            Files.copy(file.toPath(), cut.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            truncate(cut, at);
+            String outcome;
+            try {
+                outcome = SnapshotFile.read(cut).rows.size() + " rows";
+            } catch (IOException e) {
+                outcome = null;
+            } catch (RuntimeException e) {
+                outcome = e.toString();
+            }
+            check("snapshot cut at " + at + " of " + length + " is an IOException", outcome == null, outcome);
+        }
+    }
+
+    // InventoryJournal, over its snapshot
+
+    private void journal(File dir) throws Exception {
+        dir.mkdirs();
+        File snapshot = new File(dir, "inventory.dat");
+        File log = new File(dir, "inventory.journal");
+
+        IoScheduler io = new IoScheduler();
+        InventoryJournal journal = new InventoryJournal(snapshot, log, io);
+        AssetTableModel model = new AssetTableModel();
+        model.addAssets(journal.read(0, journal.open()));
+        model.addTableModelListener(e -> journal.record(e, model));
+        model.addAssets(rows(300));
+        edit(model, 200);
+        journal.snapshot(model); // the rest only in the log
+        edit(model, 200);
+        io.shutdown();
+        journal.close();
+        List<Asset> before = model.snapshot();
+        check("journal round trip", same(before, reopenJournal(snapshot, log)));
+        long end = log.length();
+
+        // One more record, then cut inside it
+        io = new IoScheduler();
+        InventoryJournal next = new InventoryJournal(snapshot, log, io);
+        AssetTableModel nextModel = new AssetTableModel();
+        nextModel.addAssets(next.read(0, next.open()));
+        nextModel.addTableModelListener(e -> next.record(e, nextModel));
+        nextModel.addAsset(rows(1).get(0));
+        io.shutdown();
+        next.close();
+        List<Asset> after = nextModel.snapshot();
+        long length = log.length();
+
+        File copy = new File(dir, "copy");
+        copy.mkdirs();
+        File snapshotCopy = new File(copy, snapshot.getName());
+        File logCopy = new File(copy, log.getName());
+        for (long at : cuts(end, length)) {
+            Files.copy(snapshot.toPath(), snapshotCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(log.toPath(), logCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            truncate(logCopy, at);
+            List<Asset> recovered = reopenJournal(snapshotCopy, logCopy);
+            check("journal cut at " + at + " of " + length + " recovers the rows before it", same(before, recovered));
+            check("journal cut at " + at + " is trimmed to " + end, logCopy.length() == end, logCopy.length() + " bytes");
+        }
+        check("journal with its last record", same(after, reopenJournal(snapshot, log)));
+    }
+
+    private static List<Asset> reopenJournal(File snapshot, File log) throws IOException {
+        IoScheduler io = new IoScheduler();
+        InventoryJournal journal = new InventoryJournal(snapshot, log, io);
+        List<Asset> rows = journal.load();
+        io.shutdown();
+        journal.close();
+        return rows;
+    }
+
+    // AssetDatabase
+
+    private void database(File dir) throws Exception {
+        dir.mkdirs();
+        File file = new File(dir, "inventory.db");
+
+        IoScheduler io = new IoScheduler();
+        AssetDatabase db = new AssetDatabase(file, io);
+        db.open();
+        AssetTableModel model = new AssetTableModel();
+        model.addTableModelListener(e -> db.record(e, model));
+        model.addAssets(rows(300));
+        edit(model, 300);
+        io.shutdown();
+        db.close();
+        List<Asset> before = model.snapshot();
+        check("database round trip", same(before, reopenDatabase(file)));
+
+        String tag = before.get(before.size() / 2).getAssetTag().toUpperCase();
+        io = new IoScheduler();
+        AssetDatabase found = new AssetDatabase(file, io);
+        found.open();
+        int matches = 0;
+        for (Asset asset : before) {
+            matches += tag.equalsIgnoreCase(asset.getAssetTag().trim()) ? 1 : 0;
+        }
+        check("database find by Asset Tag", found.find(Asset.ASSET_TAG, tag).size() == matches);
+        io.shutdown();
+        found.close();
+
+        File index = new File(file.getPath() + ".idx");
+        File indexCopy = new File(dir, "saved.idx");
+        Files.copy(index.toPath(), indexCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        index.delete();
+        check("database replayed without its checkpoint", same(before, reopenDatabase(file)));
+        Files.copy(indexCopy.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        long end = file.length();
+
+        // One more transaction of several records, flushed but never closed, then cut inside it
+        io = new IoScheduler();
+        AssetDatabase next = new AssetDatabase(file, io);
+        next.open();
+        AssetTableModel nextModel = new AssetTableModel();
+        nextModel.addAssets(next.read(0, Integer.MAX_VALUE));
+        nextModel.addTableModelListener(e -> next.record(e, nextModel));
+        AssetTableModel.Changes changes = new AssetTableModel.Changes();
+        changes.delete(0);
+        changes.update(5, rows(1).get(0));
+        changes.insert(10, rows(1).get(0));
+        changes.add(rows(1).get(0));
+        nextModel.apply(changes);
+        io.shutdown(); // runs the flush
+        List<Asset> after = nextModel.snapshot();
+        File copy = new File(dir, "copy");
+        copy.mkdirs();
+        File crashed = new File(copy, file.getName());
+        File crashedIndex = new File(copy, index.getName());
+        Files.copy(file.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(index.toPath(), crashedIndex.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        next.close();
+        long length = crashed.length();
+
+        File cut = new File(dir, "cut");
+        cut.mkdirs();
+        File cutFile = new File(cut, file.getName());
+        File cutIndex = new File(cut, index.getName());
+        for (long at : cuts(end, length)) {
+            Files.copy(crashed.toPath(), cutFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(crashedIndex.toPath(), cutIndex.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            truncate(cutFile, at);
+            IoScheduler cutIo = new IoScheduler();
+            AssetDatabase recovered = new AssetDatabase(cutFile, cutIo);
+            int rows = recovered.open();
+            check("database cut at " + at + " of " + length + " recovers the rows before the transaction", same(before, recovered.read(0, rows)));
+            check("database cut at " + at + " is trimmed to " + end, cutFile.length() == end, cutFile.length() + " bytes");
+            cutIo.shutdown();
+            recovered.close();
+        }
+        check("database with its last transaction", same(after, reopenDatabase(crashed)));
+    }
+
+    private static List<Asset> reopenDatabase(File file) throws IOException {
+        IoScheduler io = new IoScheduler();
+        AssetDatabase db = new AssetDatabase(file, io);
+        List<Asset> rows = db.read(0, db.open());
+        io.shutdown();
+        db.close();
+        return rows;
+    }
+
+    // AssetHistory
+
+    private void history(File dir) throws Exception {
+        dir.mkdirs();
+        File file = new File(dir, "inventory.history");
+
+        IoScheduler io = new IoScheduler();
+        AssetHistory history = new AssetHistory(file, io);
+        history.open();
+        AssetTableModel model = new AssetTableModel();
+        model.addTableModelListener(e -> history.record(e, model));
+        model.addAssets(rows(200));
+        edit(model, 300);
+        List<String> before = events(history);
+        io.shutdown();
+        history.close();
+        check("history round trip", before.equals(reopenHistory(file)), before.size() + " events");
+        long end = file.length();
+
+        // One more flush of a single change, then cut inside it
+        io = new IoScheduler();
+        AssetHistory next = new AssetHistory(file, io);
+        next.open();
+        AssetTableModel nextModel = new AssetTableModel();
+        nextModel.addAssets(model.snapshot());
+        next.sync(nextModel.snapshot());
+        nextModel.addTableModelListener(e -> next.record(e, nextModel));
+        nextModel.setValueAt("Moved " + random.nextInt(1000), 0, Asset.PHYSICAL_LOCATION);
+        List<String> after = events(next);
+        io.shutdown();
+        next.close();
+        long length = file.length();
+
+        File cut = new File(dir, "cut.history");
+        for (long at : cuts(end, length)) {
+            Files.copy(file.toPath(), cut.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            truncate(cut, at);
+            check("history cut at " + at + " of " + length + " recovers the events before it", before.equals(reopenHistory(cut)));
+            check("history cut at " + at + " is trimmed to " + end, cut.length() == end, cut.length() + " bytes");
+        }
+        check("history with its last block", after.equals(reopenHistory(file)), after.size() + " events");
+    }
+
+    private static List<String> reopenHistory(File file) throws IOException {
+        IoScheduler io = new IoScheduler();
+        AssetHistory history = new AssetHistory(file, io);
+        history.open();
+        List<String> events = events(history);
+        io.shutdown();
+        history.close();
+        return events;
+    }
+
+    private static List<String> events(AssetHistory history) {
+        List<String> events = new ArrayList<>();
+        for (AssetHistory.Event event : history.events(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE)) {
+            events.add(event.asset + " " + event.time + " " + event.location + " " + event.where + " " + event.quantity + " " + event.removed);
+        }
+        return events;
+    }
+
+    // Data
+
+    private List<Asset> rows(int count) {
+        String[] locations = {"Building 1 Room 101", "Lager S\u00fcd", "\u5009\u5eab 3", "", "Building 2 Room 7"};
+        List<Asset> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            LocalDate received = random.nextInt(5) == 0 ? null : LocalDate.of(1995, 1, 1).plusDays(random.nextInt(12_000));
+            rows.add(new Asset("AT-" + random.nextInt(1_000_000), "Model " + random.nextInt(50), random.nextBoolean() ? "Dell" : "HP",
+                    "Laptop", random.nextInt(10), Long.toHexString(random.nextLong()), locations[random.nextInt(locations.length)],
+                    random.nextBoolean() ? "In use" : "Storage", received, null, random.nextInt(10) == 0 ? "Needs repair\nsee ticket" : "",
+                    Asset.NO_IMAGE));
+        }
+        return rows;
+    }
+
+    // Cell edits, whole-row updates, inserts, deletes and batches, as the app makes them
+    private void edit(AssetTableModel model, int count) {
+        for (int i = 0; i < count; i++) {
+            int row = random.nextInt(model.getRowCount());
+            switch (random.nextInt(6)) {
+                case 0:
+                    model.setValueAt("Room " + random.nextInt(100), row, Asset.PHYSICAL_LOCATION);
+                    break;
+                case 1:
+                    model.setValueAt(random.nextBoolean() ? "In use" : "Storage", row, Asset.WHERE);
+                    break;
+                case 2:
+                    model.setAsset(row, model.getAsset(row).with(Asset.QUANTITY, random.nextInt(20)));
+                    break;
+                case 3:
+                    model.addAsset(rows(1).get(0));
+                    break;
+                case 4:
+                    model.removeRow(row);
+                    break;
+                default:
+                    AssetTableModel.Changes changes = new AssetTableModel.Changes();
+                    changes.delete(row);
+                    changes.update(random.nextInt(model.getRowCount()), rows(1).get(0));
+                    changes.insert(random.nextInt(model.getRowCount()), rows(1).get(0));
+                    model.apply(changes);
+                    break;
+            }
+        }
+    }
+
+    // Points inside the bytes written after end
+    private static long[] cuts(long end, long length) {
+        return Arrays.stream(new long[] {end + 1, end + 4, end + 8, (end + length) / 2, length - 1})
+                .filter(at -> at > end && at < length).distinct().toArray();
+    }
+
+    private static boolean same(List<Asset> expected, List<Asset> actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (!Arrays.equals(expected.get(i).toValues(), actual.get(i).toValues())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void check(String name, boolean passed) {
+        check(name, passed, null);
+    }
+
+    private void check(String name, boolean passed, String detail) {
+        checks++;
+        if (!passed) {
+            failures++;
+            System.out.println("FAILED " + name + (detail != null ? " (" + detail + ")" : ""));
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
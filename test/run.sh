@@ -0,0 +1,7 @@
+#!/bin/sh
+# Compiles the app and the format checks, then runs them from the project root.
+set -e
+cd "$(dirname "$0")/.."
+rm -rf test/out
+javac -d test/out -cp "lib/*" src/*.java test/*.java
+java -Djava.awt.headless=true -cp "test/out:lib/*" FormatChecks "$@"